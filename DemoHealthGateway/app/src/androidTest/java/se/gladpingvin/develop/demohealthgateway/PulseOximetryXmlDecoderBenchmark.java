@@ -0,0 +1,123 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.os.Debug;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the pull parser based PulseOximetryXmlDecoder with the DOM based
+ * XmlHelper.parseXml + PulseOximetryMeasurement.fromXml, both for correctness and for the
+ * allocations and time spent per measurement. The numbers are written to the log (tag
+ * "XmlDecoderBenchmark").
+ */
+public class PulseOximetryXmlDecoderBenchmark extends TestCase {
+    private static final String TAG = "XmlDecoderBenchmark";
+    private static final String PATIENT = "Benchmark Patient";
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+
+    // A measurement from a Nonin pulse oximeter, as encoded by antidote/src/api/xml_encoder.c
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<data-list>" +
+            "<entry><meta-data><meta name=\"HANDLE\">1</meta></meta-data>" +
+            "<compound><name>Numeric</name><entries>" +
+            "<entry><meta-data><meta name=\"partition\">2</meta>" +
+            "<meta name=\"metric-id\">19384</meta><meta name=\"unit-code\">544</meta>" +
+            "<meta name=\"unit\">%</meta></meta-data>" +
+            "<simple><name>Basic-Nu-Observed-Value</name><type>float</type>" +
+            "<value>98.000000</value></simple></entry>" +
+            "</entries></compound></entry>" +
+            "<entry><meta-data><meta name=\"HANDLE\">10</meta></meta-data>" +
+            "<compound><name>Numeric</name><entries>" +
+            "<entry><meta-data><meta name=\"partition\">2</meta>" +
+            "<meta name=\"metric-id\">18458</meta><meta name=\"unit-code\">2720</meta>" +
+            "<meta name=\"unit\">bpm</meta></meta-data>" +
+            "<simple><name>Basic-Nu-Observed-Value</name><type>float</type>" +
+            "<value>63.000000</value></simple></entry>" +
+            "</entries></compound></entry>" +
+            "</data-list>";
+
+    public void testDecodesLikeDom() {
+        PulseOximetryMeasurement dom = PulseOximetryMeasurement.fromXml(
+                XmlHelper.parseXml(XML), PATIENT);
+        PulseOximetryMeasurement pull = new PulseOximetryXmlDecoder().decode(XML, PATIENT);
+
+        assertNotNull(pull);
+        assertEquals(63f, pull.getHeartRate());
+        assertEquals("bpm", pull.getHeartRateUnit());
+        assertEquals(98f, pull.getBloodOxygenSaturation());
+        assertEquals("%", pull.getBloodOxygenSaturationUnit());
+        assertEquals(dom.getHeartRate(), pull.getHeartRate());
+        assertEquals(dom.getHeartRateUnit(), pull.getHeartRateUnit());
+        assertEquals(dom.getBloodOxygenSaturation(), pull.getBloodOxygenSaturation());
+        assertEquals(dom.getBloodOxygenSaturationUnit(), pull.getBloodOxygenSaturationUnit());
+        assertEquals(PATIENT, pull.getPatient());
+    }
+
+    public void testMalformedXmlReturnsNull() {
+        assertNull(new PulseOximetryXmlDecoder().decode("<data-list><entry>", PATIENT));
+    }
+
+    public void testAllocationsAndLatencyPerMeasurement() {
+        final PulseOximetryXmlDecoder decoder = new PulseOximetryXmlDecoder();
+
+        Result dom = measure(new Runnable() {
+            @Override
+            public void run() {
+                PulseOximetryMeasurement.fromXml(XmlHelper.parseXml(XML), PATIENT);
+            }
+        });
+        Result pull = measure(new Runnable() {
+            @Override
+            public void run() {
+                decoder.decode(XML, PATIENT);
+            }
+        });
+
+        Log.i(TAG, "DOM:  " + dom);
+        Log.i(TAG, "Pull: " + pull);
+
+        assertTrue("Pull parsing allocated more objects than DOM parsing",
+                pull.objects < dom.objects);
+    }
+
+    private static Result measure(Runnable decode) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decode.run();
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            decode.run();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+
+        return new Result((double) Debug.getThreadAllocCount() / ITERATIONS,
+                (double) Debug.getThreadAllocSize() / ITERATIONS,
+                (double) elapsed / ITERATIONS / 1000);
+    }
+
+    private static class Result {
+        final double objects;
+        final double bytes;
+        final double micros;
+
+        Result(double objects, double bytes, double micros) {
+            this.objects = objects;
+            this.bytes = bytes;
+            this.micros = micros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f objects, %.0f bytes, %.1f us per measurement", objects,
+                    bytes, micros);
+        }
+    }
+}
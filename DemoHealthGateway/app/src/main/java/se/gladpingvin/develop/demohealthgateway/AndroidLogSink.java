@@ -0,0 +1,34 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.util.Log;
+
+import java.util.logging.Level;
+
+/**
+ * GatewayLog.Sink which writes the gateway core's log messages to logcat, with the same levels as
+ * when the core classes were part of the app
+ */
+public class AndroidLogSink implements GatewayLog.Sink {
+    private static boolean installed = false;
+
+    /**
+     * Makes GatewayLog write to logcat, unless that has already been done
+     */
+    public static synchronized void install() {
+        if (!installed) {
+            GatewayLog.setSink(new AndroidLogSink());
+            installed = true;
+        }
+    }
+
+    @Override
+    public void log(Level level, String tag, String message) {
+        if (level.intValue() >= Level.SEVERE.intValue()) {
+            Log.e(tag, message);
+        } else if (level.intValue() >= Level.WARNING.intValue()) {
+            Log.w(tag, message);
+        } else {
+            Log.v(tag, message);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Hashed timer wheel for the protocol timers that Antidote creates (association, configuration
+ * and confirmation timeouts). Timers are kept in a fixed number of slots, chosen by the tick on
+ * which they expire, and a single tick message on the Antidote worker advances the wheel for as
+ * long as there are pending timers. Creating and cancelling a timer are O(1), and all timers that
+ * expire on the same tick are delivered together as one batch.
+ *
+ * The wheel isn't thread safe, it must only be used on the worker thread whose Handler it was
+ * created with (which is where Antidote calls create_timer and cancel_timer anyway).
+ */
+public class AntidoteTimerWheel {
+    private static final String TAG = "AntidoteTimerWheel";
+
+    // Antidote's timeouts are whole seconds, so a tenth of a second is plenty of resolution
+    private static final int TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 64;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int MAX_RECYCLED = 32;
+    private static final int MSG_TICK = 1;
+
+    /**
+     * Receives the alarms of expired timers
+     */
+    public interface Listener {
+        /**
+         * Called on the worker thread with the contexts of all timers that expired on a tick
+         * @param contexts the contexts of the expired timers, only the first count are valid and
+         *                 the array is reused once the call returns
+         * @param count the number of expired timers
+         */
+        void onAlarms(int[] contexts, int count);
+    }
+
+    private static class Timer {
+        int id;
+        int context;
+        long expiry;
+        Timer previous;
+        Timer next;
+    }
+
+    private final Timer[] slots = new Timer[WHEEL_SIZE];
+    private final HashMap<Integer, Timer> timers = new HashMap<>();
+    private final Listener listener;
+    private final Handler handler;
+
+    private Timer recycled = null;
+    private int recycledCount = 0;
+    private int[] batch = new int[8];
+    private int lastId = 0;
+    private long currentTick = 0;
+    private boolean ticking = false;
+
+    /**
+     * Constructor for AntidoteTimerWheel
+     * @param worker the AntidoteWorker on whose thread the wheel ticks
+     * @param listener the Listener that receives the alarms
+     */
+    public AntidoteTimerWheel(AntidoteWorker worker, Listener listener) {
+        this.listener = listener;
+        this.handler = worker.createHandler(new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what != MSG_TICK) {
+                    return false;
+                }
+
+                tick();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Creates a timer which alarms a given context once, after a given time
+     * @param milliseconds the time until the alarm in milliseconds
+     * @param context the context which the alarm is for
+     * @return the id of the created timer, never 0
+     */
+    public int create(int milliseconds, int context) {
+        long now = SystemClock.uptimeMillis();
+
+        if (!ticking) {
+            currentTick = now / TICK_MILLIS;
+        }
+
+        // Rounded up, so that a timer never goes off early
+        long expiry = (now + Math.max(milliseconds, 0) + TICK_MILLIS - 1) / TICK_MILLIS;
+        if (expiry <= currentTick) {
+            expiry = currentTick + 1;
+        }
+
+        do {
+            if (++lastId > 0x7ffffffe) {
+                lastId = 1;
+            }
+        } while (timers.containsKey(lastId));
+
+        Timer timer = obtain();
+        timer.id = lastId;
+        timer.context = context;
+        timer.expiry = expiry;
+        link(timer);
+        timers.put(timer.id, timer);
+
+        if (!ticking) {
+            ticking = true;
+            scheduleTick();
+        }
+
+        Log.v(TAG, "Created timer " + timer.id + " for ctx " + context + " timeout " +
+                milliseconds + "ms");
+
+        return timer.id;
+    }
+
+    /**
+     * Cancels a timer, unless it already has gone off
+     * @param id the id of the timer to cancel
+     * @return true if the timer was pending, otherwise false
+     */
+    public boolean cancel(int id) {
+        Timer timer = timers.remove(id);
+
+        if (timer == null) {
+            return false;
+        }
+
+        unlink(timer);
+        recycle(timer);
+        Log.v(TAG, "Cancelled timer " + id);
+
+        return true;
+    }
+
+    /**
+     * Getter method for the number of pending timers
+     * @return the number of timers that have been created, but neither have gone off nor have been
+     * cancelled
+     */
+    public int getPendingCount() {
+        return timers.size();
+    }
+
+    private void tick() {
+        long nowTick = SystemClock.uptimeMillis() / TICK_MILLIS;
+        int count = 0;
+
+        // Should the worker have fallen a whole revolution behind, every slot is due
+        long first = Math.max(currentTick + 1, nowTick - WHEEL_MASK);
+        for (long tick = first; tick <= nowTick; tick++) {
+            Timer timer = slots[(int) (tick & WHEEL_MASK)];
+
+            while (timer != null) {
+                Timer next = timer.next;
+
+                if (timer.expiry <= nowTick) {
+                    if (count == batch.length) {
+                        int[] newBatch = new int[batch.length * 2];
+                        System.arraycopy(batch, 0, newBatch, 0, count);
+                        batch = newBatch;
+                    }
+
+                    Log.v(TAG, "Timer callback " + timer.id + " ctx " + timer.context);
+                    batch[count++] = timer.context;
+                    timers.remove(timer.id);
+                    unlink(timer);
+                    recycle(timer);
+                }
+
+                timer = next;
+            }
+        }
+
+        currentTick = nowTick;
+
+        if (count > 0) {
+            // May create and cancel timers, which is fine as the slots aren't being walked anymore
+            listener.onAlarms(batch, count);
+        }
+
+        if (timers.isEmpty()) {
+            ticking = false;
+        } else {
+            scheduleTick();
+        }
+    }
+
+    private void scheduleTick() {
+        handler.sendEmptyMessageAtTime(MSG_TICK, (currentTick + 1) * TICK_MILLIS);
+    }
+
+    private void link(Timer timer) {
+        int slot = (int) (timer.expiry & WHEEL_MASK);
+
+        timer.previous = null;
+        timer.next = slots[slot];
+        if (timer.next != null) {
+            timer.next.previous = timer;
+        }
+        slots[slot] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[(int) (timer.expiry & WHEEL_MASK)] = timer.next;
+        }
+
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+
+        timer.previous = null;
+        timer.next = null;
+    }
+
+    private Timer obtain() {
+        Timer timer = recycled;
+
+        if (timer == null) {
+            return new Timer();
+        }
+
+        recycled = timer.next;
+        timer.next = null;
+        recycledCount--;
+        return timer;
+    }
+
+    private void recycle(Timer timer) {
+        if (recycledCount < MAX_RECYCLED) {
+            timer.next = recycled;
+            recycled = timer;
+            recycledCount++;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single-threaded executor with a Looper of its own, on which all calls into the Antidote library
+ * (via JNIBridge) are made, so that the protocol processing for the devices never runs on the main
+ * thread. Work can be submitted as Runnables and Callables, or as Messages through Handlers
+ * created with createHandler. All of them share the same queue, and the executor keeps track of
+ * the queue depth and of how long work waits in the queue and takes to run.
+ */
+public class AntidoteWorker {
+    // How long call waits for its result, so that a caller is never blocked for good by a worker
+    // that is stuck or has quit
+    private static final long CALL_TIMEOUT_MILLIS = 10 * 1000;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private volatile boolean quitting = false;
+
+    private int queueDepth = 0;
+    private int maxQueueDepth = 0;
+    private long calls = 0;
+    private long totalWaitMillis = 0;
+    private long maxWaitMillis = 0;
+    private long totalRunNanos = 0;
+    private long maxRunNanos = 0;
+
+    /**
+     * Starts the worker thread
+     */
+    public AntidoteWorker() {
+        thread = new HandlerThread("Antidote", Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        handler = createHandler(null);
+    }
+
+    /**
+     * Creates a Handler that handles its Messages on the worker thread, and which is included in
+     * the worker's metrics. Messages sent to it must not be removed from the queue again (e.g.
+     * with removeMessages), as that would throw the queue depth off.
+     * @param callback the Callback which handles the Messages, may be null when the Handler is
+     *                 only used for posting Runnables
+     * @return a new Handler on the worker thread
+     */
+    public Handler createHandler(Handler.Callback callback) {
+        return new MeteredHandler(thread.getLooper(), callback);
+    }
+
+    /**
+     * Getter method for the worker thread's Looper
+     * @return the Looper of the worker thread
+     */
+    public Looper getLooper() {
+        return thread.getLooper();
+    }
+
+    /**
+     * Checks whether the calling thread is the worker thread
+     * @return true if called on the worker thread, otherwise false
+     */
+    public boolean isWorkerThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs a Runnable on the worker thread, after all work that has already been submitted
+     * @param runnable the Runnable to run
+     */
+    public void execute(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    /**
+     * Runs a Callable on the worker thread and waits for its result. Should the caller be the
+     * worker thread itself, the Callable is run directly (waiting for it would deadlock).
+     * @param callable the Callable to run
+     * @param <T> the type of the result
+     * @return the result of callable
+     * @throws RuntimeException if callable threw an exception, or if the calling thread was
+     * interrupted while waiting
+     * @throws IllegalStateException if the worker has quit, so callable would never run, or if
+     * callable didn't run within CALL_TIMEOUT_MILLIS
+     */
+    public <T> T call(Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<>(callable);
+
+        if (isWorkerThread()) {
+            task.run();
+        } else if (quitting || !handler.post(task)) {
+            throw new IllegalStateException("Antidote worker has quit");
+        }
+
+        try {
+            return task.get(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ee) {
+            throw new RuntimeException(ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (TimeoutException te) {
+            task.cancel(false);
+            throw new IllegalStateException("Antidote worker didn't run the call in " +
+                    CALL_TIMEOUT_MILLIS + " ms");
+        }
+    }
+
+    /**
+     * Stops the worker thread once the work that is due has been run. Work that is submitted
+     * after this, and delayed work that isn't due yet, is dropped.
+     */
+    public void quit() {
+        quitting = true;
+
+        // Like HandlerThread.quitSafely, which needs API level 18: the quit is queued behind the
+        // work that is due, so that every call that is already waiting gets its result
+        if (!handler.post(new Runnable() {
+            @Override
+            public void run() {
+                thread.quit();
+            }
+        })) {
+            thread.quit();
+        }
+    }
+
+    /**
+     * Getter method for queue depth
+     * @return the number of Runnables and Messages waiting to be run on the worker thread
+     */
+    public synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Getter method for max queue depth
+     * @return the highest queue depth since the worker was started
+     */
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Getter method for calls
+     * @return the number of Runnables and Messages that have been run on the worker thread
+     */
+    public synchronized long getCallCount() {
+        return calls;
+    }
+
+    /**
+     * Writes the worker's metrics in human readable form, for HealthService's dump
+     * @param writer the PrintWriter to write to
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Antidote worker:");
+        writer.println("  queue depth: " + queueDepth + " (max " + maxQueueDepth + ")");
+        writer.println("  calls: " + calls);
+
+        if (calls > 0) {
+            writer.println("  wait: avg " + (totalWaitMillis / calls) + " ms, max " +
+                    maxWaitMillis + " ms");
+            writer.println("  run: avg " + (totalRunNanos / calls / 1000) + " us, max " +
+                    (maxRunNanos / 1000) + " us");
+        }
+    }
+
+    private synchronized void enqueued() {
+        queueDepth++;
+
+        if (queueDepth > maxQueueDepth) {
+            maxQueueDepth = queueDepth;
+        }
+    }
+
+    private synchronized void dequeued() {
+        queueDepth--;
+    }
+
+    private synchronized void ran(long waitMillis, long runNanos) {
+        calls++;
+        totalWaitMillis += waitMillis;
+        totalRunNanos += runNanos;
+
+        if (waitMillis > maxWaitMillis) {
+            maxWaitMillis = waitMillis;
+        }
+        if (runNanos > maxRunNanos) {
+            maxRunNanos = runNanos;
+        }
+    }
+
+    /**
+     * Handler that updates the worker's metrics. The wait of a Message is measured from when it
+     * was due (i.e. when it was sent, unless it was delayed) to when it starts running.
+     */
+    private class MeteredHandler extends Handler {
+        MeteredHandler(Looper looper, Callback callback) {
+            super(looper, callback);
+        }
+
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            enqueued();
+
+            boolean sent = super.sendMessageAtTime(msg, uptimeMillis);
+            if (!sent) {
+                dequeued();
+            }
+
+            return sent;
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            dequeued();
+
+            long waitMillis = SystemClock.uptimeMillis() - msg.getWhen();
+            long start = System.nanoTime();
+
+            super.dispatchMessage(msg);
+
+            ran(waitMillis, System.nanoTime() - start);
+        }
+    }
+}
@@ -20,9 +20,11 @@ import android.util.Log;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Service Class for handling the actual Bluetooth communication, quite much the same code as in the
@@ -52,26 +54,33 @@ public class BluetoothCommunicationService extends Service {
     public static final int MSG_DISCONNECT_CHANNEL = 401;
     public static final int MSG_SEND_DATA = 501;
 
-    private List<BluetoothHealthAppConfiguration> configurations =
-            new ArrayList<>();
+    // Added to on the binder thread of the Bluetooth callbacks
+    private final List<BluetoothHealthAppConfiguration> configurations =
+            new CopyOnWriteArrayList<>();
 
-    private HashMap<BluetoothDevice, List<BluetoothHealthAppConfiguration>> deviceConfigurations =
-            new HashMap<>();
+    // The per-device maps are read by the read threads of all devices, without locking
+    private final ConcurrentHashMap<BluetoothDevice, List<BluetoothHealthAppConfiguration>>
+            deviceConfigurations = new ConcurrentHashMap<>();
 
     private BluetoothHealth bluetoothHealth;
 
-    private Messenger clientMessenger;
+    // HealthService, which handles the data of all devices
+    private volatile Messenger clientMessenger;
 
-    private HashMap<BluetoothDevice, Integer> channelIds = new HashMap<>();
-    private HashMap<BluetoothDevice, FileOutputStream> writers =
-            new HashMap<>();
+    private final ConcurrentHashMap<BluetoothDevice, Integer> channelIds =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<BluetoothDevice, FileOutputStream> writers =
+            new ConcurrentHashMap<>();
 
     private boolean acceptsConfiguration(BluetoothHealthAppConfiguration configuration) {
         return configurations.contains(configuration);
     }
 
     private List<BluetoothHealthAppConfiguration> getDeviceConfigurations(BluetoothDevice device) {
-        if (!deviceConfigurations.containsKey(device)) {
+        List<BluetoothHealthAppConfiguration> deviceConfiguration =
+                deviceConfigurations.get(device);
+
+        if (deviceConfiguration == null) {
             if (configurations.size() > 0) {
                 return configurations;
             } else {
@@ -79,7 +88,7 @@ public class BluetoothCommunicationService extends Service {
             }
         }
 
-        return deviceConfigurations.get(device);
+        return deviceConfiguration;
     }
 
     private BluetoothHealthAppConfiguration getDeviceConfiguration(BluetoothDevice device) {
@@ -110,7 +119,8 @@ public class BluetoothCommunicationService extends Service {
     }
 
     private int getChannelId(BluetoothDevice device) {
-        return channelIds.containsKey(device) ? channelIds.get(device) : RESULT_FAIL;
+        Integer channelId = channelIds.get(device);
+        return channelId != null ? channelId : RESULT_FAIL;
     }
 
     private synchronized void insertChannelId(BluetoothDevice device, int channelId) {
@@ -118,7 +128,7 @@ public class BluetoothCommunicationService extends Service {
     }
 
     private FileOutputStream getWriter(BluetoothDevice device) {
-        return writers.containsKey(device) ? writers.get(device) : null;
+        return writers.get(device);
     }
 
     private synchronized void insertWriter(BluetoothDevice device, FileOutputStream writer) {
@@ -314,10 +324,10 @@ public class BluetoothCommunicationService extends Service {
         }
     };
 
-    private void sendMessage(int what, int value, Object obj) {
+    private boolean sendMessage(int what, int value, Object obj) {
         if (clientMessenger == null) {
             Log.w(TAG, "Tried sending a message without any clients connected!");
-            return;
+            return false;
         }
 
         try {
@@ -326,7 +336,10 @@ public class BluetoothCommunicationService extends Service {
             clientMessenger.send(msg);
         } catch (RemoteException re) {
             Log.e(TAG, "Couldn't send message to client");
+            return false;
         }
+
+        return true;
     }
 
     private class ReadThread extends Thread {
@@ -339,24 +352,34 @@ public class BluetoothCommunicationService extends Service {
             this.device = device;
         }
 
+        // Every APDU is read into a pooled direct buffer, which the receiver (HealthService)
+        // returns to the pool once Antidote has processed it
         @Override
         public void run() {
-            FileInputStream inputStream = new FileInputStream(pfd.getFileDescriptor());
-            final byte[] data = new byte[8192];
+            FileChannel channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+            ReceivedDataPool pool = ReceivedDataPool.getInstance();
 
             try {
-                int length;
-                while ((length = inputStream.read(data)) > -1) {
-                    if (length > 0) {
-                        byte[] buffer = new byte[length];
-                        System.arraycopy(data, 0, buffer, 0, length);
-
-                        Log.v(TAG, "Reading stuffs!");
-
-                        Object[] pair = new Object[2];
-                        pair[0] = device;
-                        pair[1] = buffer;
-                        sendMessage(STATUS_READ_DATA, RESULT_OK, pair);
+                while (true) {
+                    ReceivedDataPool.ReceivedData received = pool.acquire(device);
+                    int length = channel.read(received.getBuffer());
+
+                    if (length <= 0) {
+                        pool.release(received);
+
+                        if (length < 0) {
+                            break;
+                        }
+                        continue;
+                    }
+
+                    received.getBuffer().flip();
+                    received.markReceived();
+
+                    Log.v(TAG, "Reading stuffs!");
+
+                    if (!sendMessage(STATUS_READ_DATA, RESULT_OK, received)) {
+                        pool.release(received);
                     }
                 }
             } catch (IOException ioe) {
@@ -2,8 +2,10 @@ package se.gladpingvin.develop.demohealthgateway;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 /**
@@ -12,7 +14,7 @@ import android.util.Log;
  */
 public class DatabaseHandler extends SQLiteOpenHelper {
     private static final String TAG = "DBHandler";
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 13;
     private static final String DATABASE_NAME = "measurements";
 
     public static final String TABLE_NAME_OXIMETRY = "oximetryMeasurements";
@@ -20,35 +22,156 @@ public class DatabaseHandler extends SQLiteOpenHelper {
     public static final String COLUMN_NAME_HEARTRATEUNIT = "heartRateUnit";
     public static final String COLUMN_NAME_SATURATION = "bloodOxygenSaturation";
     public static final String COLUMN_NAME_SATURATIONUNIT = "bloodOxygenSaturationUnit";
+    // Milliseconds since the epoch (before version 6 a String on the form YYYYMMDDHHMMSS)
     public static final String COLUMN_NAME_TIMESTAMP = "timeStamp";
+    public static final String COLUMN_NAME_TIMESTAMP_SECONDS = "timeStampSeconds";
     public static final String COLUMN_NAME_PATIENT = "patientIdentification";
+    // Given to the measurement when it is received and sent along when it is uploaded
+    public static final String COLUMN_NAME_CLIENT_ID = "clientId";
     private static final String OXIMETRY_TABLE_CREATE =
             "CREATE TABLE " + TABLE_NAME_OXIMETRY + " (id INTEGER, " + COLUMN_NAME_HEARTRATE +
                     " REAL, " + COLUMN_NAME_HEARTRATEUNIT + " TEXT, " + COLUMN_NAME_SATURATION +
                     " REAL, " + COLUMN_NAME_SATURATIONUNIT + " TEXT, " + COLUMN_NAME_TIMESTAMP +
-                    " TEXT, " + COLUMN_NAME_PATIENT + " TEXT, PRIMARY KEY(id ASC))";
+                    " INTEGER, " + COLUMN_NAME_PATIENT + " TEXT, " + COLUMN_NAME_TIMESTAMP_SECONDS +
+                    " INTEGER, " + COLUMN_NAME_CLIENT_ID + " TEXT, PRIMARY KEY(id ASC))";
+    // Serves the newest-first pages of the measurement list
+    private static final String OXIMETRY_TIME_INDEX_CREATE =
+            "CREATE INDEX oximetryTime ON " + TABLE_NAME_OXIMETRY + " (" +
+                    COLUMN_NAME_TIMESTAMP_SECONDS + ", id)";
+    private static final String OXIMETRY_CLIENT_ID_INDEX_CREATE =
+            "CREATE UNIQUE INDEX oximetryClientId ON " + TABLE_NAME_OXIMETRY + " (" +
+                    COLUMN_NAME_CLIENT_ID + ")";
+
+    // Two measurements of the same patient with the same values in the same second are
+    // duplicates. The index starts with (patient, timestamp), so it also serves the +/- 1 second
+    // range lookups done before inserting.
+    private static final String INDEX_NAME_OXIMETRY_DEDUP = "oximetryDedup";
+    private static final String OXIMETRY_DEDUP_INDEX_CREATE =
+            "CREATE UNIQUE INDEX " + INDEX_NAME_OXIMETRY_DEDUP + " ON " + TABLE_NAME_OXIMETRY +
+                    " (" + COLUMN_NAME_PATIENT + ", " + COLUMN_NAME_TIMESTAMP_SECONDS + ", " +
+                    COLUMN_NAME_HEARTRATE + ", " + COLUMN_NAME_SATURATION + ")";
+
+    // Measurements that haven't been uploaded yet, in the order they were received. Triggers keep
+    // exactly one outbox row for every row in the oximetry table, whichever way it is written.
+    public static final String TABLE_NAME_OUTBOX = "outbox";
+    public static final String COLUMN_NAME_MEASUREMENT_ID = "measurementId";
+    public static final String COLUMN_NAME_ATTEMPTS = "attempts";
+    public static final String COLUMN_NAME_ENQUEUED = "enqueued";
+    private static final String OUTBOX_TABLE_CREATE =
+            "CREATE TABLE " + TABLE_NAME_OUTBOX + " (id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_NAME_MEASUREMENT_ID + " INTEGER NOT NULL, " + COLUMN_NAME_ATTEMPTS +
+                    " INTEGER NOT NULL DEFAULT 0, " + COLUMN_NAME_ENQUEUED + " INTEGER)";
+    private static final String OUTBOX_INDEX_CREATE =
+            "CREATE INDEX outboxMeasurement ON " + TABLE_NAME_OUTBOX + " (" +
+                    COLUMN_NAME_MEASUREMENT_ID + ")";
+    private static final String OUTBOX_INSERT_TRIGGER_CREATE =
+            "CREATE TRIGGER outboxEnqueue AFTER INSERT ON " + TABLE_NAME_OXIMETRY + " BEGIN " +
+                    "INSERT INTO " + TABLE_NAME_OUTBOX + " (" + COLUMN_NAME_MEASUREMENT_ID + ", " +
+                    COLUMN_NAME_ENQUEUED + ") VALUES (NEW.id, strftime('%s', 'now') * 1000); END";
+    private static final String OUTBOX_DELETE_TRIGGER_CREATE =
+            "CREATE TRIGGER outboxRemove AFTER DELETE ON " + TABLE_NAME_OXIMETRY + " BEGIN " +
+                    "DELETE FROM " + TABLE_NAME_OUTBOX + " WHERE " + COLUMN_NAME_MEASUREMENT_ID +
+                    " = OLD.id; END";
+
+    // Captured waveforms, in compressed blocks of many samples each (see WaveformBlock)
+    public static final String TABLE_NAME_WAVEFORM = "waveformBlocks";
+    public static final String COLUMN_NAME_METRIC_ID = "metricId";
+    public static final String COLUMN_NAME_START = "startMillis";
+    public static final String COLUMN_NAME_SAMPLE_PERIOD = "samplePeriod";
+    public static final String COLUMN_NAME_SAMPLE_COUNT = "sampleCount";
+    public static final String COLUMN_NAME_RESOLUTION = "resolution";
+    public static final String COLUMN_NAME_DATA = "data";
+    private static final String WAVEFORM_TABLE_CREATE =
+            "CREATE TABLE " + TABLE_NAME_WAVEFORM + " (id INTEGER PRIMARY KEY, " +
+                    COLUMN_NAME_PATIENT + " TEXT, " + COLUMN_NAME_METRIC_ID + " INTEGER, " +
+                    COLUMN_NAME_START + " INTEGER, " + COLUMN_NAME_SAMPLE_PERIOD + " INTEGER, " +
+                    COLUMN_NAME_SAMPLE_COUNT + " INTEGER, " + COLUMN_NAME_RESOLUTION + " REAL, " +
+                    COLUMN_NAME_DATA + " BLOB)";
+    private static final String WAVEFORM_INDEX_CREATE =
+            "CREATE INDEX waveformTime ON " + TABLE_NAME_WAVEFORM + " (" + COLUMN_NAME_PATIENT +
+                    ", " + COLUMN_NAME_METRIC_ID + ", " + COLUMN_NAME_START + ")";
+
+    // Window summaries of streaming mode that haven't been uploaded yet (see MeasurementAggregator)
+    public static final String TABLE_NAME_SUMMARY = "summaries";
+    public static final String COLUMN_NAME_DEVICE = "device";
+    public static final String COLUMN_NAME_WINDOW_MILLIS = "windowMillis";
+    public static final String COLUMN_NAME_COUNT = "count";
+    public static final String COLUMN_NAME_MIN_SATURATION = "minSaturation";
+    public static final String COLUMN_NAME_MAX_SATURATION = "maxSaturation";
+    public static final String COLUMN_NAME_MEAN_SATURATION = "meanSaturation";
+    public static final String COLUMN_NAME_MIN_HEARTRATE = "minHeartRate";
+    public static final String COLUMN_NAME_MAX_HEARTRATE = "maxHeartRate";
+    public static final String COLUMN_NAME_MEAN_HEARTRATE = "meanHeartRate";
+    private static final String SUMMARY_TABLE_CREATE =
+            "CREATE TABLE " + TABLE_NAME_SUMMARY + " (id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    COLUMN_NAME_CLIENT_ID + " TEXT UNIQUE, " + COLUMN_NAME_PATIENT + " TEXT, " +
+                    COLUMN_NAME_DEVICE + " TEXT, " + COLUMN_NAME_START + " INTEGER, " +
+                    COLUMN_NAME_WINDOW_MILLIS + " INTEGER, " +
+                    COLUMN_NAME_COUNT + " INTEGER, " + COLUMN_NAME_MIN_SATURATION + " REAL, " +
+                    COLUMN_NAME_MAX_SATURATION + " REAL, " + COLUMN_NAME_MEAN_SATURATION +
+                    " REAL, " + COLUMN_NAME_MIN_HEARTRATE + " REAL, " + COLUMN_NAME_MAX_HEARTRATE +
+                    " REAL, " + COLUMN_NAME_MEAN_HEARTRATE + " REAL)";
 
     public static final String TABLE_NAME_SETTINGS = "settings";
     public static final String COLUMN_NAME_URL = "url";
     public static final String COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW = "automatic_flow";
+    public static final String COLUMN_NAME_UPLOAD_BATCH_SIZE = "uploadBatchSize";
+    public static final String COLUMN_NAME_POLL_INTERVAL = "pollInterval";
+    // The thresholds use the summary columns' names, but hold the limits of the readings
+    private static final String SETTINGS_THRESHOLD_COLUMNS =
+            COLUMN_NAME_MIN_SATURATION + " REAL DEFAULT " +
+                    VitalThresholds.DEFAULT.getMinSaturation() + ", " +
+                    COLUMN_NAME_MIN_HEARTRATE + " REAL DEFAULT " +
+                    VitalThresholds.DEFAULT.getMinHeartRate() + ", " +
+                    COLUMN_NAME_MAX_HEARTRATE + " REAL DEFAULT " +
+                    VitalThresholds.DEFAULT.getMaxHeartRate();
     private static final String SETTINGS_TABLE_CREATE =
             "CREATE TABLE " + TABLE_NAME_SETTINGS + " (id INTEGER, " + COLUMN_NAME_PATIENT +
                     " TEXT, " + COLUMN_NAME_URL + " TEXT, " + COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW +
-                    " INTEGER, PRIMARY KEY(id ASC))";
+                    " INTEGER, " + COLUMN_NAME_UPLOAD_BATCH_SIZE + " INTEGER, " +
+                    COLUMN_NAME_POLL_INTERVAL + " INTEGER DEFAULT 0, " +
+                    SETTINGS_THRESHOLD_COLUMNS + ", PRIMARY KEY(id ASC))";
 
-    DatabaseHandler(Context context) {
+    private static DatabaseHandler instance = null;
+
+    private DatabaseHandler(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * Getter method for the singleton instance of DatabaseHandler. Having only one instance means
+     * that the whole process shares a single database connection, which SQLite serialises access
+     * to, instead of every caller opening and closing a connection of its own. The connection is
+     * therefore never closed by the callers.
+     * @param context a Context for fetching the database, only used on the first call
+     * @return the singleton instance of the DatabaseHandler class
+     */
+    public static synchronized DatabaseHandler getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHandler(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(OXIMETRY_TABLE_CREATE);
+        db.execSQL(OXIMETRY_DEDUP_INDEX_CREATE);
+        db.execSQL(OXIMETRY_CLIENT_ID_INDEX_CREATE);
+        db.execSQL(OXIMETRY_TIME_INDEX_CREATE);
+        createOutbox(db);
+        db.execSQL(WAVEFORM_TABLE_CREATE);
+        db.execSQL(WAVEFORM_INDEX_CREATE);
+        db.execSQL(SUMMARY_TABLE_CREATE);
         db.execSQL(SETTINGS_TABLE_CREATE);
 
         ContentValues values = new ContentValues();
         values.put(DatabaseHandler.COLUMN_NAME_PATIENT, "Default Patient");
         values.put(DatabaseHandler.COLUMN_NAME_URL, "http://example.com/");
         values.put(DatabaseHandler.COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW, 0);
+        values.put(DatabaseHandler.COLUMN_NAME_UPLOAD_BATCH_SIZE,
+                Settings.DEFAULT_UPLOAD_BATCH_SIZE);
         long id = db.insert(DatabaseHandler.TABLE_NAME_SETTINGS, null, values);
 
         Log.v(TAG, id == -1 ? "Failed initialising settings" : "Initialised settings");
@@ -56,17 +179,19 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion == 1 && newVersion == 4) {
+        if (oldVersion == 1) {
             db.execSQL(SETTINGS_TABLE_CREATE);
 
             ContentValues values = new ContentValues();
             values.put(DatabaseHandler.COLUMN_NAME_PATIENT, "Default Patient");
             values.put(DatabaseHandler.COLUMN_NAME_URL, "http://example.com/");
             values.put(DatabaseHandler.COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW, 0);
+            values.put(DatabaseHandler.COLUMN_NAME_UPLOAD_BATCH_SIZE,
+                    Settings.DEFAULT_UPLOAD_BATCH_SIZE);
             long id = db.insert(DatabaseHandler.TABLE_NAME_SETTINGS, null, values);
 
             Log.v(TAG, id == -1 ? "Failed initialising settings" : "Initialised settings");
-        } else if (oldVersion == 2 && newVersion == 4) {
+        } else if (oldVersion == 2) {
             String SETTINGS_TABLE_ALTER = "ALTER TABLE " + TABLE_NAME_SETTINGS + " ADD COLUMN " +
                     COLUMN_NAME_URL + " TEXT";
             db.execSQL(SETTINGS_TABLE_ALTER);
@@ -83,7 +208,7 @@ public class DatabaseHandler extends SQLiteOpenHelper {
             long id = db.update(DatabaseHandler.TABLE_NAME_SETTINGS, values, whereClause, args);
 
             Log.v(TAG, id == -1 ? "Failed initialising settings" : "Initialised settings");
-        } else if (oldVersion == 3 && newVersion == 4) {
+        } else if (oldVersion == 3) {
             String SETTINGS_TABLE_ALTER = "ALTER TABLE " + TABLE_NAME_SETTINGS + " ADD COLUMN " +
                     COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW + " INTEGER";
             db.execSQL(SETTINGS_TABLE_ALTER);
@@ -97,5 +222,203 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 
             Log.v(TAG, id == -1 ? "Failed initialising settings" : "Initialised settings");
         }
+
+        if (oldVersion < 5) {
+            upgradeToDedupIndex(db);
+        }
+        if (oldVersion < 6) {
+            upgradeToEpochMillis(db);
+        }
+        // Version 1 databases got the column when the settings table was created above
+        if (oldVersion > 1 && oldVersion < 7) {
+            upgradeToUploadBatchSize(db);
+        }
+        if (oldVersion < 8) {
+            upgradeToOutbox(db);
+        }
+        // Before version 6 the oximetry table is rebuilt above, which gives it the column
+        if (oldVersion > 5 && oldVersion < 9) {
+            db.execSQL("ALTER TABLE " + TABLE_NAME_OXIMETRY + " ADD COLUMN " +
+                    COLUMN_NAME_CLIENT_ID + " TEXT");
+        }
+        if (oldVersion < 9) {
+            upgradeToClientId(db);
+        }
+        if (oldVersion < 10) {
+            db.execSQL(OXIMETRY_TIME_INDEX_CREATE);
+            Log.v(TAG, "Upgraded database to version 10");
+        }
+        if (oldVersion < 11) {
+            db.execSQL(WAVEFORM_TABLE_CREATE);
+            db.execSQL(WAVEFORM_INDEX_CREATE);
+            Log.v(TAG, "Upgraded database to version 11");
+        }
+        // Version 1 databases got the column when the settings table was created above
+        if (oldVersion > 1 && oldVersion < 12) {
+            db.execSQL("ALTER TABLE " + TABLE_NAME_SETTINGS + " ADD COLUMN " +
+                    COLUMN_NAME_POLL_INTERVAL + " INTEGER DEFAULT 0");
+            Log.v(TAG, "Upgraded database to version 12");
+        }
+        if (oldVersion < 13) {
+            upgradeToSummaries(db, oldVersion > 1);
+        }
+    }
+
+    /**
+     * Adds the summary table and the thresholds of streaming mode to the settings (version 13)
+     * @param db the database to upgrade
+     * @param addThresholds false if the settings table already has the threshold columns, i.e.
+     *                      it was created by this upgrade
+     */
+    private void upgradeToSummaries(SQLiteDatabase db, boolean addThresholds) {
+        db.execSQL(SUMMARY_TABLE_CREATE);
+
+        if (addThresholds) {
+            for (String column : SETTINGS_THRESHOLD_COLUMNS.split(", ")) {
+                db.execSQL("ALTER TABLE " + TABLE_NAME_SETTINGS + " ADD COLUMN " + column);
+            }
+        }
+
+        Log.v(TAG, "Upgraded database to version 13");
+    }
+
+    /**
+     * Gives every stored measurement a client id (version 9). The measurements were received
+     * before client ids existed, so they get random ones, just as new measurements do.
+     * @param db the database to upgrade
+     */
+    private void upgradeToClientId(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + TABLE_NAME_OXIMETRY + " SET " + COLUMN_NAME_CLIENT_ID +
+                " = lower(hex(randomblob(16))) WHERE " + COLUMN_NAME_CLIENT_ID + " IS NULL");
+        db.execSQL(OXIMETRY_CLIENT_ID_INDEX_CREATE);
+
+        Log.v(TAG, "Upgraded database to version 9");
+    }
+
+    /**
+     * Adds the outbox (version 8). Before it, the oximetry table only held measurements that had
+     * failed to upload, so all of them are put in the outbox.
+     * @param db the database to upgrade
+     */
+    private void upgradeToOutbox(SQLiteDatabase db) {
+        createOutbox(db);
+        db.execSQL("INSERT INTO " + TABLE_NAME_OUTBOX + " (" + COLUMN_NAME_MEASUREMENT_ID + ", " +
+                COLUMN_NAME_ENQUEUED + ") SELECT id, " + COLUMN_NAME_TIMESTAMP + " FROM " +
+                TABLE_NAME_OXIMETRY + " ORDER BY id");
+
+        Log.v(TAG, "Upgraded database to version 8");
+    }
+
+    private void createOutbox(SQLiteDatabase db) {
+        db.execSQL(OUTBOX_TABLE_CREATE);
+        db.execSQL(OUTBOX_INDEX_CREATE);
+        db.execSQL(OUTBOX_INSERT_TRIGGER_CREATE);
+        db.execSQL(OUTBOX_DELETE_TRIGGER_CREATE);
+    }
+
+    /**
+     * Adds the upload batch size to the settings (version 7)
+     * @param db the database to upgrade
+     */
+    private void upgradeToUploadBatchSize(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME_SETTINGS + " ADD COLUMN " +
+                COLUMN_NAME_UPLOAD_BATCH_SIZE + " INTEGER");
+
+        String whereClause = "id = ?";
+        String[] args = { "1" };
+
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHandler.COLUMN_NAME_UPLOAD_BATCH_SIZE,
+                Settings.DEFAULT_UPLOAD_BATCH_SIZE);
+        db.update(DatabaseHandler.TABLE_NAME_SETTINGS, values, whereClause, args);
+
+        Log.v(TAG, "Upgraded database to version 7");
+    }
+
+    /**
+     * Adds the epoch-second timestamp column and the dedup index (version 5). The new column is
+     * filled in from the String timestamps (YYYYMMDDHHMMSS, with the month zero-based as in
+     * GregorianCalendar), and rows that would violate the dedup index are removed, keeping the
+     * oldest row of every duplicate group.
+     * @param db the database to upgrade
+     */
+    private void upgradeToDedupIndex(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME_OXIMETRY + " ADD COLUMN " +
+                COLUMN_NAME_TIMESTAMP_SECONDS + " INTEGER");
+
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_NAME_OXIMETRY + " SET " +
+                COLUMN_NAME_TIMESTAMP_SECONDS + " = ? WHERE id = ?");
+
+        Cursor cursor = db.query(TABLE_NAME_OXIMETRY, new String[]{"id", COLUMN_NAME_TIMESTAMP},
+                null, null, null, null, null);
+
+        try {
+            while (cursor.moveToNext()) {
+                update.bindLong(1, legacyTimeStampToMillis(cursor.getString(1)) / 1000);
+                update.bindLong(2, cursor.getLong(0));
+                update.execute();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+
+        db.execSQL("DELETE FROM " + TABLE_NAME_OXIMETRY + " WHERE id NOT IN (SELECT MIN(id) FROM " +
+                TABLE_NAME_OXIMETRY + " GROUP BY " + COLUMN_NAME_PATIENT + ", " +
+                COLUMN_NAME_TIMESTAMP_SECONDS + ", " + COLUMN_NAME_HEARTRATE + ", " +
+                COLUMN_NAME_SATURATION + ")");
+        db.execSQL(OXIMETRY_DEDUP_INDEX_CREATE);
+
+        Log.v(TAG, "Upgraded database to version 5");
+    }
+
+    /**
+     * Changes the timestamp column from a String to milliseconds since the epoch (version 6).
+     * SQLite can't change the type of a column, so the table is rebuilt, taking the timestamps from
+     * the epoch-second column, which already has the zero-based months of the old String format
+     * taken care of.
+     * @param db the database to upgrade
+     */
+    private void upgradeToEpochMillis(SQLiteDatabase db) {
+        String oldTable = TABLE_NAME_OXIMETRY + "_v5";
+        String columns = "id, " + COLUMN_NAME_HEARTRATE + ", " + COLUMN_NAME_HEARTRATEUNIT + ", " +
+                COLUMN_NAME_SATURATION + ", " + COLUMN_NAME_SATURATIONUNIT + ", " +
+                COLUMN_NAME_PATIENT + ", " + COLUMN_NAME_TIMESTAMP_SECONDS;
+
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_NAME_OXIMETRY_DEDUP);
+        db.execSQL("ALTER TABLE " + TABLE_NAME_OXIMETRY + " RENAME TO " + oldTable);
+        db.execSQL(OXIMETRY_TABLE_CREATE);
+        db.execSQL("INSERT INTO " + TABLE_NAME_OXIMETRY + " (" + columns + ", " +
+                COLUMN_NAME_TIMESTAMP + ") SELECT " + columns + ", " +
+                COLUMN_NAME_TIMESTAMP_SECONDS + " * 1000 FROM " + oldTable);
+        db.execSQL("DROP TABLE " + oldTable);
+        db.execSQL(OXIMETRY_DEDUP_INDEX_CREATE);
+
+        Log.v(TAG, "Upgraded database to version 6");
+    }
+
+    /**
+     * Converts a timestamp of the pre version 6 String format (YYYYMMDDHHMMSS, with the month
+     * zero-based as in GregorianCalendar) into milliseconds since the epoch
+     * @param time the String to convert
+     * @return the milliseconds since the epoch corresponding to time, should time not be of the
+     * correct format, the current time is returned instead
+     */
+    private static long legacyTimeStampToMillis(String time) {
+        try {
+            return TimeStamps.fromLocalFields(
+                    Integer.parseInt(time.substring(0, 4)),
+                    Integer.parseInt(time.substring(4, 6)) + 1,
+                    Integer.parseInt(time.substring(6, 8)),
+                    Integer.parseInt(time.substring(8, 10)),
+                    Integer.parseInt(time.substring(10, 12)),
+                    Integer.parseInt(time.substring(12, 14)));
+        } catch (IndexOutOfBoundsException ioobe) {
+            Log.v(TAG, "Timestamp string from database was too short: " + time);
+        } catch (NumberFormatException nfe) {
+            Log.v(TAG, "Timestamp string from database contained non-numbers: " + time);
+        }
+
+        return System.currentTimeMillis();
     }
 }
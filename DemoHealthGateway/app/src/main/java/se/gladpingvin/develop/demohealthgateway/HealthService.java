@@ -1,6 +1,5 @@
 package se.gladpingvin.develop.demohealthgateway;
 
-import android.annotation.SuppressLint;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
@@ -17,19 +16,36 @@ import android.os.Messenger;
 import android.os.RemoteException;
 import android.util.Log;
 
-import java.util.ArrayList;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service class for handling the communication between BluetoothCommunicationService and the
  * Antidote library (via JNIBridge). More or less the same code as in the Android example of the
- * Antidote project (https://github.com/signove/antidote).
+ * Antidote project (https://github.com/signove/antidote), except that everything that involves
+ * Antidote runs on a dedicated worker thread (see AntidoteWorker) instead of the main thread.
+ * This includes the callbacks to the HealthAgents, which therefore mustn't touch any views
+ * directly.
+ *
+ * Measurements that Antidote hands over as values are also checked against the patient's
+ * thresholds right there on the worker thread, before any HealthAgent gets them, and breaches are
+ * posted as alerts by an AlertDispatcher (see checkAlert). Measurements in XML form (see
+ * SetXmlMeasurements) aren't checked, as decoding XML on the worker would hold up every device.
  */
 public class HealthService extends Service {
     private String TAG = "HSS";
     private String PATH_PREFIX = "/se/gladpingvin/develop/demohealthgateway/device/";
-    private Handler handler;
+    private final AntidoteWorker worker = new AntidoteWorker();
+    private AntidoteTimerWheel timers;
+    private MeasurementPollScheduler polls;
+    private AlertDispatcher alerts;
     private JNIBridge antidote;
 
     private static final int [] HEALTH_PROFILE_SOURCE_DATA_TYPES = {0x1004, 0x1007, 0x1029, 0x100f};
@@ -37,34 +53,57 @@ public class HealthService extends Service {
     private Messenger mHealthService;
     private boolean mHealthServiceBound;
 
-    private List<HealthAgentAPI> agents = new ArrayList<>();
+    // Added and removed on binder threads while the worker thread iterates over it
+    private final List<HealthAgentAPI> agents = new CopyOnWriteArrayList<>();
 
-    private int timer_id = 0;
-    private int context_id = 0;
-    private HashMap<Integer, Runnable> timers = new HashMap<>();
+    private final AtomicInteger context_id = new AtomicInteger();
 
-    private HashMap<Integer, BluetoothDevice> ctx_dev = new HashMap<>();
-    private HashMap<String, Integer> addr_ctx = new HashMap<>();
-    private HashMap<String, Integer> path_ctx = new HashMap<>();
+    // Read from the Antidote worker thread and the binder threads, without locking; only inserting
+    // a new context is synchronized, so that a device never gets two
+    private final ConcurrentHashMap<Integer, BluetoothDevice> ctx_dev = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> addr_ctx = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> path_ctx = new ConcurrentHashMap<>();
+
+    // When the data that Antidote is processing was received, only touched on the Antidote worker
+    // thread
+    private long packet_received_nanos = 0;
+
+    // The history syncs in progress, by context, only touched on the Antidote worker thread
+    private final Map<Integer, HistorySync> history_syncs = new HashMap<>();
+
+    // What is left of a device's history sync: PM-Stores whose segment count isn't known yet, and
+    // segments that haven't been received yet
+    private static class HistorySync {
+        int pendingStores;
+        int pendingSegments = 0;
+        int segments = 0;
+        int failed = 0;
+
+        HistorySync(int stores) {
+            pendingStores = stores;
+        }
+    }
 
     private int new_context()
     {
-        ++context_id;
-        return context_id;
+        return context_id.incrementAndGet();
     }
 
     private synchronized int insert_context(BluetoothDevice dev)
     {
         String addr = dev.getAddress();
+        Integer existing = addr_ctx.get(addr);
 
-        if (addr_ctx.containsKey(addr)) {
-            throw new AssertionError("Trying to reinsert context for " + addr);
+        // Another thread may have inserted it since get_context looked
+        if (existing != null) {
+            return existing;
         }
         int context = new_context();
 
+        // addr_ctx last, so that the other maps are complete once get_context can find it
         ctx_dev.put(context, dev);
-        addr_ctx.put(addr, context);
         path_ctx.put(PATH_PREFIX + context, context);
+        addr_ctx.put(addr, context);
 
         return context;
     }
@@ -76,13 +115,9 @@ public class HealthService extends Service {
      */
     public int get_context(BluetoothDevice dev)
     {
-        String addr = dev.getAddress();
-
-        if (! addr_ctx.containsKey(addr)) {
-            insert_context(dev);
-        }
+        Integer context = addr_ctx.get(dev.getAddress());
 
-        return addr_ctx.get(addr);
+        return context != null ? context : insert_context(dev);
     }
 
     /**
@@ -93,11 +128,13 @@ public class HealthService extends Service {
      */
     public int get_context(String path)
     {
-        if (! path_ctx.containsKey(path)) {
+        Integer context = path_ctx.get(path);
+
+        if (context == null) {
             Log.w(TAG, "Path " + path + " has no associated context");
             return 0;
         }
-        return path_ctx.get(path);
+        return context;
     }
 
     /**
@@ -108,11 +145,12 @@ public class HealthService extends Service {
      */
     public BluetoothDevice get_device(int context)
     {
-        if (! ctx_dev.containsKey(context)) {
+        BluetoothDevice dev = ctx_dev.get(context);
+
+        if (dev == null) {
             Log.w(TAG, "Context " + context + " has no associated device");
-            return null;
         }
-        return ctx_dev.get(context);
+        return dev;
     }
 
     /**
@@ -141,15 +179,10 @@ public class HealthService extends Service {
      * given timer id
      * @param timer_id the timer id for the timer to stop and remove
      */
-    public synchronized void cancel_timer(int timer_id)
+    public void cancel_timer(int timer_id)
     {
-        Runnable r = timers.get(timer_id);
-        if (r != null) {
-            Log.w(TAG, "Cancelling timer " + timer_id);
-            handler.removeCallbacks(r);
-            timers.remove(timer_id);
-        } else {
-            Log.w(TAG, "Tried to cancel unknown timer " + timer_id);
+        if (!timers.cancel(timer_id)) {
+            Log.v(TAG, "Timer " + timer_id + " has already gone off or is unknown");
         }
     }
 
@@ -160,27 +193,9 @@ public class HealthService extends Service {
      * @param context the context to send alarm signals to
      * @return the id of the created timer
      */
-    public synchronized int create_timer(int milliseconds, int context)
+    public int create_timer(int milliseconds, int context)
     {
-        final int ctx = context;
-
-        if (++timer_id > 0x7ffffffe) {
-            timer_id = 1;
-        }
-
-        Log.w(TAG, "Creating timer " + timer_id + " timeout " + milliseconds + "ms");
-
-        final Runnable task = new Runnable () {
-            public void run() {
-                Log.w(TAG, "Timer callback " + timer_id + " ctx " + ctx);
-                antidote.timer_alarm(ctx);
-            }
-        };
-
-        handler.postDelayed(task, milliseconds);
-        timers.put(timer_id, task);
-
-        return timer_id;
+        return timers.create(milliseconds, context);
     }
 
     /**
@@ -201,9 +216,103 @@ public class HealthService extends Service {
      */
     public void disassociated(int context)
     {
+        HistorySync sync = history_syncs.get(context);
+
+        if (sync != null) {
+            // What hasn't arrived yet never will
+            sync.failed += sync.pendingSegments;
+            sync.pendingStores = 0;
+            sync.pendingSegments = 0;
+            finishHistorySync(context);
+        }
+
+        polls.stop(context);
         sendDisassociated(context);
     }
 
+    /**
+     * To be used by Antidote, tells how many segments of a PM-Store are fetched for the history
+     * sync of a device
+     * @param context the context id of the device
+     * @param handle the handle of the PM-Store
+     * @param segments the number of segments that are fetched
+     */
+    public void historysegments(int context, int handle, int segments)
+    {
+        HistorySync sync = history_syncs.get(context);
+
+        if (sync == null) {
+            return;
+        }
+
+        sync.pendingStores--;
+        sync.pendingSegments += segments;
+        sync.segments += segments;
+        finishHistorySync(context);
+    }
+
+    /**
+     * To be used by Antidote, sends a chunk of a PM-Segment's entries to the HealthAgents
+     * @param context the context id of the device
+     * @param handle the handle of the PM-Store
+     * @param instnumber the instance number of the PM-Segment
+     * @param entryTimes the time of every entry, packed as YYYYMMDDhhmmss, 0 if unknown
+     * @param valueEntries the entry (index into entryTimes) that each value belongs to
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the stored values
+     * @param units the units of the values
+     * @param last true for the last chunk of the segment
+     */
+    public void segmentvalues(int context, int handle, int instnumber, long[] entryTimes,
+                              int[] valueEntries, int[] metricIds, float[] values,
+                              String[] units, boolean last)
+    {
+        if (entryTimes.length > 0) {
+            sendSegmentValues(context, entryTimes, valueEntries, metricIds, values, units);
+        }
+
+        HistorySync sync = history_syncs.get(context);
+
+        if (last && sync != null) {
+            sync.pendingSegments--;
+            finishHistorySync(context);
+        }
+    }
+
+    /**
+     * To be used by Antidote, tells whether the device agreed to send a PM-Segment, a segment
+     * that it refused is counted as failed
+     * @param context the context id of the device
+     * @param handle the handle of the PM-Store
+     * @param instnumber the instance number of the PM-Segment
+     * @param status 0 if the segment is sent
+     */
+    public void segmentdataresponse(int context, int handle, int instnumber, int status)
+    {
+        HistorySync sync = history_syncs.get(context);
+
+        if (status == 0 || sync == null) {
+            return;
+        }
+
+        Log.w(TAG, "Segment " + instnumber + " of PM-Store " + handle + " refused: " + status);
+        sync.pendingSegments--;
+        sync.failed++;
+        finishHistorySync(context);
+    }
+
+    // Tells the HealthAgents that a device's history sync is done, should it be
+    private void finishHistorySync(int context) {
+        HistorySync sync = history_syncs.get(context);
+
+        if (sync == null || sync.pendingStores > 0 || sync.pendingSegments > 0) {
+            return;
+        }
+
+        history_syncs.remove(context);
+        sendHistorySynced(context, sync.segments, sync.failed);
+    }
+
     /**
      * To be used by Antidote, sends an "Attributes message" to the HealthAgent with a given context
      * id and removes all other HealthAgents from the list of configured HealthAgents
@@ -226,11 +335,62 @@ public class HealthService extends Service {
         sendMeasurementData(context, xml);
     }
 
-    // Handles events sent by {@link HealthHDPService}.
-    @SuppressLint("HandlerLeak")
-    private Handler mIncomingHandler = new Handler() {
+    /**
+     * To be used by Antidote, sends a "Measurement message" with the measurement as parallel
+     * arrays to the HealthAgents
+     * @param context the context id of the device that took the measurement
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the measured values
+     * @param units the units of the values
+     */
+    public void measurementvalues(int context, int[] metricIds, float[] values, String[] units)
+    {
+        checkAlert(metricIds, values, units);
+        sendMeasurementValues(context, metricIds, values, units);
+    }
+
+    /**
+     * To be used by Antidote, sends the latest samples of a real-time sample array to the
+     * HealthAgents
+     * @param context the context id of the device that took the samples
+     * @param metricId the IEEE 11073 metric id of the sample array
+     * @param samplePeriod the time between two samples, in 1/8 ms
+     * @param samples the scaled samples, oldest first
+     */
+    public void measurementsamples(int context, int metricId, int samplePeriod, float[] samples)
+    {
+        sendMeasurementSamples(context, metricId, samplePeriod, samples);
+    }
+
+    /**
+     * To be used by Antidote, sends the values of a scan report to the HealthAgents
+     * @param context the context id of the device that sent the scan report
+     * @param handle the handle of the scanner that sent the scan report
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the scanned values
+     * @param units the units of the values
+     */
+    public void scanreport(int context, int handle, int[] metricIds, float[] values,
+                           String[] units)
+    {
+        checkAlert(metricIds, values, units);
+        sendScanReport(context, handle, metricIds, values, units);
+    }
+
+    // Checks a measurement against the patient's thresholds before it goes anywhere else, on the
+    // Antidote worker thread while it is processing the data that brought the measurement
+    private void checkAlert(int[] metricIds, float[] values, String[] units) {
+        Settings settings = Settings.getInstance(this);
+
+        alerts.setServiceRoot(settings.getBackendUrl());
+        alerts.check(PulseOximetryMeasurement.fromValues(metricIds, values, units,
+                settings.getPatient()), packet_received_nanos);
+    }
+
+    // Handles events sent by {@link HealthHDPService}, on the Antidote worker thread.
+    private Handler mIncomingHandler = worker.createHandler(new Handler.Callback() {
         @Override
-        public void handleMessage(Message msg) {
+        public boolean handleMessage(Message msg) {
             int context;
             BluetoothDevice mDevice;
 
@@ -246,10 +406,16 @@ public class HealthService extends Service {
 
                 case BluetoothCommunicationService.STATUS_READ_DATA:
                     Log.w(TAG, "HDP data");
-                    Object [] pair = (Object []) msg.obj;
-                    context = get_context((BluetoothDevice) pair[0]);
-                    if (context > 0) {
-                        antidote.data_received(context, (byte []) pair[1]);
+                    ReceivedDataPool.ReceivedData received =
+                            (ReceivedDataPool.ReceivedData) msg.obj;
+                    try {
+                        context = get_context(received.getDevice());
+                        if (context > 0) {
+                            packet_received_nanos = received.getReceivedNanos();
+                            antidote.data_received(context, received.getBuffer());
+                        }
+                    } finally {
+                        ReceivedDataPool.getInstance().release(received);
                     }
                     break;
 
@@ -282,9 +448,13 @@ public class HealthService extends Service {
                         sendDisconnected(context);
                     }
                     break;
+                default:
+                    return false;
             }
+
+            return true;
         }
-    };
+    });
 
     private final Messenger mMessenger = new Messenger(mIncomingHandler);
 
@@ -413,8 +583,7 @@ public class HealthService extends Service {
     }
 
     private void sendConnected(int context, BluetoothDevice dev) {
-        List<HealthAgentAPI> tmp = new ArrayList<>(agents);
-        for (HealthAgentAPI agent: tmp) {
+        for (HealthAgentAPI agent: agents) {
             try {
                 agent.Connected(PATH_PREFIX + context, dev.getAddress());
                 Log.w(TAG, "Sent connected to " + agent);
@@ -426,8 +595,7 @@ public class HealthService extends Service {
     }
 
     private void sendAssociated(int context, String xml_associated) {
-        List<HealthAgentAPI> tmp = new ArrayList<>(agents);
-        for (HealthAgentAPI agent: tmp) {
+        for (HealthAgentAPI agent: agents) {
             try {
                 agent.Associated(PATH_PREFIX + context, xml_associated);
                 Log.w(TAG, "Sent associated to " + agent);
@@ -439,8 +607,7 @@ public class HealthService extends Service {
     }
 
     private void sendMeasurementData(int context, String xml_measurement) {
-        List<HealthAgentAPI> tmp = new ArrayList<>(agents);
-        for (HealthAgentAPI agent: tmp) {
+        for (HealthAgentAPI agent: agents) {
             try {
                 agent.MeasurementData(PATH_PREFIX + context, xml_measurement);
                 Log.w(TAG, "Sent measurement to " + agent);
@@ -451,9 +618,70 @@ public class HealthService extends Service {
         }
     }
 
+    private void sendMeasurementValues(int context, int[] metricIds, float[] values,
+                                       String[] units) {
+        for (HealthAgentAPI agent: agents) {
+            try {
+                agent.MeasurementValues(PATH_PREFIX + context, metricIds, values, units);
+                Log.w(TAG, "Sent measurement values to " + agent);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Failed to comm with listener " + agent);
+                agents.remove(agent);
+            }
+        }
+    }
+
+    private void sendMeasurementSamples(int context, int metricId, int samplePeriod,
+                                        float[] samples) {
+        for (HealthAgentAPI agent: agents) {
+            try {
+                agent.MeasurementSamples(PATH_PREFIX + context, metricId, samplePeriod, samples);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Failed to comm with listener " + agent);
+                agents.remove(agent);
+            }
+        }
+    }
+
+    private void sendScanReport(int context, int handle, int[] metricIds, float[] values,
+                                String[] units) {
+        for (HealthAgentAPI agent: agents) {
+            try {
+                agent.ScanReport(PATH_PREFIX + context, handle, metricIds, values, units);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Failed to comm with listener " + agent);
+                agents.remove(agent);
+            }
+        }
+    }
+
+    private void sendSegmentValues(int context, long[] entryTimes, int[] valueEntries,
+                                   int[] metricIds, float[] values, String[] units) {
+        for (HealthAgentAPI agent: agents) {
+            try {
+                agent.SegmentValues(PATH_PREFIX + context, entryTimes, valueEntries, metricIds,
+                        values, units);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Failed to comm with listener " + agent);
+                agents.remove(agent);
+            }
+        }
+    }
+
+    private void sendHistorySynced(int context, int segments, int failed) {
+        for (HealthAgentAPI agent: agents) {
+            try {
+                agent.HistorySynced(PATH_PREFIX + context, segments, failed);
+                Log.w(TAG, "Sent history synced to " + agent);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Failed to comm with listener " + agent);
+                agents.remove(agent);
+            }
+        }
+    }
+
     private void sendDisassociated(int context) {
-        List<HealthAgentAPI> tmp = new ArrayList<>(agents);
-        for (HealthAgentAPI agent: tmp) {
+        for (HealthAgentAPI agent: agents) {
             try {
                 agent.Disassociated(PATH_PREFIX + context);
                 Log.w(TAG, "Sent disassociated to " + agent);
@@ -465,8 +693,7 @@ public class HealthService extends Service {
     }
 
     private void sendDisconnected(int context) {
-        List<HealthAgentAPI> tmp = new ArrayList<>(agents);
-        for (HealthAgentAPI agent: tmp) {
+        for (HealthAgentAPI agent: agents) {
             try {
                 agent.Disconnected(PATH_PREFIX + context);
                 Log.w(TAG, "Sent disconnected to " + agent);
@@ -478,8 +705,7 @@ public class HealthService extends Service {
     }
 
     private void sendDeviceAttributes(int context, String xml_attributes) {
-        List<HealthAgentAPI> tmp = new ArrayList<>(agents);
-        for (HealthAgentAPI agent: tmp) {
+        for (HealthAgentAPI agent: agents) {
             try {
                 agent.DeviceAttributes(PATH_PREFIX + context, xml_attributes);
                 Log.w(TAG, "Sent device attributes to " + agent);
@@ -493,33 +719,53 @@ public class HealthService extends Service {
 
     private HealthServiceAPI.Stub apiEndpoint = new HealthServiceAPI.Stub() {
         @Override
-        public void RequestDeviceAttributes(String dev) throws RemoteException {
+        public void RequestDeviceAttributes(final String dev) throws RemoteException {
             Log.w(TAG, "Asking deviceAttributes");
-            int context = get_context(dev);
-            antidote.reqmdsattr(context);
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int context = get_context(dev);
+                    antidote.reqmdsattr(context);
+                }
+            });
         }
 
         @Override
-        public String GetConfiguration(String dev) throws RemoteException {
+        public String GetConfiguration(final String dev) throws RemoteException {
             Log.w(TAG, "Returning config");
-            int context = get_context(dev);
-            return antidote.getconfig(context);
+            return worker.call(new Callable<String>() {
+                @Override
+                public String call() {
+                    int context = get_context(dev);
+                    return antidote.getconfig(context);
+                }
+            });
         }
 
         // FIXME add to AIDL
         // @Override
-        public void ReleaseAssociation(String dev) throws RemoteException {
+        public void ReleaseAssociation(final String dev) throws RemoteException {
             Log.w(TAG, "Releasing association (asked by client)");
-            int context = get_context(dev);
-            antidote.releaseassoc(context);
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int context = get_context(dev);
+                    antidote.releaseassoc(context);
+                }
+            });
         }
 
         // FIXME add to AIDL
         // @Override
-        public void AbortAssociation(String dev) throws RemoteException {
+        public void AbortAssociation(final String dev) throws RemoteException {
             Log.w(TAG, "Aborting association (asked by client)");
-            int context = get_context(dev);
-            antidote.abortassoc(context);
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int context = get_context(dev);
+                    antidote.abortassoc(context);
+                }
+            });
         }
 
         @Override
@@ -535,6 +781,99 @@ public class HealthService extends Service {
             agents.remove(agt);
             Log.w(TAG, "Unconfigured agent " + agt);
         }
+
+        @Override
+        public void SyncDeviceHistory(final String dev) throws RemoteException {
+            Log.w(TAG, "Syncing device history");
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int context = get_context(dev);
+
+                    if (history_syncs.containsKey(context)) {
+                        // Already syncing, the running sync will tell when it is done
+                        return;
+                    }
+
+                    history_syncs.put(context, new HistorySync(antidote.synchistory(context)));
+                    finishHistorySync(context);
+                }
+            });
+        }
+
+        @Override
+        public int[] GetScanners(final String dev) throws RemoteException {
+            Log.w(TAG, "Returning scanners");
+            return worker.call(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    int context = get_context(dev);
+                    return antidote.scanners(context);
+                }
+            });
+        }
+
+        @Override
+        public void SubscribeScanner(final String dev, final int handle) throws RemoteException {
+            Log.w(TAG, "Subscribing to scanner " + handle);
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int context = get_context(dev);
+                    antidote.reqactivationscanner(context, handle);
+                }
+            });
+        }
+
+        @Override
+        public void UnsubscribeScanner(final String dev, final int handle) throws RemoteException {
+            Log.w(TAG, "Unsubscribing from scanner " + handle);
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int context = get_context(dev);
+                    antidote.reqdeactivationscanner(context, handle);
+                }
+            });
+        }
+
+        @Override
+        public void StartPolling(final String dev, final int intervalMillis)
+                throws RemoteException {
+            Log.w(TAG, "Polling for measurements every " + intervalMillis + "ms");
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int context = get_context(dev);
+
+                    if (context != 0) {
+                        polls.start(context, intervalMillis);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void StopPolling(final String dev) throws RemoteException {
+            Log.w(TAG, "Stopping polling for measurements");
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    polls.stop(get_context(dev));
+                }
+            });
+        }
+
+        @Override
+        public void SetXmlMeasurements(final boolean enabled) throws RemoteException {
+            Log.w(TAG, "Measurements as xml: " + enabled);
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    antidote.set_xml_measurements(enabled);
+                }
+            });
+        }
     };
 
     @Override
@@ -544,6 +883,11 @@ public class HealthService extends Service {
 
     @Override
     public void onCreate() {
+        AndroidLogSink.install();
+
+        Settings settings = Settings.getInstance(this);
+        alerts = new AlertDispatcher(settings.getPatientThresholds(), settings.getBackendUrl());
+
         // If Bluetooth is not on, request that it be enabled.
         BluetoothAdapter mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         if (mBluetoothAdapter == null) {
@@ -561,8 +905,26 @@ public class HealthService extends Service {
 
         registerReceiver(mReceiver, initIntentFilter());
 
-        handler = new Handler();
-        antidote = new JNIBridge(this);
+        timers = new AntidoteTimerWheel(worker, new AntidoteTimerWheel.Listener() {
+            @Override
+            public void onAlarms(int[] contexts, int count) {
+                antidote.timer_alarms(contexts, count);
+            }
+        });
+        polls = new MeasurementPollScheduler(worker, new MeasurementPollScheduler.Listener() {
+            @Override
+            public void onPolls(int[] contexts, int count) {
+                for (int i = 0; i < count; i++) {
+                    antidote.reqmeasurement(contexts[i]);
+                }
+            }
+        });
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                antidote = new JNIBridge(HealthService.this);
+            }
+        });
     }
 
     @Override
@@ -570,5 +932,34 @@ public class HealthService extends Service {
         super.onDestroy();
         if (mHealthServiceBound) unbindService(mConnection);
         unregisterReceiver(mReceiver);
+        worker.quit();
+        alerts.shutdown();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        worker.dump(writer);
+
+        // Without Bluetooth, onCreate returns before the timers and polls are set up
+        if (timers != null && polls != null) {
+            try {
+                writer.println("  pending timers: " + worker.call(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return timers.getPendingCount();
+                    }
+                }));
+                writer.println("  polled devices: " + worker.call(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return polls.getPolledCount();
+                    }
+                }));
+            } catch (IllegalStateException ise) {
+                writer.println("  worker has quit");
+            }
+        }
+
+        alerts.dump(writer);
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package se.gladpingvin.develop.demohealthgateway;
 
+import java.nio.ByteBuffer;
+
 /**
  * A JNI Bridge class (i.e. a class that acts as a bridge between the Java world and the native
  * world in which the Antidote library resides), more or less the same code as in the Android
@@ -68,11 +70,24 @@ public class JNIBridge {
         Cdatareceived(context, data);
     }
 
+    /**
+     * To be used by the Bluetooth service, submits received data from a Personal Health Device to
+     * Antidote without copying it, Antidote reads the data directly from the buffer's memory
+     * @param context the context id of the Bluetooth device which sent the data
+     * @param data a direct ByteBuffer with the data between its position and limit, it can be
+     *             reused as soon as this method returns
+     */
+    public synchronized void data_received(int context, ByteBuffer data)
+    {
+        Cdatareceiveddirect(context, data, data.position(), data.remaining());
+    }
+
     // Declaration of native functions, they will appear as not existing in Android Studio, because
     // the Antidote library is only included as pre-compiled binaries in the project
     public native void Cchannelconnected(int context);
     public native void Cchanneldisconnected(int context);
     public native void Cdatareceived(int context, byte [] data);
+    public native void Cdatareceiveddirect(int context, ByteBuffer data, int offset, int length);
 
     /**
      * To be used by Antidote (hence the C style method name), stops and removes the timer with a
@@ -139,7 +154,116 @@ public class JNIBridge {
         healthService.measurementdata(context, xml);
     }
 
-    // FIXME implement PM-Store calls
+    /**
+     * To be used by Antidote, sends a "Measurement message" to the HealthAgents, with the
+     * measurement flattened into parallel arrays instead of xml (element i of each array belongs
+     * to the same value). This is the default, measurementdata is only used in xml debug mode.
+     * @param context the context id of the device that took the measurement
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the measured values
+     * @param units the units of the values, empty Strings for unknown units
+     */
+    public void measurementvalues(int context, int[] metricIds, float[] values, String[] units)
+    {
+        healthService.measurementvalues(context, metricIds, values, units);
+    }
+
+    /**
+     * To be used by Antidote, sends the latest samples of a real-time sample array (e.g. the
+     * plethysmogram of a pulse oximeter) to the HealthAgents. The samples are already scaled into
+     * actual values.
+     * @param context the context id of the device that took the samples
+     * @param metricId the IEEE 11073 metric id of the sample array
+     * @param samplePeriod the time between two samples, in 1/8 ms
+     * @param samples the samples, oldest first
+     */
+    public void measurementsamples(int context, int metricId, int samplePeriod, float[] samples)
+    {
+        healthService.measurementsamples(context, metricId, samplePeriod, samples);
+    }
+
+    /**
+     * To be used by Antidote, sends the values of a scan report, flattened like those of
+     * measurementvalues, to the HealthAgents. Scan reports come from the scanners that have been
+     * activated with reqactivationscanner.
+     * @param context the context id of the device that sent the scan report
+     * @param handle the handle of the scanner that sent the scan report
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the scanned values
+     * @param units the units of the values, empty Strings for unknown units
+     */
+    public void scanreport(int context, int handle, int[] metricIds, float[] values,
+                           String[] units)
+    {
+        healthService.scanreport(context, handle, metricIds, values, units);
+    }
+
+    /**
+     * Tells Antidote whether measurements should be sent as xml (via measurementdata, for
+     * debugging) or as arrays (via measurementvalues, the default)
+     * @param enabled true to send measurements as xml
+     */
+    public synchronized void set_xml_measurements(boolean enabled)
+    {
+        Csetxmlmeasurements(enabled);
+    }
+
+    /**
+     * To be used by the health service, asks Antidote to fetch all stored readings of the device
+     * with a given context id, i.e. the segments of all its PM-Stores. Antidote answers with
+     * historysegments for every PM-Store and then segmentvalues (or segmentdataresponse, should a
+     * segment fail) for every segment.
+     * @param context the context id of the device
+     * @return the number of PM-Stores whose segments are fetched, 0 if the device has none
+     */
+    public synchronized int synchistory(int context)
+    {
+        return Csynchistory(context);
+    }
+
+    /**
+     * To be used by Antidote, tells how many segments of a PM-Store it fetches for a history sync
+     * @param context the context id of the device
+     * @param handle the handle of the PM-Store
+     * @param segments the number of segments that are fetched
+     */
+    public void historysegments(int context, int handle, int segments)
+    {
+        healthService.historysegments(context, handle, segments);
+    }
+
+    /**
+     * To be used by Antidote, hands over a chunk of the entries of a PM-Segment, flattened into
+     * parallel arrays like measurementvalues
+     * @param context the context id of the device
+     * @param handle the handle of the PM-Store
+     * @param instnumber the instance number of the PM-Segment
+     * @param entryTimes the time of every entry, packed as YYYYMMDDhhmmss, 0 if unknown
+     * @param valueEntries the entry (index into entryTimes) that each value belongs to
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the stored values
+     * @param units the units of the values, empty Strings for unknown units
+     * @param last true for the last chunk of the segment
+     */
+    public void segmentvalues(int context, int handle, int instnumber, long[] entryTimes,
+                              int[] valueEntries, int[] metricIds, float[] values,
+                              String[] units, boolean last)
+    {
+        healthService.segmentvalues(context, handle, instnumber, entryTimes, valueEntries,
+                metricIds, values, units, last);
+    }
+
+    /**
+     * To be used by Antidote, tells whether the device agreed to send a PM-Segment
+     * @param context the context id of the device
+     * @param handle the handle of the PM-Store
+     * @param instnumber the instance number of the PM-Segment
+     * @param status the IEEE 11073 trig-segm-xfer-rsp, 0 if the segment is sent
+     */
+    public void segmentdataresponse(int context, int handle, int instnumber, int status)
+    {
+        healthService.segmentdataresponse(context, handle, instnumber, status);
+    }
 
     /**
      * Called by the alarm timers created by HealthService, just forwards the alarm for a device's
@@ -151,6 +275,17 @@ public class JNIBridge {
         Ctimeralarm(handle);
     }
 
+    /**
+     * Called by HealthService's timer wheel, forwards the alarms of all timers that went off on
+     * the same tick to Antidote in a single call
+     * @param handles the contexts for which the alarms are
+     * @param count the number of alarms, i.e. how many of the first handles are valid
+     */
+    public synchronized void timer_alarms(int[] handles, int count)
+    {
+        Ctimeralarms(handles, count);
+    }
+
     /**
      * Tells Antidote to initialise the healthd service with the Application's file path
      */
@@ -209,6 +344,18 @@ public class JNIBridge {
         Creqmdsattr(context);
     }
 
+    /**
+     * To be called by the health service, lists the configurable scanners of the device with a
+     * given context id
+     * @param context the context id of the device
+     * @return four ints per scanner: its handle, its kind (0 for episodic, 1 for periodic), its
+     * operational state (1 when enabled) and its reporting interval in 1/8 ms
+     */
+    public synchronized int[] scanners(int context)
+    {
+        return Cscanners(context);
+    }
+
     /**
      * To be called by the Bluetooth service, requests that Antidote activates the scanner for the
      * Bluetooth device with a given context and a given handle
@@ -244,6 +391,7 @@ public class JNIBridge {
     // Declaration of native functions, they will appear as not existing in Android Studio, because
     // the Antidote library is only included as pre-compiled binaries in the project
     public native void Ctimeralarm(int handle);
+    public native void Ctimeralarms(int[] handles, int count);
     public native void Chealthdinit(String tmp_path);
     public native void Chealthdfinalize();
     public native void Creleaseassoc(int context);
@@ -253,6 +401,9 @@ public class JNIBridge {
     public native void Creqactivationscanner(int context, int handle);
     public native void Creqdeactivationscanner(int context, int handle);
     public native void Creqmeasurement(int context);
+    public native int[] Cscanners(int context);
+    public native void Csetxmlmeasurements(boolean enabled);
+    public native int Csynchistory(int context);
 
    static {
         System.loadLibrary("healthd");
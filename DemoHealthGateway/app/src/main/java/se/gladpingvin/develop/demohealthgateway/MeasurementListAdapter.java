@@ -0,0 +1,135 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapter for listing the PulseOximetryMeasurement objects stored in the application's local
+ * database, newest first. Measurements are read a page at a time on a background thread, and the
+ * next page is read when the list is scrolled close to the end of what has been read so far. Rows
+ * are only formatted when they are shown.
+ */
+public class MeasurementListAdapter extends BaseAdapter {
+    private static final int PAGE_SIZE = 50;
+    // How close to the end of the read measurements a shown row has to be to read the next page
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private final Context context;
+    private final LayoutInflater inflater;
+    private final List<PulseOximetryMeasurement> measurements = new ArrayList<>();
+
+    private long lastSeconds = Long.MAX_VALUE;
+    private long lastId = Long.MAX_VALUE;
+    private boolean hasMore = true;
+    private PageTask pageTask = null;
+
+    /**
+     * Constructor for MeasurementListAdapter, the first page is read by calling reload
+     * @param context the Context whose resources are used when formatting the rows
+     */
+    public MeasurementListAdapter(Context context) {
+        this.context = context;
+        this.inflater = LayoutInflater.from(context);
+    }
+
+    /**
+     * Forgets the measurements read so far and reads the first page again, e.g. after measurements
+     * have been uploaded and removed from the database
+     */
+    public void reload() {
+        if (pageTask != null) {
+            pageTask.cancel(false);
+            pageTask = null;
+        }
+
+        measurements.clear();
+        lastSeconds = Long.MAX_VALUE;
+        lastId = Long.MAX_VALUE;
+        hasMore = true;
+        notifyDataSetChanged();
+
+        readNextPage();
+    }
+
+    @Override
+    public int getCount() {
+        return measurements.size();
+    }
+
+    @Override
+    public PulseOximetryMeasurement getItem(int position) {
+        return measurements.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = convertView != null ? (TextView) convertView :
+                (TextView) inflater.inflate(R.layout.list_item_pulse_oximetry, parent, false);
+        PulseOximetryMeasurement measurement = measurements.get(position);
+
+        view.setText(context.getString(R.string.saturation) +
+                (int) measurement.getBloodOxygenSaturation() +
+                measurement.getBloodOxygenSaturationUnit() +
+                context.getString(R.string.heart_rate) + (int) measurement.getHeartRate() +
+                measurement.getHeartRateUnit() + "\n" +
+                TimeStamps.toNiceString(measurement.getTimeStamp()) + " " +
+                measurement.getPatient());
+
+        if (position >= measurements.size() - PREFETCH_DISTANCE) {
+            readNextPage();
+        }
+
+        return view;
+    }
+
+    private void readNextPage() {
+        if (pageTask != null || !hasMore) {
+            return;
+        }
+
+        pageTask = new PageTask(MeasurementRepository.getInstance(context));
+        pageTask.execute(lastSeconds, lastId);
+    }
+
+    private void addPage(MeasurementRepository.Page page) {
+        pageTask = null;
+        measurements.addAll(page.getMeasurements());
+        lastSeconds = page.getLastSeconds();
+        lastId = page.getLastId();
+        hasMore = page.hasMore();
+        notifyDataSetChanged();
+    }
+
+    // Reads a page after the given position, as (epoch seconds, row id)
+    private class PageTask extends AsyncTask<Long, Void, MeasurementRepository.Page> {
+        private final MeasurementRepository repository;
+
+        PageTask(MeasurementRepository repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        protected MeasurementRepository.Page doInBackground(Long... position) {
+            return repository.readPage(position[0], position[1], PAGE_SIZE);
+        }
+
+        @Override
+        protected void onPostExecute(MeasurementRepository.Page page) {
+            // A cancelled task doesn't get here, so the page belongs to the current list
+            addPage(page);
+        }
+    }
+}
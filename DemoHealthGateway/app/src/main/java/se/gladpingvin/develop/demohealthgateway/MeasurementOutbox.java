@@ -0,0 +1,174 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Collection;
+
+/**
+ * Persistent queue of measurements that are waiting to be uploaded to the backend, the Android
+ * MeasurementStore. Every measurement that is stored in the oximetry table is appended to the
+ * outbox by a trigger, in the same transaction, and SyncService drains the outbox in batches. Once
+ * the backend has acknowledged a measurement, it is removed from both the outbox and the oximetry
+ * table, so the oximetry table keeps holding exactly the measurements that haven't reached the
+ * backend yet.
+ */
+public class MeasurementOutbox implements MeasurementStore {
+    private static final String TAG = "MeasurementOutbox";
+    private static MeasurementOutbox instance = null;
+
+    private final SQLiteDatabase db;
+    private final MeasurementRepository repository;
+    private final SQLiteStatement removeStatement;
+    private final SQLiteStatement removeMeasurementStatement;
+    private final SQLiteStatement retryStatement;
+    private final SQLiteStatement depthStatement;
+
+    private MeasurementOutbox(Context context) {
+        db = DatabaseHandler.getInstance(context).getWritableDatabase();
+        repository = MeasurementRepository.getInstance(context);
+
+        removeStatement = db.compileStatement("DELETE FROM " + DatabaseHandler.TABLE_NAME_OUTBOX +
+                " WHERE id = ?");
+
+        removeMeasurementStatement = db.compileStatement("DELETE FROM " +
+                DatabaseHandler.TABLE_NAME_OXIMETRY + " WHERE id = ?");
+
+        retryStatement = db.compileStatement("UPDATE " + DatabaseHandler.TABLE_NAME_OUTBOX +
+                " SET " + DatabaseHandler.COLUMN_NAME_ATTEMPTS + " = " +
+                DatabaseHandler.COLUMN_NAME_ATTEMPTS + " + 1 WHERE id = ?");
+
+        depthStatement = db.compileStatement("SELECT COUNT(*) FROM " +
+                DatabaseHandler.TABLE_NAME_OUTBOX);
+    }
+
+    /**
+     * Getter method for the singleton instance of MeasurementOutbox
+     * @param context a Context for fetching the database, only used on the first call
+     * @return the singleton instance of the MeasurementOutbox class
+     */
+    public static synchronized MeasurementOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new MeasurementOutbox(context);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Stores a received PulseOximetryMeasurement in the local database, which appends it to the
+     * outbox, unless it already exists in the database (in which case it is already in the outbox,
+     * or has already been uploaded)
+     * @param measurement the PulseOximetryMeasurement to enqueue
+     * @return true if measurement was enqueued or already existed, false if it couldn't be written
+     */
+    @Override
+    public boolean enqueue(PulseOximetryMeasurement measurement) {
+        return repository.insert(measurement);
+    }
+
+    /**
+     * Stores many received PulseOximetryMeasurements in the local database in one transaction,
+     * which appends the new ones to the outbox
+     * @param measurements the PulseOximetryMeasurements to enqueue
+     * @return the number of measurements that were enqueued (the others already existed), or -1
+     * if they couldn't be written
+     */
+    @Override
+    public int enqueueAll(Collection<PulseOximetryMeasurement> measurements) {
+        return repository.insertAll(measurements);
+    }
+
+    /**
+     * Reads the oldest measurements in the outbox after a given outbox row, without removing them
+     * @param afterId the outbox id after which to start reading, 0 to start from the beginning
+     * @param limit the maximum number of measurements to read
+     * @return the measurements, an empty MeasurementBatch if there are none after afterId
+     */
+    @Override
+    public synchronized MeasurementBatch peek(long afterId, int limit) {
+        long[] ids = new long[limit];
+        long[] measurementIds = new long[limit];
+        PulseOximetryMeasurement[] measurements = new PulseOximetryMeasurement[limit];
+        int size = 0;
+
+        Cursor cursor = db.rawQuery("SELECT o.id, m.id, m." +
+                DatabaseHandler.COLUMN_NAME_HEARTRATE + ", m." +
+                DatabaseHandler.COLUMN_NAME_HEARTRATEUNIT + ", m." +
+                DatabaseHandler.COLUMN_NAME_SATURATION + ", m." +
+                DatabaseHandler.COLUMN_NAME_SATURATIONUNIT + ", m." +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP + ", m." +
+                DatabaseHandler.COLUMN_NAME_PATIENT + ", m." +
+                DatabaseHandler.COLUMN_NAME_CLIENT_ID + " FROM " +
+                DatabaseHandler.TABLE_NAME_OUTBOX + " o JOIN " +
+                DatabaseHandler.TABLE_NAME_OXIMETRY + " m ON m.id = o." +
+                DatabaseHandler.COLUMN_NAME_MEASUREMENT_ID + " WHERE o.id > ? ORDER BY o.id LIMIT " +
+                limit, new String[]{Long.toString(afterId)});
+
+        try {
+            while (cursor.moveToNext()) {
+                ids[size] = cursor.getLong(0);
+                measurementIds[size] = cursor.getLong(1);
+                measurements[size] = new PulseOximetryMeasurement(cursor.getFloat(2),
+                        cursor.getString(3), cursor.getFloat(4), cursor.getString(5),
+                        cursor.getLong(6), cursor.getString(7), cursor.getString(8));
+                size++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return new MeasurementBatch(ids, measurementIds, measurements, size);
+    }
+
+    /**
+     * Records the outcome of uploading a MeasurementBatch in one transaction. Acknowledged measurements are
+     * removed from the outbox and the local database, the others stay in the outbox with their
+     * number of attempts increased.
+     * @param batch the MeasurementBatch that was uploaded
+     * @param acknowledged whether the backend acknowledged each measurement of batch
+     * @return the number of measurements that were removed
+     */
+    @Override
+    public synchronized int acknowledge(MeasurementBatch batch, boolean[] acknowledged) {
+        int removed = 0;
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                if (acknowledged[i]) {
+                    removeStatement.bindLong(1, batch.getId(i));
+                    removeStatement.executeUpdateDelete();
+                    removeMeasurementStatement.bindLong(1, batch.getMeasurementId(i));
+                    removeMeasurementStatement.executeUpdateDelete();
+                    removed++;
+                } else {
+                    retryStatement.bindLong(1, batch.getId(i));
+                    retryStatement.executeUpdateDelete();
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed acknowledging batch: " + sqle.toString());
+            return 0;
+        } finally {
+            db.endTransaction();
+        }
+
+        return removed;
+    }
+
+    /**
+     * Getter method for the outbox depth
+     * @return the number of measurements waiting to be uploaded
+     */
+    @Override
+    public synchronized long getDepth() {
+        return depthStatement.simpleQueryForLong();
+    }
+}
@@ -0,0 +1,175 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Schedules the polling of devices for measurements (manager-initiated measurement data
+ * transmission), each device at a cadence of its own. A device's polls are aligned to multiples of
+ * its interval on the uptime clock, so all devices with the same interval are due on the same
+ * tick, and a single message on the Antidote worker delivers everything that is due as one batch.
+ * Should the worker fall behind, the missed polls are skipped instead of made up for, so a loaded
+ * gateway keeps sampling at the configured cadence rather than in bursts.
+ *
+ * The scheduler isn't thread safe, it must only be used on the worker thread whose Handler it was
+ * created with.
+ */
+public class MeasurementPollScheduler {
+    private static final String TAG = "MeasurementPollScheduler";
+
+    /**
+     * The shortest interval that a device can be polled at, in milliseconds
+     */
+    public static final int MIN_INTERVAL_MILLIS = 100;
+
+    private static final int MSG_POLL = 1;
+
+    /**
+     * Receives the devices that are due to be polled
+     */
+    public interface Listener {
+        /**
+         * Called on the worker thread with the contexts of all devices that are due on a tick
+         * @param contexts the contexts of the devices to poll, only the first count are valid and
+         *                 the array is reused once the call returns
+         * @param count the number of devices to poll
+         */
+        void onPolls(int[] contexts, int count);
+    }
+
+    private static class Poll {
+        int intervalMillis;
+        long due;
+    }
+
+    private final HashMap<Integer, Poll> polls = new HashMap<>();
+    private final Listener listener;
+    private final Handler handler;
+
+    private int[] batch = new int[8];
+    private long scheduledAt = Long.MAX_VALUE;
+
+    /**
+     * Constructor for MeasurementPollScheduler
+     * @param worker the AntidoteWorker on whose thread the devices are polled
+     * @param listener the Listener that polls the devices
+     */
+    public MeasurementPollScheduler(AntidoteWorker worker, Listener listener) {
+        this.listener = listener;
+        this.handler = worker.createHandler(new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what != MSG_POLL) {
+                    return false;
+                }
+
+                scheduledAt = Long.MAX_VALUE;
+                poll();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Starts polling a device, or changes the interval of a device that is already polled
+     * @param context the context of the device
+     * @param intervalMillis the time between two polls in milliseconds, at least
+     *                       MIN_INTERVAL_MILLIS
+     */
+    public void start(int context, int intervalMillis) {
+        Poll poll = polls.get(context);
+
+        if (poll == null) {
+            poll = new Poll();
+            polls.put(context, poll);
+        }
+
+        poll.intervalMillis = Math.max(intervalMillis, MIN_INTERVAL_MILLIS);
+        poll.due = nextDue(poll.intervalMillis, SystemClock.uptimeMillis());
+        schedule();
+
+        Log.v(TAG, "Polling ctx " + context + " every " + poll.intervalMillis + "ms");
+    }
+
+    /**
+     * Stops polling a device
+     * @param context the context of the device
+     * @return true if the device was polled, otherwise false
+     */
+    public boolean stop(int context) {
+        if (polls.remove(context) == null) {
+            return false;
+        }
+
+        schedule();
+        Log.v(TAG, "Stopped polling ctx " + context);
+
+        return true;
+    }
+
+    /**
+     * Getter method for the number of polled devices
+     * @return the number of devices that are polled
+     */
+    public int getPolledCount() {
+        return polls.size();
+    }
+
+    private void poll() {
+        long now = SystemClock.uptimeMillis();
+        int count = 0;
+
+        for (Map.Entry<Integer, Poll> entry : polls.entrySet()) {
+            Poll poll = entry.getValue();
+
+            if (poll.due > now) {
+                continue;
+            }
+
+            if (count == batch.length) {
+                int[] newBatch = new int[batch.length * 2];
+                System.arraycopy(batch, 0, newBatch, 0, count);
+                batch = newBatch;
+            }
+
+            batch[count++] = entry.getKey();
+            poll.due = nextDue(poll.intervalMillis, now);
+        }
+
+        schedule();
+
+        if (count > 0) {
+            // May start and stop polls, which is fine as the polls aren't being walked anymore
+            listener.onPolls(batch, count);
+        }
+    }
+
+    private void schedule() {
+        long earliest = Long.MAX_VALUE;
+
+        for (Poll poll : polls.values()) {
+            earliest = Math.min(earliest, poll.due);
+        }
+
+        if (earliest == scheduledAt) {
+            return;
+        }
+
+        handler.removeMessages(MSG_POLL);
+        scheduledAt = earliest;
+
+        if (earliest != Long.MAX_VALUE) {
+            handler.sendEmptyMessageAtTime(MSG_POLL, earliest);
+        }
+    }
+
+    // The first multiple of the interval after now
+    private static long nextDue(int intervalMillis, long now) {
+        return (now / intervalMillis + 1) * intervalMillis;
+    }
+}
@@ -0,0 +1,403 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Process-wide access point for the PulseOximetryMeasurement table. The repository owns a single
+ * SQLiteDatabase connection that is opened on first use and kept open for the lifetime of the
+ * process, together with precompiled statements for the insert, delete and lookup operations.
+ * All methods are synchronized, so the repository can be used from the Bluetooth reader thread,
+ * AsyncTasks and activities at the same time.
+ */
+public class MeasurementRepository {
+    private static final String TAG = "MeasurementRepo";
+    private static MeasurementRepository instance = null;
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement insertStatement;
+    private final SQLiteStatement deleteStatement;
+    private final SQLiteStatement lookupStatement;
+    private final SQLiteStatement unqueueStatement;
+
+    /**
+     * A page of measurements, newest first, together with the position to read the next page from
+     */
+    public static class Page {
+        private final List<PulseOximetryMeasurement> measurements;
+        private final long lastSeconds;
+        private final long lastId;
+        private final boolean hasMore;
+
+        Page(List<PulseOximetryMeasurement> measurements, long lastSeconds, long lastId,
+             boolean hasMore) {
+            this.measurements = measurements;
+            this.lastSeconds = lastSeconds;
+            this.lastId = lastId;
+            this.hasMore = hasMore;
+        }
+
+        /**
+         * Getter method for measurements
+         * @return the measurements of the page, newest first
+         */
+        public List<PulseOximetryMeasurement> getMeasurements() {
+            return measurements;
+        }
+
+        /**
+         * Getter method for the timestamp of the page's last measurement
+         * @return the epoch seconds of the oldest measurement in the page, to pass on to readPage
+         */
+        public long getLastSeconds() {
+            return lastSeconds;
+        }
+
+        /**
+         * Getter method for the row id of the page's last measurement
+         * @return the row id of the oldest measurement in the page, to pass on to readPage
+         */
+        public long getLastId() {
+            return lastId;
+        }
+
+        /**
+         * Checks whether there might be more measurements after this page
+         * @return false if the page is the last one, otherwise true
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    private MeasurementRepository(Context context) {
+        db = DatabaseHandler.getInstance(context).getWritableDatabase();
+
+        // Duplicates taken in the same second are rejected by the UNIQUE dedup index, the +/- 1
+        // second tolerance is handled by the lookup statement before inserting
+        insertStatement = db.compileStatement("INSERT OR IGNORE INTO " +
+                DatabaseHandler.TABLE_NAME_OXIMETRY + " (" +
+                DatabaseHandler.COLUMN_NAME_HEARTRATE + ", " +
+                DatabaseHandler.COLUMN_NAME_HEARTRATEUNIT + ", " +
+                DatabaseHandler.COLUMN_NAME_SATURATION + ", " +
+                DatabaseHandler.COLUMN_NAME_SATURATIONUNIT + ", " +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP + ", " +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP_SECONDS + ", " +
+                DatabaseHandler.COLUMN_NAME_PATIENT + ", " +
+                DatabaseHandler.COLUMN_NAME_CLIENT_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+
+        deleteStatement = db.compileStatement("DELETE FROM " +
+                DatabaseHandler.TABLE_NAME_OXIMETRY + " WHERE " +
+                DatabaseHandler.COLUMN_NAME_PATIENT + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP_SECONDS + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_HEARTRATE + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_SATURATION + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_HEARTRATEUNIT + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_SATURATIONUNIT + " = ?");
+
+        lookupStatement = db.compileStatement("SELECT COUNT(*) FROM " +
+                DatabaseHandler.TABLE_NAME_OXIMETRY + " WHERE " +
+                DatabaseHandler.COLUMN_NAME_PATIENT + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP_SECONDS + " BETWEEN ? AND ? AND " +
+                DatabaseHandler.COLUMN_NAME_HEARTRATE + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_SATURATION + " = ?");
+
+        // Takes a just inserted measurement back out of the outbox that the insert trigger put it
+        // in, for measurements that must never be uploaded
+        unqueueStatement = db.compileStatement("DELETE FROM " +
+                DatabaseHandler.TABLE_NAME_OUTBOX + " WHERE " +
+                DatabaseHandler.COLUMN_NAME_MEASUREMENT_ID + " = ?");
+    }
+
+    /**
+     * Getter method for the singleton instance of MeasurementRepository. The database connection
+     * is opened on the first call and is never closed, as it is shared by the whole process.
+     * @param context a Context for fetching the database, only used on the first call
+     * @return the singleton instance of the MeasurementRepository class
+     */
+    public static synchronized MeasurementRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new MeasurementRepository(context);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns all PulseOximetryMeasurement objects stored in the local database, newest first
+     * @return all PulseOximetryMeasurements in the database
+     */
+    public synchronized List<PulseOximetryMeasurement> readAll() {
+        List<PulseOximetryMeasurement> list = new ArrayList<>();
+
+        String[] projection = {
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP,
+                DatabaseHandler.COLUMN_NAME_SATURATION,
+                DatabaseHandler.COLUMN_NAME_SATURATIONUNIT,
+                DatabaseHandler.COLUMN_NAME_HEARTRATE,
+                DatabaseHandler.COLUMN_NAME_HEARTRATEUNIT,
+                DatabaseHandler.COLUMN_NAME_PATIENT,
+                DatabaseHandler.COLUMN_NAME_CLIENT_ID
+        };
+        String sortOrder = DatabaseHandler.COLUMN_NAME_TIMESTAMP_SECONDS + " DESC";
+
+        Cursor cursor = db.query(
+                DatabaseHandler.TABLE_NAME_OXIMETRY,
+                projection,
+                null,
+                null,
+                null,
+                null,
+                sortOrder
+        );
+
+        try {
+            int timeStampIndex = cursor.getColumnIndex(DatabaseHandler.COLUMN_NAME_TIMESTAMP);
+            int saturationIndex = cursor.getColumnIndex(DatabaseHandler.COLUMN_NAME_SATURATION);
+            int saturationUnitIndex = cursor.getColumnIndex(
+                    DatabaseHandler.COLUMN_NAME_SATURATIONUNIT);
+            int heartRateIndex = cursor.getColumnIndex(DatabaseHandler.COLUMN_NAME_HEARTRATE);
+            int heartRateUnitIndex = cursor.getColumnIndex(
+                    DatabaseHandler.COLUMN_NAME_HEARTRATEUNIT);
+            int patientIndex = cursor.getColumnIndex(DatabaseHandler.COLUMN_NAME_PATIENT);
+            int clientIdIndex = cursor.getColumnIndex(DatabaseHandler.COLUMN_NAME_CLIENT_ID);
+
+            while (cursor.moveToNext()) {
+                list.add(new PulseOximetryMeasurement(
+                        cursor.getFloat(heartRateIndex),
+                        cursor.getString(heartRateUnitIndex),
+                        cursor.getFloat(saturationIndex),
+                        cursor.getString(saturationUnitIndex),
+                        cursor.getLong(timeStampIndex),
+                        cursor.getString(patientIndex),
+                        cursor.getString(clientIdIndex)
+                ));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Log.v(TAG, "Read measurements from database.");
+        return list;
+    }
+
+    /**
+     * Reads a page of the PulseOximetryMeasurement objects stored in the local database, newest
+     * first. Pages are read by their position (keyset pagination) rather than by offset, so
+     * reading a page costs the same however far into the table it is.
+     * @param afterSeconds the getLastSeconds() of the previous page, Long.MAX_VALUE for the first
+     * @param afterId the getLastId() of the previous page, Long.MAX_VALUE for the first
+     * @param limit the maximum number of measurements in the page
+     * @return the page of measurements
+     */
+    public synchronized Page readPage(long afterSeconds, long afterId, int limit) {
+        List<PulseOximetryMeasurement> list = new ArrayList<>(limit);
+        long lastSeconds = afterSeconds;
+        long lastId = afterId;
+
+        Cursor cursor = db.rawQuery("SELECT id, " + DatabaseHandler.COLUMN_NAME_TIMESTAMP_SECONDS +
+                ", " + DatabaseHandler.COLUMN_NAME_HEARTRATE + ", " +
+                DatabaseHandler.COLUMN_NAME_HEARTRATEUNIT + ", " +
+                DatabaseHandler.COLUMN_NAME_SATURATION + ", " +
+                DatabaseHandler.COLUMN_NAME_SATURATIONUNIT + ", " +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP + ", " +
+                DatabaseHandler.COLUMN_NAME_PATIENT + ", " +
+                DatabaseHandler.COLUMN_NAME_CLIENT_ID + " FROM " +
+                DatabaseHandler.TABLE_NAME_OXIMETRY + " WHERE " +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP_SECONDS + " < ? OR (" +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP_SECONDS + " = ? AND id < ?) ORDER BY " +
+                DatabaseHandler.COLUMN_NAME_TIMESTAMP_SECONDS + " DESC, id DESC LIMIT " + limit,
+                new String[]{Long.toString(afterSeconds), Long.toString(afterSeconds),
+                        Long.toString(afterId)});
+
+        try {
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                lastSeconds = cursor.getLong(1);
+                list.add(new PulseOximetryMeasurement(cursor.getFloat(2), cursor.getString(3),
+                        cursor.getFloat(4), cursor.getString(5), cursor.getLong(6),
+                        cursor.getString(7), cursor.getString(8)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return new Page(list, lastSeconds, lastId, list.size() == limit);
+    }
+
+    /**
+     * Checks if a PulseOximetryMeasurement already exists in the local database.
+     * It does check for identical measurements withing a time frame of +/- 1 second in the
+     * database, because sometimes when multiple instances run in the background, they retrieve
+     * the measurement with a few milliseconds difference, which can happen to occur around a
+     * "second boundary", therefore only checking for the same second can still cause duplicates
+     * in the database. The check is a range query over the (patient, timestamp) prefix of the
+     * dedup index, so its cost doesn't depend on how many measurements are stored.
+     * @param measurement the PulseOximetryMeasurement to check for
+     * @return true if measurement already exists in the database, otherwise false
+     */
+    public synchronized boolean contains(PulseOximetryMeasurement measurement) {
+        long seconds = epochSeconds(measurement);
+
+        lookupStatement.bindString(1, measurement.getPatient());
+        lookupStatement.bindLong(2, seconds - 1);
+        lookupStatement.bindLong(3, seconds + 1);
+        lookupStatement.bindDouble(4, measurement.getHeartRate());
+        lookupStatement.bindDouble(5, measurement.getBloodOxygenSaturation());
+
+        return lookupStatement.simpleQueryForLong() > 0;
+    }
+
+    /**
+     * Stores a PulseOximetryMeasurement in the local database, unless it already exists there.
+     * @param measurement the PulseOximetryMeasurement to store
+     * @return true if measurement was successfully stored in the database or already exists in the
+     * database, otherwise false
+     */
+    public synchronized boolean insert(PulseOximetryMeasurement measurement) {
+        if (contains(measurement)) {
+            Log.v(TAG, "Copy found in db!");
+            return true;
+        }
+
+        try {
+            executeInsert(measurement);
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed writing to database: " + sqle.toString());
+            return false;
+        }
+
+        Log.v(TAG, "Successfully wrote to database");
+        return true;
+    }
+
+    /**
+     * Stores a batch of PulseOximetryMeasurements in the local database in one transaction,
+     * reusing the compiled statements. Duplicates within the batch (with the same +/- 1 second
+     * tolerance as contains) are removed in memory, duplicates of stored measurements are found
+     * with the indexed lookup, so the cost of each row is independent of how many measurements
+     * are stored.
+     * @param measurements the PulseOximetryMeasurements to store
+     * @return the number of measurements that were stored (the others already existed), or -1 if
+     * writing failed (in which case none of them are stored)
+     */
+    public int insertAll(Collection<PulseOximetryMeasurement> measurements) {
+        return insertAll(measurements, true);
+    }
+
+    /**
+     * Stores a batch of PulseOximetryMeasurements like insertAll, optionally without queueing
+     * them for upload, e.g. synthetic measurements for load testing that must never reach the
+     * backend
+     * @param measurements the PulseOximetryMeasurements to store
+     * @param enqueue true to queue the measurements in the outbox, false to only store them
+     * @return the number of measurements that were stored (the others already existed), or -1 if
+     * writing failed (in which case none of them are stored)
+     */
+    public synchronized int insertAll(Collection<PulseOximetryMeasurement> measurements,
+                                      boolean enqueue) {
+        Set<String> keys = new HashSet<>(measurements.size() * 2);
+        int written = 0;
+
+        db.beginTransaction();
+        try {
+            for (PulseOximetryMeasurement measurement : measurements) {
+                long seconds = epochSeconds(measurement);
+
+                if (keys.contains(dedupKey(measurement, seconds - 1)) ||
+                        keys.contains(dedupKey(measurement, seconds + 1)) ||
+                        !keys.add(dedupKey(measurement, seconds)) ||
+                        contains(measurement)) {
+                    continue;
+                }
+
+                long id = executeInsert(measurement);
+
+                if (id != -1) {
+                    if (!enqueue) {
+                        unqueueStatement.bindLong(1, id);
+                        unqueueStatement.executeUpdateDelete();
+                    }
+
+                    written++;
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed writing batch to database: " + sqle.toString());
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.v(TAG, "Wrote " + written + " of " + measurements.size() +
+                " measurements to database");
+        return written;
+    }
+
+    /**
+     * Deletes a PulseOximetryMeasurement from the local database.
+     * @param measurement the PulseOximetryMeasurement to delete
+     * @return true if measurement was successfully deleted or if it didn't exist in the database
+     * to begin with, otherwise false
+     */
+    public synchronized boolean delete(PulseOximetryMeasurement measurement) {
+        deleteStatement.bindString(1, measurement.getPatient());
+        deleteStatement.bindLong(2, epochSeconds(measurement));
+        deleteStatement.bindDouble(3, measurement.getHeartRate());
+        deleteStatement.bindDouble(4, measurement.getBloodOxygenSaturation());
+        deleteStatement.bindString(5, measurement.getHeartRateUnit());
+        deleteStatement.bindString(6, measurement.getBloodOxygenSaturationUnit());
+
+        boolean result = deleteStatement.executeUpdateDelete() > 0 || !contains(measurement);
+
+        Log.v(TAG, result ? "Deletion succeeded" : "Deletion failed");
+        return result;
+    }
+
+    /**
+     * Binds a PulseOximetryMeasurement to the compiled insert statement and executes it
+     * @param measurement the PulseOximetryMeasurement to insert
+     * @return the row id of the inserted measurement, or -1 if it was ignored because of the
+     * dedup index
+     */
+    private long executeInsert(PulseOximetryMeasurement measurement) {
+        insertStatement.bindDouble(1, measurement.getHeartRate());
+        insertStatement.bindString(2, measurement.getHeartRateUnit());
+        insertStatement.bindDouble(3, measurement.getBloodOxygenSaturation());
+        insertStatement.bindString(4, measurement.getBloodOxygenSaturationUnit());
+        insertStatement.bindLong(5, measurement.getTimeStamp());
+        insertStatement.bindLong(6, epochSeconds(measurement));
+        insertStatement.bindString(7, measurement.getPatient());
+        insertStatement.bindString(8, measurement.getClientId());
+
+        return insertStatement.executeInsert();
+    }
+
+    private static long epochSeconds(PulseOximetryMeasurement measurement) {
+        return measurement.getTimeStamp() / 1000;
+    }
+
+    /**
+     * Creates the key that two measurements share if they are duplicates of each other taken in
+     * the same second, i.e. the in-memory counterpart of the dedup index
+     * @param measurement the measurement
+     * @param seconds the second (since the epoch) to create the key for
+     * @return the dedup key
+     */
+    private static String dedupKey(PulseOximetryMeasurement measurement, long seconds) {
+        return seconds + "|" + measurement.getHeartRate() + '|' +
+                measurement.getBloodOxygenSaturation() + '|' + measurement.getPatient();
+    }
+}
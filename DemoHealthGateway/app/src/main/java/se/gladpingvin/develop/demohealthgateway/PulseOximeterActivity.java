@@ -1,12 +1,17 @@
 package se.gladpingvin.develop.demohealthgateway;
 
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.ServiceConnection;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
@@ -15,11 +20,20 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.w3c.dom.Document;
+import java.util.LinkedHashMap;
 
 /**
  * Activity class for receiving measurement data from pulse oximeters compliant with the IEEE 11073
- * standard (via Bluetooth).
+ * standard (via Bluetooth). Any number of oximeters can send at the same time; the data of each
+ * goes through a pipeline of its own (see IngestionPipeline), and the latest measurement of every
+ * oximeter is shown. Oximeters that stream their plethysmogram have it captured and stored in
+ * compressed blocks, and the pleth of the latest such oximeter is drawn. The stored readings of
+ * every oximeter that associates are synced as well, see syncHistory, and its scanners are
+ * subscribed to (as is polling, when a poll interval is set), see subscribe.
+ *
+ * In automatic program flow the gateway streams: the readings are aggregated into window
+ * summaries, and only the summaries and the readings outside of the patient's thresholds are
+ * uploaded (see MeasurementAggregator).
  */
 public class PulseOximeterActivity extends AppCompatActivity {
     private int[] specifications = {0x1004};
@@ -27,9 +41,32 @@ public class PulseOximeterActivity extends AppCompatActivity {
     private HealthServiceAPI healthServiceAPI;
     private ProgressBar progressBar;
     private TextView tv;
-    private PulseOximetryMeasurement measurement;
+    private WaveformView waveformView;
+    // The device whose pleth is drawn, only touched on the main thread
+    private String waveformDevice = null;
+    private IngestionPipeline pipeline;
+    // The latest measurement of every device, only touched on the main thread
+    private final LinkedHashMap<String, PulseOximetryMeasurement> measurements =
+            new LinkedHashMap<>();
+    private boolean awaitingUpload = false;
+    // The pipeline's history count when the latest history sync was reported, main thread only
+    private long historyIngestedShown = 0;
+    // Kept across activity instances (e.g. when rotated), so that open windows aren't cut short
+    private static MeasurementAggregator aggregator = null;
+
+    // Tells the result of the upload the user is waiting for, once SyncService is done trying
+    private final BroadcastReceiver syncStatusReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (awaitingUpload && intent.getBooleanExtra(SyncService.EXTRA_IDLE, false)) {
+                afterUpload(intent.getLongExtra(SyncService.EXTRA_DEPTH, 0) == 0);
+            }
+        }
+    };
 
     private static final String TAG = "POAct";
+    private static final long WAVEFORM_REDRAW_MILLIS = 40;
+    private static final long WINDOW_CHECK_MILLIS = 60 * 1000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -37,17 +74,130 @@ public class PulseOximeterActivity extends AppCompatActivity {
         setContentView(R.layout.activity_pulse_oximeter);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
-        measurement = null;
 
         progressBar = (ProgressBar)findViewById(R.id.progressBarOxim);
         tv = (TextView)findViewById(R.id.textView2);
+        waveformView = (WaveformView)findViewById(R.id.waveformView);
 
         handler = new Handler();
+        pipeline = new IngestionPipeline(MeasurementOutbox.getInstance(this),
+                WaveformRepository.getInstance(this), Runtime.getRuntime().availableProcessors(),
+                pipelineListener);
+
+        if (aggregator == null) {
+            aggregator = new MeasurementAggregator(SummaryOutbox.getInstance(this),
+                    Settings.getInstance(this).getPatientThresholds());
+        }
+
         Intent startHealthServiceIntent = new Intent(this, HealthService.class);
         startService(startHealthServiceIntent);
         bindService(startHealthServiceIntent, serviceConnection, 0);
+
+        LocalBroadcastManager.getInstance(this).registerReceiver(syncStatusReceiver,
+                new IntentFilter(SyncService.ACTION_SYNC_STATUS));
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // The settings may have been changed since the activity was last shown
+        Settings settings = Settings.getInstance(this);
+        pipeline.setAggregator(settings.isAutomaticProgramFlow() ? aggregator : null);
+
+        handler.removeCallbacks(closeWindows);
+        if (settings.isAutomaticProgramFlow()) {
+            handler.postDelayed(closeWindows, WINDOW_CHECK_MILLIS);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(syncStatusReceiver);
+        handler.removeCallbacks(redrawWaveform);
+        handler.removeCallbacks(closeWindows);
+
+        // HealthService would otherwise keep handing measurements to this activity's agent, e.g.
+        // after a rotation, and thereby to the pipeline that is shut down below
+        if (healthServiceAPI != null) {
+            try {
+                healthServiceAPI.Unconfigure(agent);
+            } catch (RemoteException re) {
+                Log.w(TAG, "Failed to unconfigure agent: " + re.toString());
+            }
+        }
+        unbindService(serviceConnection);
+
+        pipeline.shutdown();
+
+        if (isFinishing()) {
+            // The summaries of the open windows are all that is left of their readings
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (aggregator.flush() > 0) {
+                        SyncService.requestSync(getApplicationContext());
+                    }
+                }
+            });
+        }
     }
 
+    // Summarises the windows of patients that have stopped sending, while streaming
+    private final Runnable closeWindows = new Runnable() {
+        @Override
+        public void run() {
+            final long now = System.currentTimeMillis();
+
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (aggregator.closeWindows(now) > 0) {
+                        SyncService.requestSync(getApplicationContext());
+                    }
+                }
+            });
+
+            handler.postDelayed(this, WINDOW_CHECK_MILLIS);
+        }
+    };
+
+    // Measurements are stored and queued for upload by the pipeline right away, so that they are
+    // kept even if the activity is gone by the time they are uploaded
+    private final IngestionPipeline.Listener pipelineListener = new IngestionPipeline.Listener() {
+        @Override
+        public void onMeasurement(final String device,
+                                  final PulseOximetryMeasurement measurement) {
+            SyncService.requestSync(PulseOximeterActivity.this);
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    handleMeasurement(device, measurement);
+                }
+            });
+        }
+    };
+
+    // Redraws the pleth while there is a device to draw it for
+    private final Runnable redrawWaveform = new Runnable() {
+        @Override
+        public void run() {
+            WaveformCapture waveform = waveformDevice == null ? null : pipeline.getWaveform(
+                    waveformDevice, PulseOximetryMeasurement.MDC_PULS_OXIM_PLETH);
+
+            if (waveform == null) {
+                waveformDevice = null;
+                waveformView.setVisibility(View.GONE);
+                return;
+            }
+
+            waveformView.show(waveform);
+            handler.postDelayed(this, WAVEFORM_REDRAW_MILLIS);
+        }
+    };
+
     private ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
@@ -68,13 +218,20 @@ public class PulseOximeterActivity extends AppCompatActivity {
         }
     };
 
+    // HealthService calls these from its Antidote worker thread, so anything that touches the
+    // views has to be posted to handler
     private HealthAgentAPI.Stub agent = new HealthAgentAPI.Stub() {
         @Override
         public void Connected(String dev, String addr) throws RemoteException {
             Log.v("POA", "Connected to " + dev);
             Log.v("POA", "..." + addr);
-            progressBar.setVisibility(View.VISIBLE);
-            tv.setText(getString(R.string.receiving_measurement));
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    progressBar.setVisibility(View.VISIBLE);
+                    tv.setText(getString(R.string.receiving_measurement));
+                }
+            });
         }
 
         @Override
@@ -96,15 +253,98 @@ public class PulseOximeterActivity extends AppCompatActivity {
                 }
             };
 
+            Runnable req3 = new Runnable() {
+                @Override
+                public void run() {
+                    syncHistory(idev);
+                }
+            };
+
+            Runnable req4 = new Runnable() {
+                @Override
+                public void run() {
+                    // GetScanners waits for the worker, which is busy with the history sync
+                    AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            subscribe(idev);
+                        }
+                    });
+                }
+            };
+
             handler.postDelayed(req1, 1);
             handler.postDelayed(req2, 500);
+            handler.postDelayed(req3, 1000);
+            handler.postDelayed(req4, 1500);
         }
 
         @Override
         public void MeasurementData(String dev, String xmldata) throws RemoteException {
             Log.v("POA", "Measurement from " + dev);
             Log.v("POA", "..." + xmldata);
-            handleMeasurement(dev, xmldata);
+            pipeline.submitXml(dev, xmldata,
+                    Settings.getInstance(PulseOximeterActivity.this).getPatient());
+        }
+
+        @Override
+        public void MeasurementValues(String dev, int[] metricIds, float[] values,
+                                      String[] units) throws RemoteException {
+            Log.v("POA", "Measurement values from " + dev);
+            pipeline.submitValues(dev, metricIds, values, units,
+                    Settings.getInstance(PulseOximeterActivity.this).getPatient());
+        }
+
+        @Override
+        public void MeasurementSamples(final String dev, int metricId, int samplePeriod,
+                                       float[] samples) throws RemoteException {
+            pipeline.submitSamples(dev, metricId, samplePeriod, samples,
+                    Settings.getInstance(PulseOximeterActivity.this).getPatient());
+
+            if (metricId == PulseOximetryMeasurement.MDC_PULS_OXIM_PLETH) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showWaveform(dev);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void ScanReport(String dev, int handle, int[] metricIds, float[] values,
+                               String[] units) throws RemoteException {
+            pipeline.submitValues(dev, metricIds, values, units,
+                    Settings.getInstance(PulseOximeterActivity.this).getPatient());
+        }
+
+        @Override
+        public void SegmentValues(String dev, long[] entryTimes, int[] valueEntries,
+                                  int[] metricIds, float[] values, String[] units)
+                throws RemoteException {
+            pipeline.submitSegment(dev, entryTimes, valueEntries, metricIds, values, units,
+                    Settings.getInstance(PulseOximeterActivity.this).getPatient());
+        }
+
+        @Override
+        public void HistorySynced(String dev, final int segments, final int failed)
+                throws RemoteException {
+            Log.v("POA", "History of " + dev + " synced, " + segments + " segments");
+
+            // The segments' readings may still be waiting in the device's pipeline
+            pipeline.afterSubmitted(dev, new Runnable() {
+                @Override
+                public void run() {
+                    final long ingested = pipeline.getHistoryIngested();
+
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            afterHistorySync(segments, failed, ingested);
+                        }
+                    });
+                }
+            });
         }
 
         @Override
@@ -123,7 +363,7 @@ public class PulseOximeterActivity extends AppCompatActivity {
         @Override
         public void Disconnected(String dev) throws RemoteException {
             Log.v("POA", "Disconnected from " + dev);
-            // Not interesting atm
+            pipeline.removeDevice(dev);
         }
     };
 
@@ -143,41 +383,126 @@ public class PulseOximeterActivity extends AppCompatActivity {
         }
     }
 
-    private void handleMeasurement(String path, String xml) {
-        Document document = AntidoteHelper.parseXml(xml);
+    private void showWaveform(String device) {
+        if (device.equals(waveformDevice)) {
+            return;
+        }
+
+        boolean redrawing = waveformDevice != null;
+        waveformDevice = device;
+        waveformView.setVisibility(View.VISIBLE);
+
+        if (!redrawing) {
+            handler.post(redrawWaveform);
+        }
+    }
+
+    /**
+     * Fetches the readings that a device has stored (in its PM-Stores) since it was last synced.
+     * The readings are streamed through the device's pipeline and stored in bulk, and readings
+     * that are already stored are skipped, so syncing a device again only adds what is new.
+     * @param dev the device to sync
+     */
+    private void syncHistory(String dev) {
+        try {
+            healthServiceAPI.SyncDeviceHistory(dev);
+        } catch (RemoteException re) {
+            Log.e(TAG, "Syncing the device's history caused an exception: " + re.toString());
+        }
+    }
+
+    /**
+     * Activates every configurable scanner of a device that isn't active yet, so that the device
+     * sends scan reports as soon as the scanned values change (episodic scanners) or at their
+     * reporting interval (periodic scanners). Should a poll interval be set, the device is also
+     * polled for measurements at that interval, for devices that only measure when asked to.
+     * Blocks until HealthService's worker has answered, so it must not be called on the main
+     * thread.
+     * @param dev the device to subscribe to
+     */
+    private void subscribe(String dev) {
+        int pollInterval = Settings.getInstance(this).getPollInterval();
+
+        try {
+            int[] scanners = healthServiceAPI.GetScanners(dev);
+
+            // Handle, kind, operational state and reporting interval of every scanner; only
+            // disabled (0) scanners can be enabled, not-available (2) ones can't
+            for (int i = 0; i + 3 < scanners.length; i += 4) {
+                if (scanners[i + 2] == 0) {
+                    healthServiceAPI.SubscribeScanner(dev, scanners[i]);
+                }
+            }
+
+            if (pollInterval > 0) {
+                healthServiceAPI.StartPolling(dev, pollInterval);
+            }
+        } catch (RemoteException re) {
+            Log.e(TAG, "Subscribing to the device caused an exception: " + re.toString());
+        }
+    }
+
+    private void afterHistorySync(int segments, int failed, long ingested) {
+        long added = ingested - historyIngestedShown;
+        historyIngestedShown = ingested;
 
-        Log.v(TAG, "XML for " + path + " was successfully parsed.");
+        if (failed > 0) {
+            Toast.makeText(this, String.format(getString(R.string.history_sync_failed), failed,
+                    segments), Toast.LENGTH_LONG).show();
+        } else if (added > 0) {
+            Toast.makeText(this, String.format(getString(R.string.history_synced), added,
+                    segments), Toast.LENGTH_LONG).show();
+        }
 
-        PulseOximetryMeasurement measurement = PulseOximetryMeasurement.fromXml(document,
-                Settings.getInstance(this).getPatient());
+        if (added > 0) {
+            SyncService.requestSync(this);
+        }
+    }
 
-        this.measurement = measurement;
+    private void handleMeasurement(String device, PulseOximetryMeasurement measurement) {
+        measurements.put(device, measurement);
 
         if (Settings.getInstance(this).isAutomaticProgramFlow()) {
             tv.setText(getString(R.string.uploading_measurements_start));
-            saveToBackend(measurement);
+            awaitingUpload = true;
         } else {
             progressBar.setVisibility(View.GONE);
-            AntidoteHelper.writeMeasurementToDatabase(this, measurement);
-            tv.setText(measurement.toString());
+            tv.setText(describeMeasurements());
+        }
+    }
+
+    private String describeMeasurements() {
+        StringBuilder sb = new StringBuilder();
+
+        for (PulseOximetryMeasurement measurement : measurements.values()) {
+            if (sb.length() > 0) {
+                sb.append("\n\n");
+            }
+            sb.append(measurement.toString());
         }
+
+        return sb.toString();
     }
 
     /**
-     * Saves the current measurement to the application's local database. Intended to be used as an
-     * onClick method, hence the View parameter.
+     * Asks SyncService to upload the current measurements to the backend right away, should it not
+     * have done so already (measurements are queued for upload as soon as they are received, but
+     * are retried with a backoff after failing). Intended to be used as an onClick method, hence
+     * the View parameter.
      * @param view generated automatically when used as an onClick method, not actually used
      */
     public void save(View view) {
-        if (measurement == null) {
+        if (measurements.isEmpty()) {
             Toast.makeText(this, R.string.no_measurement_yet, Toast.LENGTH_SHORT).show();
             return;
         }
 
-        saveToBackend(measurement);
+        awaitingUpload = true;
+        SyncService.requestSync(this);
     }
 
     private void afterUpload(boolean result) {
+        awaitingUpload = false;
         progressBar.setVisibility(View.GONE);
 
         Toast.makeText(this,
@@ -185,25 +510,6 @@ public class PulseOximeterActivity extends AppCompatActivity {
                         getString(R.string.upload_fail),
                 Toast.LENGTH_SHORT).show();
 
-        if (result) {
-            if (!AntidoteHelper.deleteMeasurementFromDatabase(this, measurement)) {
-                Log.w(TAG, "Failed to remove uploaded measurement..");
-            }
-        } else {
-            AntidoteHelper.writeMeasurementToDatabase(this, measurement);
-        }
-
-        tv.setText(measurement.toString());
-    }
-
-    private void saveToBackend(PulseOximetryMeasurement measurement) {
-        UploadPulseOximetryMeasurementsTask task = new UploadPulseOximetryMeasurementsTask() {
-            @Override
-            protected void onPostExecute(Boolean result) {
-                afterUpload(result);
-            }
-        };
-
-        task.execute(measurement);
+        tv.setText(describeMeasurements());
     }
 }
@@ -0,0 +1,122 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct ByteBuffers for data received from Personal Health Devices. The read threads of
+ * BluetoothCommunicationService read APDUs straight into a pooled buffer, which is handed to
+ * HealthService and from there to Antidote (which reads the buffer's memory directly), after which
+ * HealthService returns it to the pool. That way receiving data doesn't allocate anything once the
+ * pool is warm.
+ */
+public class ReceivedDataPool {
+    // Same size as the read buffer that was used before pooling, no HDP APDU has been larger
+    public static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED = 16;
+
+    private static ReceivedDataPool instance = null;
+
+    private final ArrayDeque<ReceivedData> pool = new ArrayDeque<>(MAX_POOLED);
+    private int allocated = 0;
+
+    /**
+     * Data received from a Personal Health Device, i.e. a direct ByteBuffer with the data between
+     * its position and limit, together with the device that sent it
+     */
+    public static class ReceivedData {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private BluetoothDevice device;
+        private long receivedNanos;
+
+        /**
+         * Getter method for buffer
+         * @return the direct ByteBuffer holding the data
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Getter method for device
+         * @return the BluetoothDevice which sent the data
+         */
+        public BluetoothDevice getDevice() {
+            return device;
+        }
+
+        /**
+         * Getter method for receivedNanos
+         * @return when the data was read from the device, as System.nanoTime()
+         */
+        public long getReceivedNanos() {
+            return receivedNanos;
+        }
+
+        /**
+         * Marks the data as read from the device just now
+         */
+        public void markReceived() {
+            receivedNanos = System.nanoTime();
+        }
+    }
+
+    private ReceivedDataPool() {
+
+    }
+
+    /**
+     * Getter method for the singleton instance of ReceivedDataPool
+     * @return the singleton instance of the ReceivedDataPool class
+     */
+    public static synchronized ReceivedDataPool getInstance() {
+        if (instance == null) {
+            instance = new ReceivedDataPool();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, or allocates a new one should the pool be empty (which
+     * only happens while the pool is warming up or when the receiver falls behind)
+     * @param device the BluetoothDevice the data will be read from
+     * @return a ReceivedData with an empty buffer
+     */
+    public synchronized ReceivedData acquire(BluetoothDevice device) {
+        ReceivedData data = pool.pollFirst();
+
+        if (data == null) {
+            data = new ReceivedData();
+            allocated++;
+        }
+
+        data.buffer.clear();
+        data.device = device;
+        return data;
+    }
+
+    /**
+     * Returns a buffer to the pool, should the pool already be full the buffer is left for the
+     * garbage collector
+     * @param data the ReceivedData to return, it mustn't be used by the caller afterwards
+     */
+    public synchronized void release(ReceivedData data) {
+        data.device = null;
+
+        if (pool.size() < MAX_POOLED) {
+            pool.addFirst(data);
+        }
+    }
+
+    /**
+     * Getter method for the number of buffers that have been allocated, once the pool is warm
+     * this should stop growing
+     * @return the number of buffers allocated since the application started
+     */
+    public synchronized int getAllocatedCount() {
+        return allocated;
+    }
+}
@@ -1,9 +1,12 @@
 package se.gladpingvin.develop.demohealthgateway;
 
+import android.os.AsyncTask;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.Switch;
+import android.widget.TextView;
 import android.widget.Toast;
 
 /**
@@ -11,7 +14,15 @@ import android.widget.Toast;
  * objects
  */
 public class SeedDatabaseActivity extends AppCompatActivity {
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
     EditText numberOfSeeds;
+    EditText numberOfPatients;
+    EditText numberOfDays;
+    EditText randomSeed;
+    Switch recent;
+    TextView progress;
+    View seedButton;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -19,24 +30,64 @@ public class SeedDatabaseActivity extends AppCompatActivity {
         setContentView(R.layout.activity_seed_database);
 
         numberOfSeeds = (EditText)findViewById(R.id.seedNumber);
+        numberOfPatients = (EditText)findViewById(R.id.seedPatients);
+        numberOfDays = (EditText)findViewById(R.id.seedDays);
+        randomSeed = (EditText)findViewById(R.id.seedRandomSeed);
+        recent = (Switch)findViewById(R.id.seedRecent);
+        progress = (TextView)findViewById(R.id.seedProgress);
+        seedButton = findViewById(R.id.seedButton);
     }
 
     /**
-     * Seeds the database with the number of pseudo-random PulseOximetryMeasurements put into the
-     * EditText field of the Activity. This method is intended to be used as an onClick method,
-     * hence the View parameter.
+     * Seeds the database in the background with the number of pseudo-random
+     * PulseOximetryMeasurements put into the EditText field of the Activity, spread over the given
+     * number of patients and days up until now. The same random seed gives the same measurements.
+     * This method is intended to be used as an onClick method, hence the View parameter.
      * @param view automatically generated when used as an onClick method, never used
      */
     public void seed(View view) {
-        int amount = Integer.parseInt(numberOfSeeds.getText().toString());
+        final int amount = Integer.parseInt(numberOfSeeds.getText().toString());
+        int patients = Integer.parseInt(numberOfPatients.getText().toString());
+        long days = Long.parseLong(numberOfDays.getText().toString());
+        long now = System.currentTimeMillis();
+
+        final SeedingEngine engine = new SeedingEngine(this,
+                Long.parseLong(randomSeed.getText().toString()), amount, patients,
+                now - days * MILLIS_PER_DAY, now, recent.isChecked() ?
+                SeedingEngine.Distribution.RECENT : SeedingEngine.Distribution.UNIFORM);
+
+        seedButton.setEnabled(false);
+
+        new AsyncTask<Void, Integer, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                return engine.run(new SeedingEngine.ProgressListener() {
+                    @Override
+                    public void onProgress(int generated, int written, int rowsPerSecond) {
+                        publishProgress(generated, rowsPerSecond);
+                    }
+                });
+            }
 
-        for (int i = 0; i < amount; i++) {
-            if(!AntidoteHelper.writeMeasurementToDatabase(this, new PulseOximetryMeasurement())) {
-                return;
+            @Override
+            protected void onProgressUpdate(Integer... values) {
+                progress.setText(String.format(getResources().getString(
+                        R.string.seeding_progress), values[0], amount, values[1]));
             }
-        }
 
-        Toast.makeText(this, String.format(getResources().getString(R.string.seeding_done),
-                amount), Toast.LENGTH_LONG).show();
+            @Override
+            protected void onPostExecute(Integer written) {
+                seedButton.setEnabled(true);
+
+                if (written < 0) {
+                    Toast.makeText(SeedDatabaseActivity.this, R.string.seeding_failed,
+                            Toast.LENGTH_LONG).show();
+                    return;
+                }
+
+                Toast.makeText(SeedDatabaseActivity.this, String.format(getResources().getString(
+                        R.string.seeding_done), written), Toast.LENGTH_LONG).show();
+            }
+        }.execute();
     }
 }
@@ -0,0 +1,149 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Fills the application's database with synthetic PulseOximetryMeasurement objects, for load
+ * testing with databases of production size. All values come from a single PRNG created from the
+ * given seed, so the same seed, row count, patient count and time distribution always gives the
+ * same measurements. The measurements are written CHUNK_SIZE at a time, each chunk in one
+ * transaction, and they are kept out of the outbox, so the synthetic data is never uploaded to
+ * the backend.
+ *
+ * run blocks until all rows are written, so it must not be called on the main thread.
+ */
+public class SeedingEngine {
+    private static final String TAG = "SeedingEngine";
+    private static final int CHUNK_SIZE = 5000;
+
+    /**
+     * How the timestamps are spread over the time window
+     */
+    public enum Distribution {
+        /**
+         * Evenly over the whole window
+         */
+        UNIFORM,
+        /**
+         * Denser towards the end of the window, like a gateway that is used more and more
+         */
+        RECENT
+    }
+
+    /**
+     * Receives the progress of a run
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the seeding thread after every written chunk
+         * @param generated the number of rows generated so far
+         * @param written the number of rows written so far (duplicates are skipped)
+         * @param rowsPerSecond the number of generated rows per second so far
+         */
+        void onProgress(int generated, int written, int rowsPerSecond);
+    }
+
+    private final MeasurementRepository repository;
+    private final long seed;
+    private final int rows;
+    private final int patients;
+    private final long startMillis;
+    private final long endMillis;
+    private final Distribution distribution;
+
+    private int rowsPerSecond = 0;
+
+    /**
+     * Constructor for SeedingEngine
+     * @param context a Context for fetching the database
+     * @param seed the seed of the PRNG
+     * @param rows the number of rows to generate
+     * @param patients the number of patients that the rows are spread over
+     * @param startMillis the start of the time window, in milliseconds since the epoch
+     * @param endMillis the end of the time window, in milliseconds since the epoch
+     * @param distribution how the timestamps are spread over the time window
+     */
+    public SeedingEngine(Context context, long seed, int rows, int patients, long startMillis,
+                         long endMillis, Distribution distribution) {
+        this.repository = MeasurementRepository.getInstance(context);
+        this.seed = seed;
+        this.rows = rows;
+        this.patients = Math.max(patients, 1);
+        this.startMillis = startMillis;
+        this.endMillis = Math.max(endMillis, startMillis + 1000);
+        this.distribution = distribution;
+    }
+
+    /**
+     * Generates and writes all rows
+     * @param listener the ProgressListener to report to, may be null
+     * @return the number of rows written, or -1 if writing a chunk failed
+     */
+    public int run(ProgressListener listener) {
+        Random random = new Random(seed);
+        List<PulseOximetryMeasurement> chunk = new ArrayList<>(Math.min(rows, CHUNK_SIZE));
+        long start = SystemClock.elapsedRealtime();
+        int written = 0;
+
+        for (int generated = 0; generated < rows; ) {
+            chunk.clear();
+
+            while (chunk.size() < CHUNK_SIZE && generated < rows) {
+                chunk.add(next(random));
+                generated++;
+            }
+
+            int chunkWritten = repository.insertAll(chunk, false);
+            if (chunkWritten < 0) {
+                Log.e(TAG, "Seeding stopped after " + written + " rows");
+                return -1;
+            }
+            written += chunkWritten;
+
+            long elapsed = Math.max(SystemClock.elapsedRealtime() - start, 1);
+            rowsPerSecond = (int) (generated * 1000L / elapsed);
+
+            if (listener != null) {
+                listener.onProgress(generated, written, rowsPerSecond);
+            }
+        }
+
+        Log.v(TAG, "Seeded " + written + " of " + rows + " rows for " + patients + " patients, " +
+                rowsPerSecond + " rows per second");
+
+        return written;
+    }
+
+    /**
+     * Getter method for rows per second
+     * @return the number of generated rows per second of the latest run, so far
+     */
+    public int getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    private PulseOximetryMeasurement next(Random random) {
+        double position = random.nextDouble();
+
+        if (distribution == Distribution.RECENT) {
+            position = Math.sqrt(position);
+        }
+
+        // Whole seconds, as that is all the backend and the dedup index keep anyway
+        long timeStamp = (startMillis + (long) (position * (endMillis - startMillis))) / 1000 * 1000;
+
+        return new PulseOximetryMeasurement(
+                (float) (40 + random.nextInt(30)), "bpm",
+                (float) (90 + random.nextInt(10)), "%",
+                timeStamp,
+                "P" + Integer.toHexString(random.nextInt(patients)),
+                new UUID(random.nextLong(), random.nextLong()).toString());
+    }
+}
@@ -10,9 +10,20 @@ import android.database.sqlite.SQLiteDatabase;
  * Created by SEprjASv on 2015-11-16.
  */
 public class Settings {
+    /**
+     * The number of measurements uploaded per request unless something else has been set
+     */
+    public static final int DEFAULT_UPLOAD_BATCH_SIZE = 50;
+
     private String patient;
     private String backendUrl;
     private boolean automaticProgramFlow;
+    private int uploadBatchSize = DEFAULT_UPLOAD_BATCH_SIZE;
+    private int pollInterval = 0;
+    private VitalThresholds thresholds = VitalThresholds.DEFAULT;
+    // The thresholds by patient, for the aggregation and the alerts
+    private final PatientThresholds patientThresholds =
+            new PatientThresholds(VitalThresholds.DEFAULT);
     private static Settings instance = null;
     private Context context;
 
@@ -31,20 +42,14 @@ public class Settings {
     public void setPatient(String patient) {
         // The trimming is done to remove the ending space that many new Android devices put after
         // a word, and an identifier is unlikely to end with a whitespace of any kind
+        patientThresholds.set(this.patient, null);
         this.patient = patient.trim();
-
-        DatabaseHandler dbHandler = new DatabaseHandler(context);
-        SQLiteDatabase db = dbHandler.getWritableDatabase();
+        patientThresholds.set(this.patient, thresholds);
 
         ContentValues contentValues = new ContentValues();
         contentValues.put(DatabaseHandler.COLUMN_NAME_PATIENT, this.patient);
 
-        String whereClause = "id = ?";
-
-        String[] whereArgs = { "1" };
-
-        db.update(DatabaseHandler.TABLE_NAME_SETTINGS, contentValues, whereClause, whereArgs);
-        db.close();
+        writeSettings(contentValues);
     }
 
     /**
@@ -62,18 +67,10 @@ public class Settings {
     public void setBackendUrl(String url) {
         backendUrl = url;
 
-        DatabaseHandler dbHandler = new DatabaseHandler(context);
-        SQLiteDatabase db = dbHandler.getWritableDatabase();
-
         ContentValues contentValues = new ContentValues();
         contentValues.put(DatabaseHandler.COLUMN_NAME_URL, backendUrl);
 
-        String whereClause = "id = ?";
-
-        String[] whereArgs = { "1" };
-
-        db.update(DatabaseHandler.TABLE_NAME_SETTINGS, contentValues, whereClause, whereArgs);
-        db.close();
+        writeSettings(contentValues);
     }
 
     /**
@@ -91,19 +88,109 @@ public class Settings {
     public void setAutomaticProgramFlow(boolean automaticProgramFlow) {
         this.automaticProgramFlow = automaticProgramFlow;
 
-        DatabaseHandler dbHandler = new DatabaseHandler(context);
-        SQLiteDatabase db = dbHandler.getWritableDatabase();
-
         ContentValues contentValues = new ContentValues();
         contentValues.put(DatabaseHandler.COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW,
                 automaticProgramFlow ? 1 : 0);
 
+        writeSettings(contentValues);
+    }
+
+    /**
+     * Getter method for upload batch size
+     * @return the number of measurements to upload per request, 1 means that every measurement is
+     * uploaded with a request of its own (for backends without support for OData batches)
+     */
+    public int getUploadBatchSize() {
+        return uploadBatchSize;
+    }
+
+    /**
+     * Setter method for upload batch size, also updates the Settings table in the database
+     * @param uploadBatchSize the new number of measurements to upload per request, values below 1
+     *                        are treated as 1
+     */
+    public void setUploadBatchSize(int uploadBatchSize) {
+        this.uploadBatchSize = Math.max(uploadBatchSize, 1);
+
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(DatabaseHandler.COLUMN_NAME_UPLOAD_BATCH_SIZE, this.uploadBatchSize);
+
+        writeSettings(contentValues);
+    }
+
+    /**
+     * Getter method for poll interval
+     * @return the number of milliseconds between two requests for measurements to every associated
+     * device, 0 means that devices aren't polled and only send measurements on their own
+     */
+    public int getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Setter method for poll interval, also updates the Settings table in the database
+     * @param pollInterval the new number of milliseconds between two polls of a device, 0 (or
+     *                     less) to not poll devices at all
+     */
+    public void setPollInterval(int pollInterval) {
+        this.pollInterval = Math.max(pollInterval, 0);
+
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(DatabaseHandler.COLUMN_NAME_POLL_INTERVAL, this.pollInterval);
+
+        writeSettings(contentValues);
+    }
+
+    /**
+     * Getter method for thresholds
+     * @return the limits outside of which the patient's readings are out of the ordinary, which
+     * in automatic program flow are uploaded as they are instead of only as part of summaries
+     */
+    public VitalThresholds getThresholds() {
+        return thresholds;
+    }
+
+    /**
+     * Getter method for patientThresholds
+     * @return the thresholds of the patient in the Settings, kept up to date when the patient or
+     * the thresholds are changed, for use from any thread
+     */
+    public PatientThresholds getPatientThresholds() {
+        return patientThresholds;
+    }
+
+    /**
+     * Setter method for thresholds, also updates the Settings table in the database
+     * @param thresholds the new limits of the patient's readings
+     */
+    public void setThresholds(VitalThresholds thresholds) {
+        this.thresholds = thresholds;
+        patientThresholds.set(patient, thresholds);
+
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(DatabaseHandler.COLUMN_NAME_MIN_SATURATION,
+                thresholds.getMinSaturation());
+        contentValues.put(DatabaseHandler.COLUMN_NAME_MIN_HEARTRATE,
+                thresholds.getMinHeartRate());
+        contentValues.put(DatabaseHandler.COLUMN_NAME_MAX_HEARTRATE,
+                thresholds.getMaxHeartRate());
+
+        writeSettings(contentValues);
+    }
+
+    /**
+     * Writes changed settings to the Settings table, using the database connection shared by the
+     * whole process (which is why it isn't closed afterwards)
+     * @param contentValues the columns to update, with their new values
+     */
+    private void writeSettings(ContentValues contentValues) {
+        SQLiteDatabase db = DatabaseHandler.getInstance(context).getWritableDatabase();
+
         String whereClause = "id = ?";
 
         String[] whereArgs = { "1" };
 
         db.update(DatabaseHandler.TABLE_NAME_SETTINGS, contentValues, whereClause, whereArgs);
-        db.close();
     }
 
     private Settings () {
@@ -118,7 +205,7 @@ public class Settings {
      * @param context A Context for fetching the database
      * @return the singleton instance of the Settings class
      */
-    public static Settings getInstance(Context context) {
+    public static synchronized Settings getInstance(Context context) {
         if (instance == null) {
             instance = new Settings();
             instance.context = context;
@@ -129,13 +216,17 @@ public class Settings {
     }
 
     private static void readSettings(Settings settings) {
-        DatabaseHandler dbHandler = new DatabaseHandler(settings.context);
-        SQLiteDatabase db = dbHandler.getReadableDatabase();
+        SQLiteDatabase db = DatabaseHandler.getInstance(settings.context).getReadableDatabase();
 
         String[] projection = {
                 DatabaseHandler.COLUMN_NAME_PATIENT,
                 DatabaseHandler.COLUMN_NAME_URL,
-                DatabaseHandler.COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW
+                DatabaseHandler.COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW,
+                DatabaseHandler.COLUMN_NAME_UPLOAD_BATCH_SIZE,
+                DatabaseHandler.COLUMN_NAME_POLL_INTERVAL,
+                DatabaseHandler.COLUMN_NAME_MIN_SATURATION,
+                DatabaseHandler.COLUMN_NAME_MIN_HEARTRATE,
+                DatabaseHandler.COLUMN_NAME_MAX_HEARTRATE
         };
 
         String whereClause = "id = ?";
@@ -161,9 +252,20 @@ public class Settings {
                     DatabaseHandler.COLUMN_NAME_URL));
             settings.automaticProgramFlow = cursor.getInt(cursor.getColumnIndex(
                     DatabaseHandler.COLUMN_NAME_AUTOMATIC_PROGRAM_FLOW)) == 1;
+            settings.uploadBatchSize = Math.max(cursor.getInt(cursor.getColumnIndex(
+                    DatabaseHandler.COLUMN_NAME_UPLOAD_BATCH_SIZE)), 1);
+            settings.pollInterval = Math.max(cursor.getInt(cursor.getColumnIndex(
+                    DatabaseHandler.COLUMN_NAME_POLL_INTERVAL)), 0);
+            settings.thresholds = new VitalThresholds(
+                    cursor.getFloat(cursor.getColumnIndex(
+                            DatabaseHandler.COLUMN_NAME_MIN_SATURATION)),
+                    cursor.getFloat(cursor.getColumnIndex(
+                            DatabaseHandler.COLUMN_NAME_MIN_HEARTRATE)),
+                    cursor.getFloat(cursor.getColumnIndex(
+                            DatabaseHandler.COLUMN_NAME_MAX_HEARTRATE)));
+            settings.patientThresholds.set(settings.patient, settings.thresholds);
         }
 
         cursor.close();
-        db.close();
     }
 }
@@ -14,6 +14,11 @@ import android.widget.Toast;
 public class SettingsActivity extends AppCompatActivity {
     private EditText patientName;
     private EditText backendUrl;
+    private EditText uploadBatchSize;
+    private EditText pollInterval;
+    private EditText minSaturation;
+    private EditText minHeartRate;
+    private EditText maxHeartRate;
     private boolean automaticProgramFlowValue;
 
     @Override
@@ -27,6 +32,17 @@ public class SettingsActivity extends AppCompatActivity {
         backendUrl = (EditText)findViewById(R.id.url);
         backendUrl.setText(Settings.getInstance(this).getBackendUrl());
 
+        uploadBatchSize = (EditText)findViewById(R.id.uploadBatchSize);
+        uploadBatchSize.setText(Integer.toString(Settings.getInstance(this).getUploadBatchSize()));
+
+        pollInterval = (EditText)findViewById(R.id.pollInterval);
+        pollInterval.setText(Integer.toString(Settings.getInstance(this).getPollInterval()));
+
+        minSaturation = (EditText)findViewById(R.id.minSaturation);
+        minHeartRate = (EditText)findViewById(R.id.minHeartRate);
+        maxHeartRate = (EditText)findViewById(R.id.maxHeartRate);
+        showThresholds(Settings.getInstance(this).getThresholds());
+
         automaticProgramFlowValue = Settings.getInstance(this).isAutomaticProgramFlow();
 
         Switch automaticProgramFlow = (Switch) findViewById(R.id.automaticProgramFlow);
@@ -51,6 +67,36 @@ public class SettingsActivity extends AppCompatActivity {
         Settings.getInstance(this).setBackendUrl(backendUrl.getText().toString());
         Settings.getInstance(this).setAutomaticProgramFlow(automaticProgramFlowValue);
 
+        try {
+            Settings.getInstance(this).setUploadBatchSize(Integer.parseInt(
+                    uploadBatchSize.getText().toString().trim()));
+        } catch (NumberFormatException nfe) {
+            uploadBatchSize.setText(Integer.toString(Settings.getInstance(this)
+                    .getUploadBatchSize()));
+        }
+
+        try {
+            Settings.getInstance(this).setPollInterval(Integer.parseInt(
+                    pollInterval.getText().toString().trim()));
+        } catch (NumberFormatException nfe) {
+            pollInterval.setText(Integer.toString(Settings.getInstance(this).getPollInterval()));
+        }
+
+        try {
+            Settings.getInstance(this).setThresholds(new VitalThresholds(
+                    Float.parseFloat(minSaturation.getText().toString().trim()),
+                    Float.parseFloat(minHeartRate.getText().toString().trim()),
+                    Float.parseFloat(maxHeartRate.getText().toString().trim())));
+        } catch (NumberFormatException nfe) {
+            showThresholds(Settings.getInstance(this).getThresholds());
+        }
+
         Toast.makeText(this, R.string.settings_saved, Toast.LENGTH_SHORT).show();
     }
+
+    private void showThresholds(VitalThresholds thresholds) {
+        minSaturation.setText(Float.toString(thresholds.getMinSaturation()));
+        minHeartRate.setText(Float.toString(thresholds.getMinHeartRate()));
+        maxHeartRate.setText(Float.toString(thresholds.getMaxHeartRate()));
+    }
 }
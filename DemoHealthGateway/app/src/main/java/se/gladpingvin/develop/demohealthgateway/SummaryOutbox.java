@@ -0,0 +1,151 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Persistent queue of the window summaries of streaming mode that are waiting to be uploaded to
+ * the backend, the Android SummaryStore. A summary is removed once the backend has acknowledged
+ * it, so the summary table only holds summaries that haven't reached the backend yet.
+ */
+public class SummaryOutbox implements SummaryStore {
+    private static final String TAG = "SummaryOutbox";
+    private static SummaryOutbox instance = null;
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement removeStatement;
+    private final SQLiteStatement depthStatement;
+
+    private SummaryOutbox(Context context) {
+        db = DatabaseHandler.getInstance(context).getWritableDatabase();
+
+        // Unless the summary has been replaced by one with more readings since it was read
+        removeStatement = db.compileStatement("DELETE FROM " + DatabaseHandler.TABLE_NAME_SUMMARY +
+                " WHERE " + DatabaseHandler.COLUMN_NAME_CLIENT_ID + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_COUNT + " = ?");
+
+        depthStatement = db.compileStatement("SELECT COUNT(*) FROM " +
+                DatabaseHandler.TABLE_NAME_SUMMARY);
+    }
+
+    /**
+     * Getter method for the singleton instance of SummaryOutbox
+     * @param context a Context for fetching the database, only used on the first call
+     * @return the singleton instance of the SummaryOutbox class
+     */
+    public static synchronized SummaryOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new SummaryOutbox(context);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Stores a WindowSummary in the local database, replacing a summary of the same window that
+     * hasn't been uploaded yet
+     * @param summary the WindowSummary to enqueue
+     * @return true if the summary was stored, false if it couldn't be written
+     */
+    @Override
+    public synchronized boolean enqueue(WindowSummary summary) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHandler.COLUMN_NAME_CLIENT_ID, summary.getClientId());
+        values.put(DatabaseHandler.COLUMN_NAME_PATIENT, summary.getPatient());
+        values.put(DatabaseHandler.COLUMN_NAME_DEVICE, summary.getDevice());
+        values.put(DatabaseHandler.COLUMN_NAME_START, summary.getWindowStart());
+        values.put(DatabaseHandler.COLUMN_NAME_WINDOW_MILLIS, summary.getWindowMillis());
+        values.put(DatabaseHandler.COLUMN_NAME_COUNT, summary.getCount());
+        values.put(DatabaseHandler.COLUMN_NAME_MIN_SATURATION, summary.getMinSaturation());
+        values.put(DatabaseHandler.COLUMN_NAME_MAX_SATURATION, summary.getMaxSaturation());
+        values.put(DatabaseHandler.COLUMN_NAME_MEAN_SATURATION, summary.getMeanSaturation());
+        values.put(DatabaseHandler.COLUMN_NAME_MIN_HEARTRATE, summary.getMinHeartRate());
+        values.put(DatabaseHandler.COLUMN_NAME_MAX_HEARTRATE, summary.getMaxHeartRate());
+        values.put(DatabaseHandler.COLUMN_NAME_MEAN_HEARTRATE, summary.getMeanHeartRate());
+
+        return db.insertWithOnConflict(DatabaseHandler.TABLE_NAME_SUMMARY, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE) != -1;
+    }
+
+    /**
+     * Reads the oldest summaries in the outbox, without removing them
+     * @param limit the maximum number of summaries to read
+     * @return the summaries, oldest first, an empty array if there are none
+     */
+    @Override
+    public synchronized WindowSummary[] peek(int limit) {
+        Cursor cursor = db.rawQuery("SELECT " + DatabaseHandler.COLUMN_NAME_PATIENT + ", " +
+                DatabaseHandler.COLUMN_NAME_DEVICE + ", " +
+                DatabaseHandler.COLUMN_NAME_START + ", " +
+                DatabaseHandler.COLUMN_NAME_WINDOW_MILLIS + ", " +
+                DatabaseHandler.COLUMN_NAME_COUNT + ", " +
+                DatabaseHandler.COLUMN_NAME_MIN_SATURATION + ", " +
+                DatabaseHandler.COLUMN_NAME_MAX_SATURATION + ", " +
+                DatabaseHandler.COLUMN_NAME_MEAN_SATURATION + ", " +
+                DatabaseHandler.COLUMN_NAME_MIN_HEARTRATE + ", " +
+                DatabaseHandler.COLUMN_NAME_MAX_HEARTRATE + ", " +
+                DatabaseHandler.COLUMN_NAME_MEAN_HEARTRATE + " FROM " +
+                DatabaseHandler.TABLE_NAME_SUMMARY + " ORDER BY id LIMIT " + limit, null);
+
+        try {
+            WindowSummary[] summaries = new WindowSummary[cursor.getCount()];
+
+            for (int i = 0; cursor.moveToNext(); i++) {
+                summaries[i] = new WindowSummary(cursor.getString(0), cursor.getString(1),
+                        cursor.getLong(2), cursor.getLong(3), cursor.getInt(4),
+                        cursor.getFloat(5), cursor.getFloat(6), cursor.getFloat(7),
+                        cursor.getFloat(8), cursor.getFloat(9), cursor.getFloat(10));
+            }
+
+            return summaries;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Removes the acknowledged summaries from the outbox in one transaction, the others stay to be
+     * retried
+     * @param summaries the summaries that were uploaded
+     * @param acknowledged whether the backend acknowledged each of the summaries
+     * @return the number of summaries that were removed
+     */
+    @Override
+    public synchronized int acknowledge(WindowSummary[] summaries, boolean[] acknowledged) {
+        int removed = 0;
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < summaries.length; i++) {
+                if (acknowledged[i]) {
+                    removeStatement.bindString(1, summaries[i].getClientId());
+                    removeStatement.bindLong(2, summaries[i].getCount());
+                    removed += removeStatement.executeUpdateDelete();
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed acknowledging summaries: " + sqle.toString());
+            return 0;
+        } finally {
+            db.endTransaction();
+        }
+
+        return removed;
+    }
+
+    /**
+     * Getter method for the outbox depth
+     * @return the number of summaries waiting to be uploaded
+     */
+    @Override
+    public synchronized long getDepth() {
+        return depthStatement.simpleQueryForLong();
+    }
+}
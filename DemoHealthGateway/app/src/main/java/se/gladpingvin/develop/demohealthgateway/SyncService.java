@@ -0,0 +1,134 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.support.v4.content.LocalBroadcastManager;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * Background service which drains the MeasurementOutbox (and the SummaryOutbox of streaming mode)
+ * to the backend, independently of which activities (if any) are open. The draining itself is done
+ * by a SyncEngine, with batches of the upload batch size from the Settings; the service runs the
+ * drains on a thread of its own, retries after the engine's backoff when measurements fail and
+ * stops itself once the outbox is empty.
+ *
+ * After every batch the service broadcasts its status locally (ACTION_SYNC_STATUS), and the outbox
+ * depth, drain rate and backoff can be read with "adb shell dumpsys activity service SyncService".
+ */
+public class SyncService extends Service {
+    public static final String ACTION_SYNC_STATUS =
+            "se.gladpingvin.develop.demohealthgateway.SYNC_STATUS";
+    public static final String EXTRA_DEPTH = "depth";
+    public static final String EXTRA_UPLOADED = "uploaded";
+    public static final String EXTRA_FAILED = "failed";
+    public static final String EXTRA_IDLE = "idle";
+
+    private static final int MAX_IN_FLIGHT = 2;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private SyncEngine engine;
+    private volatile int lastStartId;
+
+    /**
+     * Starts the SyncService, unless it is already running, and makes it drain the outbox right
+     * away, without waiting for any ongoing backoff
+     * @param context a Context to start the service with
+     */
+    public static void requestSync(Context context) {
+        context.startService(new Intent(context, SyncService.class));
+    }
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final SyncEngine.Listener listener = new SyncEngine.Listener() {
+        @Override
+        public void onBatchUploaded(long depth) {
+            broadcastStatus(depth, false);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        AndroidLogSink.install();
+        Settings.getInstance(this); // Initiate Settings object, for the uploader
+
+        thread = new HandlerThread("Sync", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        engine = new SyncEngine(MeasurementOutbox.getInstance(this),
+                SummaryOutbox.getInstance(this), MAX_IN_FLIGHT);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
+
+        handler.removeCallbacks(drain);
+        handler.post(drain);
+
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(drain);
+        thread.quit();
+        engine.shutdown();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Uploads everything in the outbox once, then decides whether to retry or to stop
+     */
+    private void drain() {
+        Settings settings = Settings.getInstance(this);
+        SyncEngine.DrainResult result = engine.drain(new MeasurementUploader(
+                settings.getBackendUrl(), settings.getUploadBatchSize()),
+                settings.getUploadBatchSize(), listener);
+
+        if (result.getNextDrainDelay() == SyncEngine.DrainResult.IDLE) {
+            broadcastStatus(result.getDepth(), true);
+            stopSelfResult(lastStartId);
+        } else if (result.getNextDrainDelay() == 0) {
+            handler.post(drain);
+        } else {
+            broadcastStatus(result.getDepth(), true);
+            handler.postDelayed(drain, result.getNextDrainDelay());
+        }
+    }
+
+    private void broadcastStatus(long depth, boolean idle) {
+        Intent intent = new Intent(ACTION_SYNC_STATUS);
+        intent.putExtra(EXTRA_DEPTH, depth);
+        intent.putExtra(EXTRA_UPLOADED, engine.getUploaded());
+        intent.putExtra(EXTRA_FAILED, engine.getFailed());
+        intent.putExtra(EXTRA_IDLE, idle);
+
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        engine.dump(writer);
+    }
+}
@@ -0,0 +1,121 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide access point for the waveform table, the Android WaveformStore. Every row holds a
+ * compressed WaveformBlock of many samples, so a continuous waveform costs a row every few tens
+ * of seconds instead of one per sample. All methods are synchronized, so blocks can be stored
+ * from all pipeline threads at the same time.
+ */
+public class WaveformRepository implements WaveformStore {
+    private static final String TAG = "WaveformRepo";
+    private static WaveformRepository instance = null;
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement insertStatement;
+
+    private WaveformRepository(Context context) {
+        db = DatabaseHandler.getInstance(context).getWritableDatabase();
+
+        insertStatement = db.compileStatement("INSERT INTO " +
+                DatabaseHandler.TABLE_NAME_WAVEFORM + " (" +
+                DatabaseHandler.COLUMN_NAME_PATIENT + ", " +
+                DatabaseHandler.COLUMN_NAME_METRIC_ID + ", " +
+                DatabaseHandler.COLUMN_NAME_START + ", " +
+                DatabaseHandler.COLUMN_NAME_SAMPLE_PERIOD + ", " +
+                DatabaseHandler.COLUMN_NAME_SAMPLE_COUNT + ", " +
+                DatabaseHandler.COLUMN_NAME_RESOLUTION + ", " +
+                DatabaseHandler.COLUMN_NAME_DATA + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    /**
+     * Getter method for the singleton instance of WaveformRepository
+     * @param context a Context for fetching the database, only used on the first call
+     * @return the singleton instance of the WaveformRepository class
+     */
+    public static synchronized WaveformRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new WaveformRepository(context);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Stores a WaveformBlock in the local database
+     * @param block the WaveformBlock to store
+     * @return true if the block was stored, false if it couldn't be written
+     */
+    @Override
+    public synchronized boolean store(WaveformBlock block) {
+        try {
+            insertStatement.bindString(1, block.getPatient());
+            insertStatement.bindLong(2, block.getMetricId());
+            insertStatement.bindLong(3, block.getStartMillis());
+            insertStatement.bindLong(4, block.getSamplePeriod());
+            insertStatement.bindLong(5, block.getSampleCount());
+            insertStatement.bindDouble(6, block.getResolution());
+            insertStatement.bindBlob(7, block.getData());
+
+            return insertStatement.executeInsert() != -1;
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed storing waveform block: " + sqle.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the blocks of a patient's waveform that overlap a time window, oldest first
+     * @param patient the identifier of the patient
+     * @param metricId the IEEE 11073 metric id of the waveform
+     * @param fromMillis the start of the window, in milliseconds since the epoch
+     * @param toMillis the end of the window, in milliseconds since the epoch
+     * @return the WaveformBlocks
+     */
+    public synchronized List<WaveformBlock> read(String patient, int metricId, long fromMillis,
+                                                 long toMillis) {
+        List<WaveformBlock> blocks = new ArrayList<>();
+
+        // Blocks are at most a few minutes long, so one that started an hour before the window
+        // can't overlap it, which lets the index narrow the search
+        Cursor cursor = db.rawQuery("SELECT " +
+                DatabaseHandler.COLUMN_NAME_START + ", " +
+                DatabaseHandler.COLUMN_NAME_SAMPLE_PERIOD + ", " +
+                DatabaseHandler.COLUMN_NAME_SAMPLE_COUNT + ", " +
+                DatabaseHandler.COLUMN_NAME_RESOLUTION + ", " +
+                DatabaseHandler.COLUMN_NAME_DATA + " FROM " +
+                DatabaseHandler.TABLE_NAME_WAVEFORM + " WHERE " +
+                DatabaseHandler.COLUMN_NAME_PATIENT + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_METRIC_ID + " = ? AND " +
+                DatabaseHandler.COLUMN_NAME_START + " BETWEEN ? AND ? ORDER BY " +
+                DatabaseHandler.COLUMN_NAME_START, new String[]{patient,
+                Integer.toString(metricId), Long.toString(fromMillis - 60 * 60 * 1000L),
+                Long.toString(toMillis)});
+
+        try {
+            while (cursor.moveToNext()) {
+                WaveformBlock block = new WaveformBlock(patient, metricId, cursor.getLong(0),
+                        cursor.getInt(1), cursor.getInt(2), cursor.getFloat(3),
+                        cursor.getBlob(4));
+
+                if (block.getStartMillis() + block.getSampleCount() *
+                        (long) block.getSamplePeriod() / 8 >= fromMillis) {
+                    blocks.add(block);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return blocks;
+    }
+}
@@ -0,0 +1,70 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * View that draws the latest samples of a waveform (e.g. a plethysmogram) as a line, scaled to fit
+ * the view's height. The samples are copied into an array that is allocated once, so a view can be
+ * updated many times per second without allocating.
+ */
+public class WaveformView extends View {
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float[] samples = new float[WaveformCapture.DEFAULT_DISPLAY_CAPACITY];
+    private float[] points = new float[0];
+    private int count = 0;
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        paint.setColor(Color.rgb(0, 150, 136));
+        paint.setStrokeWidth(3);
+    }
+
+    /**
+     * Shows the latest display samples of a waveform
+     * @param waveform the WaveformCapture to read the samples from
+     */
+    public void show(WaveformCapture waveform) {
+        count = waveform.readDisplay(samples);
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (count < 2) {
+            return;
+        }
+
+        float min = samples[0];
+        float max = samples[0];
+
+        for (int i = 1; i < count; i++) {
+            min = Math.min(min, samples[i]);
+            max = Math.max(max, samples[i]);
+        }
+
+        float range = max > min ? max - min : 1;
+        float width = getWidth();
+        float height = getHeight();
+
+        if (points.length < (count - 1) * 4) {
+            points = new float[(samples.length - 1) * 4];
+        }
+
+        // Oldest on the left, a full display buffer fills the width, as (x0, y0, x1, y1) segments
+        for (int i = 0; i < count - 1; i++) {
+            points[i * 4] = width * i / (samples.length - 1);
+            points[i * 4 + 1] = height - height * (samples[i] - min) / range;
+            points[i * 4 + 2] = width * (i + 1) / (samples.length - 1);
+            points[i * 4 + 3] = height - height * (samples[i + 1] - min) / range;
+        }
+
+        canvas.drawLines(points, 0, (count - 1) * 4, paint);
+    }
+}
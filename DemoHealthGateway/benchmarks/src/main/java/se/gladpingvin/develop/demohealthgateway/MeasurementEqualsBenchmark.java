@@ -0,0 +1,48 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PulseOximetryMeasurement.equals and hashCode, for equal measurements (which compare every field)
+ * and for measurements that differ only in the last field compared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeasurementEqualsBenchmark {
+    private final long millis = TimeStamps.fromLocalFields(2015, 12, 3, 14, 7, 42);
+    private final PulseOximetryMeasurement measurement = new PulseOximetryMeasurement(63f, "bpm",
+            98f, "%", millis, "Benchmark Patient");
+    private final PulseOximetryMeasurement same = new PulseOximetryMeasurement(63f, "bpm",
+            98f, "%", millis + 500, new String("Benchmark Patient"));
+    private final PulseOximetryMeasurement later = new PulseOximetryMeasurement(63f, "bpm",
+            98f, "%", millis + 1000, "Benchmark Patient");
+
+    @Benchmark
+    public boolean equalsSame() {
+        return measurement.equals(same);
+    }
+
+    @Benchmark
+    public boolean equalsDifferent() {
+        return measurement.equals(later);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return measurement.hashCode();
+    }
+}
@@ -0,0 +1,51 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions between epoch milliseconds and the html datetime-local format that timestamps are
+ * uploaded in (formerly timeStampAsHtmlString and htmlStringToGregorianCalendar).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeStampsBenchmark {
+    private final long millis = TimeStamps.fromLocalFields(2015, 12, 3, 14, 7, 42);
+    private final String html = TimeStamps.toHtmlString(millis);
+    private final StringBuilder sb = new StringBuilder(32);
+
+    @Benchmark
+    public String toHtmlString() {
+        return TimeStamps.toHtmlString(millis);
+    }
+
+    @Benchmark
+    public int appendHtmlString() {
+        sb.setLength(0);
+        TimeStamps.appendHtmlString(sb, millis);
+        return sb.length();
+    }
+
+    @Benchmark
+    public long fromHtmlString() {
+        return TimeStamps.fromHtmlString(html);
+    }
+
+    @Benchmark
+    public String toNiceString() {
+        return TimeStamps.toNiceString(millis);
+    }
+}
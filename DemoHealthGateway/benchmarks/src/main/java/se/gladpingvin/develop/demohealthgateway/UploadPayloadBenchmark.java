@@ -0,0 +1,42 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the bodies that measurements are uploaded with, form-encoded for single uploads and
+ * JSON for the entities of batch uploads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadPayloadBenchmark {
+    private final PulseOximetryMeasurement measurement = new PulseOximetryMeasurement(63f, "bpm",
+            98f, "%", TimeStamps.fromLocalFields(2015, 12, 3, 14, 7, 42), "Benchmark Patient");
+    private final StringBuilder sb = new StringBuilder(512);
+
+    @Benchmark
+    public String formEncode() throws UnsupportedEncodingException {
+        return MeasurementPayloads.formEncode(measurement);
+    }
+
+    @Benchmark
+    public int appendJson() {
+        sb.setLength(0);
+        MeasurementPayloads.appendJson(sb, measurement);
+        return sb.length();
+    }
+}
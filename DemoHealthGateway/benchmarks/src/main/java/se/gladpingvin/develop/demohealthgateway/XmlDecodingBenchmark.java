@@ -0,0 +1,73 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a measurement from the data-list XML that Antidote produces, with the DOM
+ * (XmlHelper.parseXml + PulseOximetryMeasurement.fromXml) and with the pull parser based
+ * PulseOximetryXmlDecoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlDecodingBenchmark {
+    private static final String PATIENT = "Benchmark Patient";
+
+    // A measurement from a Nonin pulse oximeter, as encoded by antidote/src/api/xml_encoder.c
+    static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<data-list>" +
+            "<entry><meta-data><meta name=\"HANDLE\">1</meta></meta-data>" +
+            "<compound><name>Numeric</name><entries>" +
+            "<entry><meta-data><meta name=\"partition\">2</meta>" +
+            "<meta name=\"metric-id\">19384</meta><meta name=\"unit-code\">544</meta>" +
+            "<meta name=\"unit\">%</meta></meta-data>" +
+            "<simple><name>Basic-Nu-Observed-Value</name><type>float</type>" +
+            "<value>98.000000</value></simple></entry>" +
+            "</entries></compound></entry>" +
+            "<entry><meta-data><meta name=\"HANDLE\">10</meta></meta-data>" +
+            "<compound><name>Numeric</name><entries>" +
+            "<entry><meta-data><meta name=\"partition\">2</meta>" +
+            "<meta name=\"metric-id\">18458</meta><meta name=\"unit-code\">2720</meta>" +
+            "<meta name=\"unit\">bpm</meta></meta-data>" +
+            "<simple><name>Basic-Nu-Observed-Value</name><type>float</type>" +
+            "<value>63.000000</value></simple></entry>" +
+            "</entries></compound></entry>" +
+            "</data-list>";
+
+    private final PulseOximetryXmlDecoder decoder = new PulseOximetryXmlDecoder();
+    private final Document document = XmlHelper.parseXml(XML);
+
+    @Benchmark
+    public Document parseXml() {
+        return XmlHelper.parseXml(XML);
+    }
+
+    @Benchmark
+    public PulseOximetryMeasurement fromXml() {
+        return PulseOximetryMeasurement.fromXml(document, PATIENT);
+    }
+
+    @Benchmark
+    public PulseOximetryMeasurement parseXmlAndFromXml() {
+        return PulseOximetryMeasurement.fromXml(XmlHelper.parseXml(XML), PATIENT);
+    }
+
+    @Benchmark
+    public PulseOximetryMeasurement pullDecode() {
+        return decoder.decode(XML, PATIENT);
+    }
+}
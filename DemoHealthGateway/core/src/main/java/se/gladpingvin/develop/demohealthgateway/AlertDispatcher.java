@@ -0,0 +1,187 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The priority lane for readings that breach their patient's thresholds (e.g. a desaturation).
+ * The readings are checked right after they have been decoded, before they are stored, and a
+ * breach is posted to the backend as an alert at once, on a thread of its own: it doesn't wait
+ * for the store, for a batch to fill up, for the uploads of SyncEngine or for its backoff. The
+ * reading itself still goes the ordinary way as well, so an alert that fails isn't retried, the
+ * stored reading is what reaches the backend eventually.
+ *
+ * The latency of every alert, from when the packet with the reading was received until the
+ * backend acknowledged the alert, is kept in a LatencyHistogram; the target is TARGET_MILLIS. The
+ * alerts that failed are kept in a histogram of their own, by how long it took until they failed.
+ * A post gets TIMEOUT_MILLIS to connect and to be answered, so that a backend that doesn't answer
+ * holds up the alerts behind it only briefly. Should the backend be slower than the alerts come,
+ * only the latest MAX_PENDING alerts wait, as a late alert is worth less than a fresh one.
+ */
+public class AlertDispatcher {
+    private static final String TAG = "AlertDispatcher";
+
+    /**
+     * The latency that alerts should stay below, from packet to backend, in milliseconds
+     */
+    public static final long TARGET_MILLIS = 200;
+
+    private static final int MAX_PENDING = 64;
+    // The connect and read timeout of a post, an alert that is later than this is already late
+    private static final int TIMEOUT_MILLIS = 1000;
+
+    private final PatientThresholds thresholds;
+    private final ThreadPoolExecutor lane;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram failedLatency = new LatencyHistogram();
+    private volatile String serviceRoot;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong raised = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructor for AlertDispatcher
+     * @param thresholds the thresholds that the readings are checked against
+     * @param serviceRoot the url of the web service to post the alerts to, without a trailing
+     *                    slash
+     */
+    public AlertDispatcher(PatientThresholds thresholds, String serviceRoot) {
+        this.thresholds = thresholds;
+        this.serviceRoot = serviceRoot;
+        this.lane = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Alerts");
+                        thread.setPriority(Thread.MAX_PRIORITY);
+                        return thread;
+                    }
+                }, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable,
+                                                  ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            return;
+                        }
+
+                        // Makes room for the new alert by dropping the oldest one
+                        executor.getQueue().poll();
+                        executor.execute(runnable);
+
+                        if (dropped.incrementAndGet() % 100 == 1) {
+                            GatewayLog.w(TAG, "Alerts are piling up, " + dropped.get() +
+                                    " dropped so far");
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Setter method for serviceRoot
+     * @param serviceRoot the url of the web service to post the alerts to, without a trailing
+     *                    slash
+     */
+    public void setServiceRoot(String serviceRoot) {
+        this.serviceRoot = serviceRoot;
+    }
+
+    /**
+     * Checks a freshly decoded reading against its patient's thresholds, and posts an alert if it
+     * breaches them. Only queues the alert, so it may be called on the thread that receives the
+     * data.
+     * @param measurement the reading
+     * @param receivedNanos when the packet with the reading was received, as System.nanoTime()
+     * @return true if the reading breached the thresholds, otherwise false
+     */
+    public boolean check(final PulseOximetryMeasurement measurement, final long receivedNanos) {
+        checked.incrementAndGet();
+
+        if (!thresholds.get(measurement.getPatient()).isBreachedBy(measurement)) {
+            return false;
+        }
+
+        raised.incrementAndGet();
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                send(measurement, receivedNanos);
+            }
+        });
+
+        return true;
+    }
+
+    private void send(PulseOximetryMeasurement measurement, long receivedNanos) {
+        MeasurementUploader uploader = new MeasurementUploader(serviceRoot, 1);
+
+        boolean acknowledged = uploader.uploadAlert(measurement, TIMEOUT_MILLIS);
+        long millis = (System.nanoTime() - receivedNanos) / 1000000;
+
+        if (!acknowledged) {
+            failed.incrementAndGet();
+            failedLatency.record(millis);
+            return;
+        }
+
+        latency.record(millis);
+
+        if (millis > TARGET_MILLIS) {
+            GatewayLog.w(TAG, "Alert for " + measurement.getPatient() + " took " + millis +
+                    " ms");
+        }
+    }
+
+    /**
+     * Getter method for latency
+     * @return the LatencyHistogram of the alerts that the backend acknowledged
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Getter method for failedLatency
+     * @return the LatencyHistogram of the alerts that failed, by when they failed
+     */
+    public LatencyHistogram getFailedLatency() {
+        return failedLatency;
+    }
+
+    /**
+     * Getter method for raised
+     * @return the number of readings that breached their thresholds
+     */
+    public long getRaised() {
+        return raised.get();
+    }
+
+    /**
+     * Writes the status of the alerts: how many were raised, failed and dropped, and their latency
+     * @param writer the PrintWriter to write to
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Alerts:");
+        writer.println("  checked: " + checked.get() + ", raised: " + raised.get() + ", failed: " +
+                failed.get() + ", dropped: " + dropped.get() + ", pending: " +
+                lane.getQueue().size());
+        writer.println("  latency (target " + TARGET_MILLIS + " ms, " +
+                latency.getCountAbove(TARGET_MILLIS) + " over):");
+        latency.dump(writer, "    ");
+        writer.println("  failed after:");
+        failedLatency.dump(writer, "    ");
+    }
+
+    /**
+     * Stops posting alerts, the alerts that are still pending are dropped
+     */
+    public void shutdown() {
+        lane.shutdownNow();
+    }
+}
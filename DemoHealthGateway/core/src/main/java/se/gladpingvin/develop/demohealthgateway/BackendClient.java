@@ -0,0 +1,387 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Shared HTTP client for all calls to the backend web service. It only uses java.net, so the same
+ * client serves the Android app and the headless gateway.
+ *
+ * Connections are never disconnected, instead every response is read to the end and closed, which
+ * hands the connection back to HttpURLConnection's keep-alive pool, so that consecutive requests to
+ * the same backend reuse the TCP (and TLS) connection instead of doing a new handshake each. Larger
+ * request bodies are sent gzipped and gzipped responses are accepted (the gzip handling is done
+ * here rather than by HttpURLConnection, so that the bytes on the wire can be counted).
+ *
+ * Every request has a connect and a read timeout, so a backend that stops answering makes the
+ * request fail with an IOException instead of blocking its thread. Callers that can't wait that
+ * long (e.g. the alerts) may give a POST a shorter timeout of its own.
+ *
+ * HttpURLConnection doesn't tell whether a connection was reused, but a new HTTPS connection
+ * always asks its SSLSocketFactory for a socket to do the TLS handshake on. HTTPS requests are
+ * therefore given a factory that counts the sockets it creates, and every HTTPS request that
+ * didn't need a new one reused a connection. For plain HTTP there is no such hook, so its reuse
+ * isn't reported.
+ */
+public class BackendClient {
+    private static final String TAG = "BackendClient";
+
+    // Below this, the gzip header and trailer eat most of what compression would save
+    private static final int MIN_GZIP_BYTES = 256;
+    // A hung backend mustn't block the drain (or whoever else is calling) for good
+    private static final int CONNECT_TIMEOUT_MILLIS = 7 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static BackendClient instance = null;
+
+    // One instance for all requests, as the keep-alive pool only reuses a connection for a
+    // request with the same factory
+    private final CountingSocketFactory socketFactory =
+            new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+
+    private long requests = 0;
+    private long secureRequests = 0;
+    private long failedRequests = 0;
+    private long bytesSent = 0;
+    private long bytesReceived = 0;
+    private long uncompressedBytesSent = 0;
+    private long uncompressedBytesReceived = 0;
+
+    /**
+     * A response from the backend
+     */
+    public static class Response {
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        /**
+         * Getter method for status
+         * @return the HTTP status code of the response
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * Getter method for body
+         * @return the (decompressed) body of the response, an empty String if there was none
+         */
+        public String getBody() {
+            return body;
+        }
+
+        /**
+         * Checks whether the request succeeded
+         * @return true if the status code is a 2xx one, otherwise false
+         */
+        public boolean isSuccessful() {
+            return status / 100 == 2;
+        }
+    }
+
+    private BackendClient() {
+
+    }
+
+    /**
+     * Getter method for the singleton instance of BackendClient
+     * @return the singleton instance of the BackendClient class
+     */
+    public static synchronized BackendClient getInstance() {
+        if (instance == null) {
+            instance = new BackendClient();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Sends a GET request to the backend
+     * @param url the absolute url of the request, including any query
+     * @return the response from the backend
+     * @throws IOException if the url is malformed or the request couldn't be completed
+     */
+    public Response get(String url) throws IOException {
+        return execute(url, null, null, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sends a POST request to the backend, the body is gzipped unless it is very small
+     * @param url the absolute url of the request
+     * @param contentType the Content-Type of body
+     * @param body the body of the request
+     * @return the response from the backend
+     * @throws IOException if the url is malformed or the request couldn't be completed
+     */
+    public Response post(String url, String contentType, byte[] body) throws IOException {
+        return execute(url, contentType, body, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Sends a POST request to the backend, like post does, but with timeouts of its own
+     * @param url the absolute url of the request
+     * @param contentType the Content-Type of body
+     * @param body the body of the request
+     * @param timeoutMillis the connect timeout, and the read timeout, of the request in
+     *                      milliseconds
+     * @return the response from the backend
+     * @throws IOException if the url is malformed or the request couldn't be completed in time
+     */
+    public Response post(String url, String contentType, byte[] body, int timeoutMillis)
+            throws IOException {
+        return execute(url, contentType, body, timeoutMillis, timeoutMillis);
+    }
+
+    private Response execute(String address, String contentType, byte[] body,
+                             int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        URL url = new URL(address);
+        long sent = 0;
+        long received = 0;
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+
+        boolean secure = connection instanceof HttpsURLConnection;
+        if (secure) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+        }
+
+        try {
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+
+            if (body != null) {
+                byte[] data = body;
+
+                if (body.length >= MIN_GZIP_BYTES) {
+                    data = gzip(body);
+                    connection.setRequestProperty("Content-Encoding", "gzip");
+                }
+
+                connection.setDoOutput(true); // POST
+                connection.setFixedLengthStreamingMode(data.length);
+                connection.setRequestProperty("Content-Type", contentType);
+
+                OutputStream outputStream = connection.getOutputStream();
+                outputStream.write(data);
+                outputStream.close();
+
+                sent = data.length;
+            }
+
+            int status = connection.getResponseCode();
+            InputStream stream = status >= 400 ? connection.getErrorStream() :
+                    connection.getInputStream();
+            String responseBody = "";
+            long uncompressed = 0;
+
+            if (stream != null) {
+                CountingInputStream counting = new CountingInputStream(stream);
+                InputStream in = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ?
+                        new GZIPInputStream(counting) : counting;
+
+                // Reading to the end and closing is what returns the connection to the pool
+                byte[] bytes = readFully(in);
+                in.close();
+
+                responseBody = new String(bytes, "UTF-8");
+                uncompressed = bytes.length;
+                received = counting.count;
+            }
+
+            record(secure, sent, body == null ? 0 : body.length, received, uncompressed, false);
+
+            return new Response(status, responseBody);
+        } catch (IOException ioe) {
+            record(secure, sent, body == null ? 0 : body.length, received, 0, true);
+            connection.disconnect();
+            throw ioe;
+        }
+    }
+
+    private synchronized void record(boolean secure, long sent, long uncompressedSent,
+                                     long received, long uncompressedReceived, boolean failed) {
+        requests++;
+        bytesSent += sent;
+        uncompressedBytesSent += uncompressedSent;
+        bytesReceived += received;
+        uncompressedBytesReceived += uncompressedReceived;
+
+        if (secure) {
+            secureRequests++;
+        }
+        if (failed) {
+            failedRequests++;
+        }
+    }
+
+    /**
+     * Getter method for the connection reuse ratio, counted for HTTPS requests only
+     * @return the share of HTTPS requests (0 to 1) that reused a kept-alive connection instead of
+     * opening a new one, or -1 if no HTTPS request has been made
+     */
+    public synchronized double getConnectionReuseRatio() {
+        if (secureRequests == 0) {
+            return -1;
+        }
+
+        long opened = Math.min(socketFactory.created.get(), secureRequests);
+        return (double) (secureRequests - opened) / secureRequests;
+    }
+
+    /**
+     * Getter method for bytes sent
+     * @return the number of request body bytes sent on the wire, i.e. after compression
+     */
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Getter method for bytes received
+     * @return the number of response body bytes received on the wire, i.e. before decompression
+     */
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Writes the client's statistics to the log
+     */
+    public synchronized void logStatistics() {
+        double reuseRatio = getConnectionReuseRatio();
+
+        GatewayLog.v(TAG, String.format("%d requests (%d failed), %s, " +
+                        "sent %d bytes (%d uncompressed), received %d bytes (%d uncompressed)",
+                requests, failedRequests, reuseRatio < 0 ? "connection reuse not observed" :
+                        String.format("%.0f%% of HTTPS requests reused a connection",
+                                reuseRatio * 100), bytesSent, uncompressedBytesSent,
+                bytesReceived, uncompressedBytesReceived));
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 32);
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+
+        gzip.write(data);
+        gzip.close();
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    // Counts the sockets that HTTPS connections are opened with, i.e. the new connections
+    private static class CountingSocketFactory extends SSLSocketFactory {
+        final AtomicLong created = new AtomicLong();
+        private final SSLSocketFactory factory;
+
+        CountingSocketFactory(SSLSocketFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return factory.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return factory.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            created.incrementAndGet();
+            return factory.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+                throws IOException {
+            created.incrementAndGet();
+            return factory.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            created.incrementAndGet();
+            return factory.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            created.incrementAndGet();
+            return factory.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            created.incrementAndGet();
+            return factory.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                                   int localPort) throws IOException {
+            created.incrementAndGet();
+            return factory.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+    // Counts the bytes read from the connection, before any decompression
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+/**
+ * Reduces the sample rate of a waveform by a whole factor, replacing every factor consecutive
+ * samples with their mean (which also keeps noise above the new rate from folding back into the
+ * waveform). Samples that don't fill a group yet are carried over to the next call, so a waveform
+ * can be decimated as it arrives, in chunks of any size.
+ *
+ * A Decimator is not thread-safe, it is meant to be used on one thread at a time.
+ */
+public class Decimator {
+    private final int factor;
+    private float sum = 0;
+    private int pending = 0;
+
+    /**
+     * Constructor for Decimator
+     * @param factor the number of input samples per output sample, 1 to keep every sample
+     */
+    public Decimator(int factor) {
+        this.factor = Math.max(factor, 1);
+    }
+
+    /**
+     * Decimates a chunk of samples
+     * @param input the array holding the samples
+     * @param offset the index of the first sample in input
+     * @param count the number of samples to decimate
+     * @param output the array to write the decimated samples to, with room for at least
+     *               (getPending() + count) / getFactor() samples
+     * @return the number of samples written to output
+     */
+    public int decimate(float[] input, int offset, int count, float[] output) {
+        int produced = 0;
+
+        for (int i = offset; i < offset + count; i++) {
+            sum += input[i];
+
+            if (++pending == factor) {
+                output[produced++] = sum / factor;
+                sum = 0;
+                pending = 0;
+            }
+        }
+
+        return produced;
+    }
+
+    /**
+     * Forgets the samples that are carried over, e.g. after a gap in the waveform
+     */
+    public void reset() {
+        sum = 0;
+        pending = 0;
+    }
+
+    /**
+     * Getter method for factor
+     * @return the number of input samples per output sample
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * Getter method for pending
+     * @return the number of samples that are carried over to the next call
+     */
+    public int getPending() {
+        return pending;
+    }
+}
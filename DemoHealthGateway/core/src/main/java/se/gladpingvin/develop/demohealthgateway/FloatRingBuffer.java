@@ -0,0 +1,77 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+/**
+ * Fixed size ring buffer of float samples. The array is allocated once, when the buffer is
+ * created, and the oldest samples are overwritten once it is full, so writing never allocates.
+ * The methods are synchronized, so the buffer can be written on one thread (e.g. a pipeline
+ * thread) and read on another (e.g. the main thread, for display).
+ */
+public class FloatRingBuffer {
+    private final float[] samples;
+    private int next = 0;
+    private int size = 0;
+    private long written = 0;
+
+    /**
+     * Constructor for FloatRingBuffer
+     * @param capacity the number of samples that the buffer holds, at least 1
+     */
+    public FloatRingBuffer(int capacity) {
+        samples = new float[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends samples to the buffer, overwriting the oldest ones if it is full
+     * @param source the array holding the samples
+     * @param offset the index of the first sample in source
+     * @param count the number of samples to append
+     */
+    public synchronized void write(float[] source, int offset, int count) {
+        // Only the last capacity samples would survive anyway
+        if (count > samples.length) {
+            offset += count - samples.length;
+            written += count - samples.length;
+            count = samples.length;
+        }
+
+        int first = Math.min(count, samples.length - next);
+        System.arraycopy(source, offset, samples, next, first);
+        System.arraycopy(source, offset + first, samples, 0, count - first);
+
+        next = (next + count) % samples.length;
+        size = Math.min(size + count, samples.length);
+        written += count;
+    }
+
+    /**
+     * Copies the latest samples, oldest first, into an array
+     * @param destination the array to copy the samples into
+     * @return the number of samples copied, the smaller of the buffer's size and the array's length
+     */
+    public synchronized int readLatest(float[] destination) {
+        int count = Math.min(size, destination.length);
+        int start = (next - count + samples.length) % samples.length;
+        int first = Math.min(count, samples.length - start);
+
+        System.arraycopy(samples, start, destination, 0, first);
+        System.arraycopy(samples, 0, destination, first, count - first);
+
+        return count;
+    }
+
+    /**
+     * Getter method for capacity
+     * @return the number of samples that the buffer holds
+     */
+    public int getCapacity() {
+        return samples.length;
+    }
+
+    /**
+     * Getter method for written
+     * @return the number of samples that have been written to the buffer, overwritten ones included
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+}
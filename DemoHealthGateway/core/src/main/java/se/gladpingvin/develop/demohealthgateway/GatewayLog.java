@@ -0,0 +1,72 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging for the platform-neutral gateway core, with the same calls as android.util.Log. By
+ * default the messages go to java.util.logging, with a Logger per tag; the Android app installs a
+ * Sink that writes to logcat instead.
+ */
+public final class GatewayLog {
+    /**
+     * Receives the log messages of the core
+     */
+    public interface Sink {
+        /**
+         * Writes a message
+         * @param level the level of the message, Level.FINE, WARNING or SEVERE
+         * @param tag the tag of the class that logged the message
+         * @param message the message
+         */
+        void log(Level level, String tag, String message);
+    }
+
+    private static final Sink JAVA_LOGGING = new Sink() {
+        @Override
+        public void log(Level level, String tag, String message) {
+            Logger.getLogger(tag).logp(level, tag, null, message);
+        }
+    };
+
+    private static volatile Sink sink = JAVA_LOGGING;
+
+    private GatewayLog() {
+
+    }
+
+    /**
+     * Replaces where the log messages are written
+     * @param newSink the Sink to write to, null to go back to java.util.logging
+     */
+    public static void setSink(Sink newSink) {
+        sink = newSink != null ? newSink : JAVA_LOGGING;
+    }
+
+    /**
+     * Logs a verbose message
+     * @param tag the tag of the logging class
+     * @param message the message
+     */
+    public static void v(String tag, String message) {
+        sink.log(Level.FINE, tag, message);
+    }
+
+    /**
+     * Logs a warning
+     * @param tag the tag of the logging class
+     * @param message the message
+     */
+    public static void w(String tag, String message) {
+        sink.log(Level.WARNING, tag, message);
+    }
+
+    /**
+     * Logs an error
+     * @param tag the tag of the logging class
+     * @param message the message
+     */
+    public static void e(String tag, String message) {
+        sink.log(Level.SEVERE, tag, message);
+    }
+}
@@ -0,0 +1,118 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * MeasurementStore that only keeps the measurements in memory, for headless gateways without a
+ * database. Measurements that haven't been uploaded are lost if the process stops, and at most
+ * capacity measurements are kept: when the store is full, the oldest measurement is dropped to make
+ * room for the new one, as the newest readings matter the most.
+ *
+ * Like the oximetry table, the store ignores a measurement that is equal to one it already holds.
+ */
+public class InMemoryMeasurementStore implements MeasurementStore {
+    private static final String TAG = "InMemoryStore";
+
+    private final int capacity;
+    private final TreeMap<Long, PulseOximetryMeasurement> queue = new TreeMap<>();
+    private final Set<PulseOximetryMeasurement> queued = new HashSet<>();
+    private long nextId = 1;
+    private long dropped = 0;
+
+    /**
+     * Constructor for InMemoryMeasurementStore
+     * @param capacity the maximum number of measurements to keep, at least 1
+     */
+    public InMemoryMeasurementStore(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+    }
+
+    @Override
+    public synchronized boolean enqueue(PulseOximetryMeasurement measurement) {
+        if (!queued.add(measurement)) {
+            return true;
+        }
+
+        if (queue.size() == capacity) {
+            Map.Entry<Long, PulseOximetryMeasurement> oldest = queue.pollFirstEntry();
+            queued.remove(oldest.getValue());
+
+            if (dropped++ % 1000 == 0) {
+                GatewayLog.w(TAG, "Store is full, " + dropped + " measurements dropped so far");
+            }
+        }
+
+        queue.put(nextId++, measurement);
+        return true;
+    }
+
+    @Override
+    public synchronized int enqueueAll(Collection<PulseOximetryMeasurement> measurements) {
+        int enqueued = 0;
+
+        for (PulseOximetryMeasurement measurement : measurements) {
+            if (!queued.contains(measurement)) {
+                enqueue(measurement);
+                enqueued++;
+            }
+        }
+
+        return enqueued;
+    }
+
+    @Override
+    public synchronized MeasurementBatch peek(long afterId, int limit) {
+        long[] ids = new long[limit];
+        PulseOximetryMeasurement[] measurements = new PulseOximetryMeasurement[limit];
+        int size = 0;
+
+        Iterator<Map.Entry<Long, PulseOximetryMeasurement>> iterator =
+                queue.tailMap(afterId, false).entrySet().iterator();
+
+        while (size < limit && iterator.hasNext()) {
+            Map.Entry<Long, PulseOximetryMeasurement> entry = iterator.next();
+            ids[size] = entry.getKey();
+            measurements[size] = entry.getValue();
+            size++;
+        }
+
+        // There are no separate rows, so the measurement id is the queue id
+        return new MeasurementBatch(ids, ids, measurements, size);
+    }
+
+    @Override
+    public synchronized int acknowledge(MeasurementBatch batch, boolean[] acknowledged) {
+        int removed = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (acknowledged[i]) {
+                PulseOximetryMeasurement measurement = queue.remove(batch.getId(i));
+
+                if (measurement != null) {
+                    queued.remove(measurement);
+                    removed++;
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    @Override
+    public synchronized long getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Getter method for dropped
+     * @return the number of measurements that were dropped because the store was full
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,82 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * SummaryStore that only keeps the summaries in memory, for headless gateways without a database.
+ * Like InMemoryMeasurementStore, it keeps at most capacity summaries and drops the oldest one to
+ * make room for a new one when it is full.
+ */
+public class InMemorySummaryStore implements SummaryStore {
+    private static final String TAG = "InMemorySummaryStore";
+
+    private final int capacity;
+    // By client id, in the order they were enqueued
+    private final LinkedHashMap<String, WindowSummary> queue = new LinkedHashMap<>();
+    private long dropped = 0;
+
+    /**
+     * Constructor for InMemorySummaryStore
+     * @param capacity the maximum number of summaries to keep, at least 1
+     */
+    public InMemorySummaryStore(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+    }
+
+    @Override
+    public synchronized boolean enqueue(WindowSummary summary) {
+        if (queue.remove(summary.getClientId()) == null && queue.size() == capacity) {
+            Iterator<String> oldest = queue.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+
+            if (dropped++ % 1000 == 0) {
+                GatewayLog.w(TAG, "Store is full, " + dropped + " summaries dropped so far");
+            }
+        }
+
+        queue.put(summary.getClientId(), summary);
+        return true;
+    }
+
+    @Override
+    public synchronized WindowSummary[] peek(int limit) {
+        WindowSummary[] summaries = new WindowSummary[Math.min(limit, queue.size())];
+        Iterator<WindowSummary> iterator = queue.values().iterator();
+
+        for (int i = 0; i < summaries.length; i++) {
+            summaries[i] = iterator.next();
+        }
+
+        return summaries;
+    }
+
+    @Override
+    public synchronized int acknowledge(WindowSummary[] summaries, boolean[] acknowledged) {
+        int removed = 0;
+
+        for (int i = 0; i < summaries.length; i++) {
+            // Unless it has been replaced by a newer summary of the window since the upload
+            if (acknowledged[i] && queue.get(summaries[i].getClientId()) == summaries[i]) {
+                queue.remove(summaries[i].getClientId());
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    @Override
+    public synchronized long getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Getter method for dropped
+     * @return the number of summaries that were dropped because the store was full
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
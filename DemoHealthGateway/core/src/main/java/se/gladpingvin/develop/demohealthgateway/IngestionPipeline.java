@@ -0,0 +1,468 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes the measurement data of many devices at once and turns it into enqueued measurements.
+ * Every device gets a pipeline of its own, with a decoder of its own, which decodes the device's
+ * data and enqueues the measurements in the MeasurementStore in the order the data arrived. The
+ * pipelines share a pool of threads, so devices are decoded in parallel and never wait for each
+ * other (other than for the store), and the callers (on Android the single Antidote worker thread
+ * that serves all devices) only have to hand the data over.
+ *
+ * Waveforms (real-time sample arrays, e.g. a plethysmogram) are captured by the same pipelines,
+ * with a WaveformCapture per device and waveform, whose compressed blocks go to a WaveformStore.
+ *
+ * In streaming mode (see setAggregator) the measurements go through a MeasurementAggregator, and
+ * only those that it doesn't cover with its window summaries are enqueued in the store.
+ *
+ * The devices are identified by any String that is unique per connected device, e.g. the path
+ * that HealthService gives it.
+ */
+public class IngestionPipeline {
+    private static final String TAG = "IngestionPipeline";
+
+    // How many items a device's pipeline handles before letting the other devices have the thread
+    private static final int MAX_ITEMS_PER_TURN = 32;
+
+    /**
+     * Receives the measurements from the pipelines
+     */
+    public interface Listener {
+        /**
+         * Called on a pipeline thread after a measurement has been enqueued in the store, or
+         * aggregated in streaming mode
+         * @param device the device that took the measurement
+         * @param measurement the measurement
+         */
+        void onMeasurement(String device, PulseOximetryMeasurement measurement);
+    }
+
+    private final ConcurrentHashMap<String, DevicePipeline> devices = new ConcurrentHashMap<>();
+    private final MeasurementStore store;
+    private final WaveformStore waveformStore;
+    private final Listener listener;
+    private final ExecutorService executor;
+    private volatile MeasurementAggregator aggregator = null;
+
+    private final AtomicLong ingested = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong samplesCaptured = new AtomicLong();
+    private final AtomicLong historyIngested = new AtomicLong();
+    private final AtomicLong aggregated = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructor for IngestionPipeline, for pipelines that don't store waveforms
+     * @param store the MeasurementStore to enqueue the measurements in
+     * @param threads the number of threads shared by the pipelines, at least 1
+     * @param listener the Listener to report the measurements to, may be null
+     */
+    public IngestionPipeline(MeasurementStore store, int threads, Listener listener) {
+        this(store, null, threads, listener);
+    }
+
+    /**
+     * Constructor for IngestionPipeline
+     * @param store the MeasurementStore to enqueue the measurements in
+     * @param waveformStore the WaveformStore for the captured waveforms, null to only keep the
+     *                      latest samples in memory
+     * @param threads the number of threads shared by the pipelines, at least 1
+     * @param listener the Listener to report the measurements to, may be null
+     */
+    public IngestionPipeline(MeasurementStore store, WaveformStore waveformStore, int threads,
+                             Listener listener) {
+        this.store = store;
+        this.waveformStore = waveformStore;
+        this.listener = listener;
+        this.executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+    }
+
+    /**
+     * Turns streaming mode on or off. In streaming mode, measurements that the aggregator covers
+     * with its window summaries aren't enqueued in the store, only the others are (e.g. those that
+     * breach the patient's thresholds). History is always enqueued as it is.
+     * @param aggregator the MeasurementAggregator to aggregate the measurements with, null to
+     *                   enqueue every measurement
+     */
+    public void setAggregator(MeasurementAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    /**
+     * Getter method for aggregator
+     * @return the MeasurementAggregator of streaming mode, null if streaming mode is off
+     */
+    public MeasurementAggregator getAggregator() {
+        return aggregator;
+    }
+
+    /**
+     * Hands a data-list XML String from Antidote to the device's pipeline
+     * @param device the device that sent the data
+     * @param xml the data-list XML String
+     * @param patient the identifier of the patient from whom the measurement was taken
+     */
+    public void submitXml(String device, final String xml, final String patient) {
+        final DevicePipeline pipeline = getPipeline(device);
+
+        submit(pipeline, new Runnable() {
+            @Override
+            public void run() {
+                ingest(pipeline, pipeline.decoder.decode(xml, patient));
+            }
+        });
+    }
+
+    /**
+     * Hands a measurement in Antidote's flattened form (parallel arrays) to the device's pipeline
+     * @param device the device that sent the data
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the measured values
+     * @param units the units of the values
+     * @param patient the identifier of the patient from whom the measurement was taken
+     */
+    public void submitValues(String device, final int[] metricIds, final float[] values,
+                             final String[] units, final String patient) {
+        final DevicePipeline pipeline = getPipeline(device);
+
+        submit(pipeline, new Runnable() {
+            @Override
+            public void run() {
+                ingest(pipeline, PulseOximetryMeasurement.fromValues(metricIds, values, units,
+                        patient));
+            }
+        });
+    }
+
+    /**
+     * Hands a chunk of a device's stored history (PM-segment entries, see PmSegmentDecoder) to
+     * the device's pipeline. The chunk is stored with a single enqueueAll, and readings that the
+     * store already has are skipped. The Listener isn't told about history, as a history sync may
+     * bring thousands of old readings.
+     * @param device the device that sent the history
+     * @param entryTimes the time of every entry, packed as YYYYMMDDhhmmss local time, 0 if unknown
+     * @param valueEntries the entry (index into entryTimes) that each value belongs to
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the stored values
+     * @param units the units of the values
+     * @param patient the identifier of the patient from whom the readings were taken
+     */
+    public void submitSegment(String device, final long[] entryTimes, final int[] valueEntries,
+                              final int[] metricIds, final float[] values, final String[] units,
+                              final String patient) {
+        final DevicePipeline pipeline = getPipeline(device);
+
+        submit(pipeline, new Runnable() {
+            @Override
+            public void run() {
+                List<PulseOximetryMeasurement> measurements = PmSegmentDecoder.decode(entryTimes,
+                        valueEntries, metricIds, values, units, patient);
+                int enqueued = store.enqueueAll(measurements);
+
+                if (enqueued < 0) {
+                    GatewayLog.e(TAG, "History from " + pipeline.device + " couldn't be stored.");
+                    failed.incrementAndGet();
+                    return;
+                }
+
+                historyIngested.addAndGet(enqueued);
+            }
+        });
+    }
+
+    /**
+     * Runs an action on the device's pipeline once everything that has been submitted for the
+     * device so far is ingested, e.g. to report that a history sync is done
+     * @param device the device
+     * @param action the action to run, on a pipeline thread
+     */
+    public void afterSubmitted(String device, Runnable action) {
+        submit(getPipeline(device), action);
+    }
+
+    /**
+     * Hands the latest samples of a waveform from Antidote to the device's pipeline
+     * @param device the device that sent the samples
+     * @param metricId the IEEE 11073 metric id of the waveform
+     * @param samplePeriod the time between two samples, in 1/8 ms
+     * @param samples the samples, oldest first
+     * @param patient the identifier of the patient whose waveform it is
+     */
+    public void submitSamples(String device, final int metricId, final int samplePeriod,
+                              final float[] samples, final String patient) {
+        final DevicePipeline pipeline = getPipeline(device);
+        final long receivedMillis = System.currentTimeMillis();
+
+        submit(pipeline, new Runnable() {
+            @Override
+            public void run() {
+                pipeline.getWaveform(metricId).write(samples, samplePeriod, receivedMillis,
+                        patient);
+                samplesCaptured.addAndGet(samples.length);
+            }
+        });
+    }
+
+    /**
+     * Getter method for a device's waveform, e.g. to display its latest samples
+     * @param device the device
+     * @param metricId the IEEE 11073 metric id of the waveform
+     * @return the WaveformCapture of the waveform, null if the device hasn't sent it
+     */
+    public WaveformCapture getWaveform(String device, int metricId) {
+        DevicePipeline pipeline = devices.get(device);
+
+        return pipeline == null ? null : pipeline.waveforms.get(metricId);
+    }
+
+    /**
+     * Forgets a device, e.g. after it has disconnected. Data that has already been submitted for
+     * the device is still ingested, and the device's waveforms are stored as they are.
+     * @param device the device to forget
+     */
+    public void removeDevice(String device) {
+        DevicePipeline pipeline = devices.remove(device);
+
+        if (pipeline != null) {
+            flushWaveforms(pipeline);
+        }
+    }
+
+    /**
+     * Getter method for the device count
+     * @return the number of devices with a pipeline
+     */
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    /**
+     * Getter method for ingested
+     * @return the number of measurements that have been enqueued in the store
+     */
+    public long getIngested() {
+        return ingested.get();
+    }
+
+    /**
+     * Getter method for failed
+     * @return the number of submitted data that couldn't be decoded or stored
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Getter method for aggregated
+     * @return the number of measurements that were only aggregated, not enqueued, in streaming
+     * mode
+     */
+    public long getAggregated() {
+        return aggregated.get();
+    }
+
+    /**
+     * Getter method for dropped
+     * @return the number of submitted data that were dropped because the pipeline had been shut
+     * down
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Getter method for historyIngested
+     * @return the number of stored readings from device histories that have been enqueued, not
+     * counting those that the store already had
+     */
+    public long getHistoryIngested() {
+        return historyIngested.get();
+    }
+
+    /**
+     * Getter method for samplesCaptured
+     * @return the number of waveform samples that have been captured
+     */
+    public long getSamplesCaptured() {
+        return samplesCaptured.get();
+    }
+
+    /**
+     * Stops taking data, what has already been submitted is still ingested and the waveforms are
+     * stored as they are. Data submitted afterwards is dropped (and counted, see getDropped).
+     */
+    public void shutdown() {
+        for (DevicePipeline pipeline : devices.values()) {
+            flushWaveforms(pipeline);
+        }
+
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the submitted data to be ingested after shutdown
+     * @param timeout the maximum time to wait
+     * @param unit the unit of timeout
+     * @return true if everything was ingested, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private DevicePipeline getPipeline(String device) {
+        DevicePipeline pipeline = devices.get(device);
+
+        if (pipeline == null) {
+            DevicePipeline created = new DevicePipeline(device);
+            pipeline = devices.putIfAbsent(device, created);
+
+            if (pipeline == null) {
+                pipeline = created;
+            }
+        }
+
+        return pipeline;
+    }
+
+    // Hands an item to a device's pipeline, or drops it if the pipeline has been shut down
+    private void submit(DevicePipeline pipeline, Runnable item) {
+        if (!pipeline.execute(item) && dropped.incrementAndGet() % 1000 == 1) {
+            GatewayLog.w(TAG, "Shut down, " + dropped.get() + " items dropped so far");
+        }
+    }
+
+    private void flushWaveforms(final DevicePipeline pipeline) {
+        if (pipeline.waveforms.isEmpty()) {
+            return;
+        }
+
+        boolean accepted = pipeline.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (WaveformCapture waveform : pipeline.waveforms.values()) {
+                    waveform.flush();
+                }
+            }
+        });
+
+        if (!accepted) {
+            GatewayLog.w(TAG, "Waveforms of " + pipeline.device + " were not stored, shut down.");
+        }
+    }
+
+    private void ingest(DevicePipeline pipeline, PulseOximetryMeasurement measurement) {
+        if (measurement == null) {
+            GatewayLog.e(TAG, "Data from " + pipeline.device + " couldn't be decoded.");
+            failed.incrementAndGet();
+            return;
+        }
+
+        MeasurementAggregator currentAggregator = aggregator;
+
+        if (currentAggregator != null && !currentAggregator.add(pipeline.device, measurement)) {
+            // Only uploaded as part of the window summaries
+            aggregated.incrementAndGet();
+        } else if (!store.enqueue(measurement)) {
+            GatewayLog.e(TAG, "Measurement from " + pipeline.device + " couldn't be stored.");
+            failed.incrementAndGet();
+            return;
+        } else {
+            ingested.incrementAndGet();
+        }
+
+        if (listener != null) {
+            listener.onMeasurement(pipeline.device, measurement);
+        }
+    }
+
+    // The pipeline of one device: its items run one at a time, in order, on the shared threads
+    private class DevicePipeline implements Runnable {
+        final String device;
+        final PulseOximetryXmlDecoder decoder = new PulseOximetryXmlDecoder();
+        // Only written on the pipeline, but read by getWaveform on any thread
+        final Map<Integer, WaveformCapture> waveforms = new ConcurrentHashMap<>();
+
+        private final ArrayDeque<Runnable> items = new ArrayDeque<>();
+        private boolean scheduled = false;
+
+        DevicePipeline(String device) {
+            this.device = device;
+        }
+
+        WaveformCapture getWaveform(int metricId) {
+            WaveformCapture waveform = waveforms.get(metricId);
+
+            if (waveform == null) {
+                waveform = new WaveformCapture(device, metricId, waveformStore);
+                waveforms.put(metricId, waveform);
+            }
+
+            return waveform;
+        }
+
+        // Returns false if the item was rejected because the executor has been shut down
+        synchronized boolean execute(Runnable item) {
+            items.add(item);
+
+            if (!scheduled) {
+                try {
+                    executor.execute(this);
+                    scheduled = true;
+                } catch (RejectedExecutionException ree) {
+                    // Nothing is left in items while not scheduled, so the item is the only one
+                    items.clear();
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public void run() {
+            int handled = 0;
+
+            while (true) {
+                Runnable item;
+
+                synchronized (this) {
+                    item = items.poll();
+
+                    if (item == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+
+                try {
+                    item.run();
+                } catch (RuntimeException re) {
+                    GatewayLog.e(TAG, "Ingesting data from " + device + " failed: " +
+                            re.toString());
+                    failed.incrementAndGet();
+                }
+
+                if (++handled == MAX_ITEMS_PER_TURN) {
+                    try {
+                        // More items may be waiting, they go to the back of the pool's queue
+                        executor.execute(this);
+                        return;
+                    } catch (RejectedExecutionException ree) {
+                        // Shut down, so the rest is handled here
+                        handled = 0;
+                    }
+                }
+            }
+        }
+    }
+}
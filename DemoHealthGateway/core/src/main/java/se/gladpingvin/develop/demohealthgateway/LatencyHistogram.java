@@ -0,0 +1,120 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in milliseconds, with fixed buckets that are finer around the latencies
+ * that matter for alerts (tens to hundreds of milliseconds). Recording a latency is lock free and
+ * allocates nothing, so it can be done on any thread; percentiles are only as exact as the
+ * buckets, i.e. they are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    // The upper bounds (inclusive) of the buckets, the last bucket takes everything above
+    private static final long[] BOUNDS = {5, 10, 20, 50, 75, 100, 150, 200, 300, 500, 1000, 2000,
+            5000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency
+     * @param millis the latency in milliseconds, negative latencies are recorded as 0
+     */
+    public void record(long millis) {
+        long latency = Math.max(millis, 0);
+        int bucket = 0;
+
+        while (bucket < BOUNDS.length && latency > BOUNDS[bucket]) {
+            bucket++;
+        }
+
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+
+        long currentMax;
+        do {
+            currentMax = max.get();
+        } while (latency > currentMax && !max.compareAndSet(currentMax, latency));
+    }
+
+    /**
+     * Getter method for count
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Getter method for max
+     * @return the highest recorded latency in milliseconds, 0 if none has been recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Computes a percentile of the recorded latencies
+     * @param percentile the percentile, e.g. 99 for the 99th percentile
+     * @return the upper bound of the bucket that the percentile falls in, the highest recorded
+     * latency if it falls in the last bucket, or -1 if no latency has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+
+        if (total == 0) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Counts the latencies above a limit
+     * @param millis the limit in milliseconds, one of the bucket bounds for an exact count
+     * @return the number of recorded latencies above the bucket bound that millis falls in
+     */
+    public long getCountAbove(long millis) {
+        long above = 0;
+
+        for (int i = counts.length() - 1; i > 0 && BOUNDS[i - 1] >= millis; i--) {
+            above += counts.get(i);
+        }
+
+        return above;
+    }
+
+    /**
+     * Writes the histogram: the percentiles and the count of every bucket
+     * @param writer the PrintWriter to write to
+     * @param indent the indent of the lines
+     */
+    public void dump(PrintWriter writer, String indent) {
+        writer.println(indent + "count: " + count.get() + ", p50: " + getPercentile(50) +
+                " ms, p95: " + getPercentile(95) + " ms, p99: " + getPercentile(99) +
+                " ms, max: " + max.get() + " ms");
+
+        StringBuilder sb = new StringBuilder(indent);
+
+        for (int i = 0; i < counts.length(); i++) {
+            sb.append(i < BOUNDS.length ? "<=" + BOUNDS[i] : ">" + BOUNDS[BOUNDS.length - 1])
+                    .append(": ").append(counts.get(i)).append(i + 1 < counts.length() ? ", " : "");
+        }
+
+        writer.println(sb.toString());
+    }
+}
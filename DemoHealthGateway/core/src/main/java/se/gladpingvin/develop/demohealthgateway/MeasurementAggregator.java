@@ -0,0 +1,275 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Edge aggregation for streaming mode: instead of every reading, only summaries of time windows
+ * are uploaded, plus the readings that breach the patient's thresholds. Every device has a window
+ * of each length (1 minute, 15 minutes and 1 hour) per patient that it measures, aligned to the
+ * epoch, which keeps the count and the minimum, maximum and sum of the saturation and heart rate
+ * of its readings, i.e. O(1) memory per window whatever the reading rate. The readings of two
+ * devices are never merged into one summary, even when the gateway stamps them with the same
+ * patient. A window is summarised into the SummaryStore when a reading of a later window arrives,
+ * or when closeWindows finds it over.
+ *
+ * Readings from before a device's current windows (e.g. delayed ones) aren't aggregated, they
+ * are reported as to be uploaded as they are, so that nothing is silently lost. The thresholds
+ * are the patient's, whichever device took the reading.
+ *
+ * Safe to use from any thread; a device's windows are locked while they are updated.
+ */
+public class MeasurementAggregator {
+    private static final String TAG = "MeasurementAggregator";
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+
+    /**
+     * The lengths of the windows in milliseconds
+     */
+    public static final long[] WINDOW_MILLIS = {MINUTE_MILLIS, 15 * MINUTE_MILLIS,
+            60 * MINUTE_MILLIS};
+
+    // By patient and device
+    private final ConcurrentHashMap<String, DeviceWindows> devices = new ConcurrentHashMap<>();
+    private final SummaryStore summaryStore;
+    private final PatientThresholds thresholds;
+
+    private final AtomicLong aggregated = new AtomicLong();
+    private final AtomicLong passedThrough = new AtomicLong();
+    private final AtomicLong summarised = new AtomicLong();
+
+    /**
+     * Constructor for MeasurementAggregator
+     * @param summaryStore the SummaryStore to enqueue the window summaries in
+     * @param thresholds the thresholds outside of which readings are uploaded as they are
+     */
+    public MeasurementAggregator(SummaryStore summaryStore, PatientThresholds thresholds) {
+        this.summaryStore = summaryStore;
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * Adds a reading to the windows of its device and patient
+     * @param device the identifier of the device that took the reading
+     * @param measurement the reading
+     * @return true if the reading should be uploaded as it is, i.e. it breaches the patient's
+     * thresholds or is older than the device's windows, false if the summaries cover it
+     */
+    public boolean add(String device, PulseOximetryMeasurement measurement) {
+        DeviceWindows windows = getWindows(measurement.getPatient(), device);
+        boolean covered;
+
+        synchronized (windows) {
+            covered = windows.add(measurement);
+        }
+
+        if (!covered || thresholds.get(measurement.getPatient()).isBreachedBy(measurement)) {
+            passedThrough.incrementAndGet();
+            return true;
+        }
+
+        aggregated.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Summarises the windows that are over, e.g. those of devices that have stopped sending
+     * @param nowMillis the current time in milliseconds since the epoch
+     * @return the number of summarised windows
+     */
+    public int closeWindows(long nowMillis) {
+        int closed = 0;
+
+        for (DeviceWindows windows : devices.values()) {
+            synchronized (windows) {
+                closed += windows.close(nowMillis, false);
+            }
+        }
+
+        return closed;
+    }
+
+    /**
+     * Summarises all windows, also those that aren't over, e.g. before the gateway stops. The
+     * windows that aren't over stay open, so if readings keep coming their next summary covers
+     * the flushed readings too and replaces the flushed summary
+     * @return the number of summarised windows
+     */
+    public int flush() {
+        int flushed = 0;
+
+        for (DeviceWindows windows : devices.values()) {
+            synchronized (windows) {
+                flushed += windows.close(System.currentTimeMillis(), true);
+            }
+        }
+
+        return flushed;
+    }
+
+    /**
+     * Getter method for aggregated
+     * @return the number of readings that only are uploaded as part of summaries
+     */
+    public long getAggregated() {
+        return aggregated.get();
+    }
+
+    /**
+     * Getter method for passedThrough
+     * @return the number of readings that were to be uploaded as they are
+     */
+    public long getPassedThrough() {
+        return passedThrough.get();
+    }
+
+    /**
+     * Getter method for summarised
+     * @return the number of window summaries that have been enqueued
+     */
+    public long getSummarised() {
+        return summarised.get();
+    }
+
+    private DeviceWindows getWindows(String patient, String device) {
+        String key = patient + "|" + device;
+        DeviceWindows windows = devices.get(key);
+
+        if (windows == null) {
+            DeviceWindows created = new DeviceWindows(patient, device);
+            windows = devices.putIfAbsent(key, created);
+
+            if (windows == null) {
+                windows = created;
+            }
+        }
+
+        return windows;
+    }
+
+    private void summarise(String patient, String device, Window window) {
+        WindowSummary summary = window.summarise(patient, device);
+
+        if (summaryStore.enqueue(summary)) {
+            summarised.incrementAndGet();
+        } else {
+            GatewayLog.e(TAG, "Summary of " + patient + " from " + device +
+                    " couldn't be stored.");
+        }
+    }
+
+    // The windows of one device and patient, one of every length
+    private class DeviceWindows {
+        final String patient;
+        final String device;
+        final Window[] windows = new Window[WINDOW_MILLIS.length];
+
+        DeviceWindows(String patient, String device) {
+            this.patient = patient;
+            this.device = device;
+
+            for (int i = 0; i < windows.length; i++) {
+                windows[i] = new Window(WINDOW_MILLIS[i]);
+            }
+        }
+
+        // Returns whether the reading is covered by the windows
+        boolean add(PulseOximetryMeasurement measurement) {
+            long timeStamp = measurement.getTimeStamp();
+
+            // A reading is either added to all windows or to none
+            for (Window window : windows) {
+                if (window.count > 0 && timeStamp < window.start) {
+                    return false;
+                }
+            }
+
+            for (Window window : windows) {
+                if (window.count > 0 && timeStamp >= window.start + window.millis) {
+                    summarise(patient, device, window);
+                    window.count = 0;
+                }
+
+                window.add(measurement);
+            }
+
+            return true;
+        }
+
+        int close(long nowMillis, boolean flush) {
+            int closed = 0;
+
+            for (Window window : windows) {
+                if (window.count > 0 && nowMillis >= window.start + window.millis) {
+                    summarise(patient, device, window);
+                    window.count = 0;
+                    closed++;
+                } else if (window.count > 0 && flush) {
+                    summarise(patient, device, window);
+                    closed++;
+                }
+            }
+
+            return closed;
+        }
+    }
+
+    // A window of one length, reset (count 0) once summarised
+    private static class Window {
+        final long millis;
+        long start;
+        int count = 0;
+        int saturationCount;
+        float minSaturation;
+        float maxSaturation;
+        double saturationSum;
+        int heartRateCount;
+        float minHeartRate;
+        float maxHeartRate;
+        double heartRateSum;
+
+        Window(long millis) {
+            this.millis = millis;
+        }
+
+        void add(PulseOximetryMeasurement measurement) {
+            float saturation = measurement.getBloodOxygenSaturation();
+            float heartRate = measurement.getHeartRate();
+
+            if (count++ == 0) {
+                start = measurement.getTimeStamp() - measurement.getTimeStamp() % millis;
+                saturationCount = 0;
+                saturationSum = 0;
+                heartRateCount = 0;
+                heartRateSum = 0;
+            }
+
+            if (saturation >= 0) {
+                minSaturation = saturationCount == 0 ? saturation :
+                        Math.min(minSaturation, saturation);
+                maxSaturation = saturationCount == 0 ? saturation :
+                        Math.max(maxSaturation, saturation);
+                saturationSum += saturation;
+                saturationCount++;
+            }
+
+            if (heartRate >= 0) {
+                minHeartRate = heartRateCount == 0 ? heartRate : Math.min(minHeartRate, heartRate);
+                maxHeartRate = heartRateCount == 0 ? heartRate : Math.max(maxHeartRate, heartRate);
+                heartRateSum += heartRate;
+                heartRateCount++;
+            }
+        }
+
+        WindowSummary summarise(String patient, String device) {
+            return new WindowSummary(patient, device, start, millis, count,
+                    saturationCount > 0 ? minSaturation : -1,
+                    saturationCount > 0 ? maxSaturation : -1,
+                    saturationCount > 0 ? (float) (saturationSum / saturationCount) : -1,
+                    heartRateCount > 0 ? minHeartRate : -1,
+                    heartRateCount > 0 ? maxHeartRate : -1,
+                    heartRateCount > 0 ? (float) (heartRateSum / heartRateCount) : -1);
+        }
+    }
+}
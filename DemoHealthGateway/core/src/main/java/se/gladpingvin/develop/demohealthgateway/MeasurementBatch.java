@@ -0,0 +1,68 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+/**
+ * A batch of measurements from a MeasurementStore, in the order they were enqueued
+ */
+public class MeasurementBatch {
+    private final long[] ids;
+    private final long[] measurementIds;
+    private final PulseOximetryMeasurement[] measurements;
+    private final int size;
+
+    /**
+     * Constructor for MeasurementBatch
+     * @param ids the store's ids of the measurements, in the order they were enqueued
+     * @param measurementIds the ids of the stored measurements themselves, e.g. their rows
+     * @param measurements the measurements
+     * @param size how many of the first elements of the arrays are valid
+     */
+    public MeasurementBatch(long[] ids, long[] measurementIds,
+                            PulseOximetryMeasurement[] measurements, int size) {
+        this.ids = ids;
+        this.measurementIds = measurementIds;
+        this.measurements = measurements;
+        this.size = size;
+    }
+
+    /**
+     * Getter method for size
+     * @return the number of measurements in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Getter method for the store id of a measurement in the batch
+     * @param index the index of the measurement in the batch
+     * @return the id of the measurement in the store's queue
+     */
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Getter method for the stored id of a measurement in the batch
+     * @param index the index of the measurement in the batch
+     * @return the id of the stored measurement, e.g. its row in the oximetry table
+     */
+    public long getMeasurementId(int index) {
+        return measurementIds[index];
+    }
+
+    /**
+     * Getter method for the measurements in the batch
+     * @return the measurements, only the first size() elements are valid
+     */
+    public PulseOximetryMeasurement[] getMeasurements() {
+        return measurements;
+    }
+
+    /**
+     * Getter method for the id of the last measurement in the batch
+     * @return the store id of the batch's last measurement, or 0 if the batch is empty
+     */
+    public long getLastId() {
+        return size == 0 ? 0 : ids[size - 1];
+    }
+}
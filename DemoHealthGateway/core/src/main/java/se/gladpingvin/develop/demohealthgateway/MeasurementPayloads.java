@@ -0,0 +1,83 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Builds the bodies that PulseOximetryMeasurement objects are uploaded to the web service with.
+ * Only depends on org.json, so the payloads can be built (and benchmarked) outside of Android.
+ */
+public class MeasurementPayloads {
+    /**
+     * Encodes a PulseOximetryMeasurement as the application/x-www-form-urlencoded body that the web
+     * service accepts
+     * @param measurement the PulseOximetryMeasurement to encode
+     * @return the form-encoded measurement
+     * @throws UnsupportedEncodingException never, as UTF-8 is always supported
+     */
+    public static String formEncode(PulseOximetryMeasurement measurement)
+            throws UnsupportedEncodingException {
+        return URLEncoder.encode("BloodOxygenSaturation", "UTF-8") + "="
+                + URLEncoder.encode(
+                Float.toString(measurement.getBloodOxygenSaturation()), "UTF-8") +
+                "&" + URLEncoder.encode("BloodOxygenSaturationUnit", "UTF-8") + "="
+                + URLEncoder.encode(measurement.getBloodOxygenSaturationUnit(), "UTF-8") +
+                "&" + URLEncoder.encode("HeartRate", "UTF-8") + "=" + URLEncoder.encode(
+                Float.toString(measurement.getHeartRate()), "UTF-8") + "&" +
+                URLEncoder.encode("HeartRateUnit", "UTF-8") + "=" +
+                URLEncoder.encode(measurement.getHeartRateUnit(), "UTF-8") + "&" +
+                URLEncoder.encode("PatientIdentification", "UTF-8") + "=" +
+                URLEncoder.encode(measurement.getPatient(), "UTF-8") + "&" +
+                URLEncoder.encode("TimeStamp", "UTF-8") + "=" +
+                URLEncoder.encode(TimeStamps.toHtmlString(measurement.getTimeStamp()),
+                        "UTF-8") + "&" +
+                URLEncoder.encode("ClientId", "UTF-8") + "=" +
+                URLEncoder.encode(measurement.getClientId(), "UTF-8");
+    }
+
+    /**
+     * Appends a PulseOximetryMeasurement as the JSON entity that the web service expects
+     * @param sb the StringBuilder to append to
+     * @param measurement the PulseOximetryMeasurement to append
+     */
+    public static void appendJson(StringBuilder sb, PulseOximetryMeasurement measurement) {
+        sb.append("{\"HeartRate\":").append(measurement.getHeartRate())
+                .append(",\"HeartRateUnit\":")
+                .append(JSONObject.quote(measurement.getHeartRateUnit()))
+                .append(",\"BloodOxygenSaturation\":")
+                .append(measurement.getBloodOxygenSaturation())
+                .append(",\"BloodOxygenSaturationUnit\":")
+                .append(JSONObject.quote(measurement.getBloodOxygenSaturationUnit()))
+                .append(",\"PatientIdentification\":")
+                .append(JSONObject.quote(measurement.getPatient()))
+                .append(",\"ClientId\":").append(JSONObject.quote(measurement.getClientId()))
+                .append(",\"TimeStamp\":\"");
+        TimeStamps.appendHtmlString(sb, measurement.getTimeStamp());
+        sb.append("\"}");
+    }
+
+    /**
+     * Appends a WindowSummary as the JSON entity that the web service expects, with the start of
+     * the window as its TimeStamp and the length of the window in seconds
+     * @param sb the StringBuilder to append to
+     * @param summary the WindowSummary to append
+     */
+    public static void appendJson(StringBuilder sb, WindowSummary summary) {
+        sb.append("{\"PatientIdentification\":").append(JSONObject.quote(summary.getPatient()))
+                .append(",\"DeviceIdentification\":").append(JSONObject.quote(summary.getDevice()))
+                .append(",\"WindowSeconds\":").append(summary.getWindowMillis() / 1000)
+                .append(",\"Count\":").append(summary.getCount())
+                .append(",\"MinBloodOxygenSaturation\":").append(summary.getMinSaturation())
+                .append(",\"MaxBloodOxygenSaturation\":").append(summary.getMaxSaturation())
+                .append(",\"MeanBloodOxygenSaturation\":").append(summary.getMeanSaturation())
+                .append(",\"MinHeartRate\":").append(summary.getMinHeartRate())
+                .append(",\"MaxHeartRate\":").append(summary.getMaxHeartRate())
+                .append(",\"MeanHeartRate\":").append(summary.getMeanHeartRate())
+                .append(",\"ClientId\":").append(JSONObject.quote(summary.getClientId()))
+                .append(",\"TimeStamp\":\"");
+        TimeStamps.appendHtmlString(sb, summary.getWindowStart());
+        sb.append("\"}");
+    }
+}
@@ -0,0 +1,53 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.Collection;
+
+/**
+ * Queue of measurements that are waiting to be uploaded to the backend, which SyncEngine drains.
+ * On Android this is the MeasurementOutbox in the SQLite database; a headless gateway without a
+ * database uses an InMemoryMeasurementStore.
+ *
+ * Implementations must be safe to use from several threads, as SyncEngine acknowledges batches
+ * from its upload threads while measurements keep being enqueued.
+ */
+public interface MeasurementStore {
+    /**
+     * Stores a received PulseOximetryMeasurement until it has been uploaded, unless the store
+     * already has it (or has already had it uploaded)
+     * @param measurement the PulseOximetryMeasurement to enqueue
+     * @return true if measurement was enqueued or already existed, false if it couldn't be stored
+     */
+    boolean enqueue(PulseOximetryMeasurement measurement);
+
+    /**
+     * Stores many received measurements at once (e.g. the history of a device), skipping those
+     * that the store already has, as efficiently as the store allows
+     * @param measurements the PulseOximetryMeasurements to enqueue
+     * @return the number of measurements that were enqueued (the others already existed), or -1
+     * if they couldn't be stored
+     */
+    int enqueueAll(Collection<PulseOximetryMeasurement> measurements);
+
+    /**
+     * Reads the oldest measurements in the store after a given id, without removing them
+     * @param afterId the store id after which to start reading, 0 to start from the beginning
+     * @param limit the maximum number of measurements to read
+     * @return the measurements, an empty MeasurementBatch if there are none after afterId
+     */
+    MeasurementBatch peek(long afterId, int limit);
+
+    /**
+     * Records the outcome of uploading a MeasurementBatch. Acknowledged measurements are removed
+     * from the store, the others stay to be retried.
+     * @param batch the MeasurementBatch that was uploaded
+     * @param acknowledged whether the backend acknowledged each measurement of batch
+     * @return the number of measurements that were removed
+     */
+    int acknowledge(MeasurementBatch batch, boolean[] acknowledged);
+
+    /**
+     * Getter method for the store depth
+     * @return the number of measurements waiting to be uploaded
+     */
+    long getDepth();
+}
@@ -0,0 +1,284 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.util.UUID;
+
+/**
+ * Uploads PulseOximetryMeasurement objects (and the WindowSummary objects of streaming mode) to an
+ * OData web service, reporting for each of them whether the web service acknowledged it, and posts
+ * the alerts of AlertDispatcher. The uploads are blocking, so an uploader must not be used on the
+ * main thread (SyncEngine and AlertDispatcher run it on threads of their own).
+ * Created by SEprjASv on 2015-11-25.
+ */
+public class MeasurementUploader {
+    private static final String TAG = "MUploader";
+    private static final String URLEnding = "/PulseOximetryMeasurements";
+    private static final String SummaryURLEnding = "/PulseOximetrySummaries";
+    private static final String AlertURLEnding = "/PulseOximetryAlerts";
+    private static final String BatchURLEnding = "/$batch";
+    private static final String CRLF = "\r\n";
+
+    private final String serviceRoot;
+    private final int batchSize;
+
+    // Appends the JSON entity of one of the uploaded objects
+    private interface EntityWriter {
+        void append(StringBuilder sb, int index);
+    }
+
+    /**
+     * Constructor for MeasurementUploader
+     * @param serviceRoot the url of the web service, without a trailing slash
+     * @param batchSize the upload batch size, 1 to send every measurement with a request of its own
+     */
+    public MeasurementUploader(String serviceRoot, int batchSize) {
+        this.serviceRoot = serviceRoot;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Uploads PulseOximetryMeasurement objects to the web service. Unless the upload batch size is
+     * 1, all of them are sent in a single OData batch, otherwise every measurement is sent with a
+     * request of its own (for backends without support for batches).
+     * @param measurements the PulseOximetryMeasurements to upload
+     * @param count the number of measurements to upload, i.e. how many of the first measurements
+     * @param acknowledged set to whether the web service acknowledged each of the measurements
+     * @return the number of measurements that the web service acknowledged
+     */
+    public int upload(final PulseOximetryMeasurement[] measurements, int count,
+                      boolean[] acknowledged) {
+        if (batchSize <= 1) {
+            return uploadSeparately(measurements, count, acknowledged);
+        }
+
+        return uploadBatch(URLEnding, new EntityWriter() {
+            @Override
+            public void append(StringBuilder sb, int index) {
+                MeasurementPayloads.appendJson(sb, measurements[index]);
+            }
+        }, count, acknowledged);
+    }
+
+    /**
+     * Uploads WindowSummary objects to the web service, in a single OData batch unless the upload
+     * batch size is 1, like upload does with measurements
+     * @param summaries the WindowSummaries to upload
+     * @param count the number of summaries to upload, i.e. how many of the first summaries
+     * @param acknowledged set to whether the web service acknowledged each of the summaries
+     * @return the number of summaries that the web service acknowledged
+     */
+    public int uploadSummaries(final WindowSummary[] summaries, int count,
+                               boolean[] acknowledged) {
+        EntityWriter writer = new EntityWriter() {
+            @Override
+            public void append(StringBuilder sb, int index) {
+                MeasurementPayloads.appendJson(sb, summaries[index]);
+            }
+        };
+
+        if (batchSize <= 1) {
+            return uploadJsonSeparately(SummaryURLEnding, writer, count, acknowledged, 0);
+        }
+
+        return uploadBatch(SummaryURLEnding, writer, count, acknowledged);
+    }
+
+    /**
+     * Posts a reading that breached its patient's thresholds as an alert, with a request of its
+     * own whatever the upload batch size
+     * @param measurement the PulseOximetryMeasurement that breached the thresholds
+     * @param timeoutMillis the connect and read timeout of the request in milliseconds
+     * @return true if the web service acknowledged the alert, otherwise false
+     */
+    public boolean uploadAlert(final PulseOximetryMeasurement measurement, int timeoutMillis) {
+        return uploadJsonSeparately(AlertURLEnding, new EntityWriter() {
+            @Override
+            public void append(StringBuilder sb, int index) {
+                MeasurementPayloads.appendJson(sb, measurement);
+            }
+        }, 1, new boolean[1], timeoutMillis) == 1;
+    }
+
+    /**
+     * Uploads the measurements with one request each. Every measurement carries its client id, so
+     * a successful status is enough to know that the web service has it, whether it was stored now
+     * or by an earlier attempt.
+     * @param measurements the PulseOximetryMeasurements to upload
+     * @param count the number of measurements to upload
+     * @param acknowledged set to whether the web service acknowledged each of the measurements
+     * @return the number of measurements that the web service acknowledged
+     */
+    private int uploadSeparately(PulseOximetryMeasurement[] measurements, int count,
+                                 boolean[] acknowledged) {
+        int finished = 0;
+
+        for (int i = 0; i < count; i++) {
+            PulseOximetryMeasurement measurement = measurements[i];
+            acknowledged[i] = false;
+
+            try {
+                String data = MeasurementPayloads.formEncode(measurement);
+
+                GatewayLog.v(TAG, "Uploading to " + serviceRoot + URLEnding);
+
+                BackendClient.Response response = BackendClient.getInstance().post(
+                        serviceRoot + URLEnding, "application/x-www-form-urlencoded",
+                        data.getBytes("UTF-8"));
+
+                if (!response.isSuccessful()) {
+                    GatewayLog.e(TAG, "Measurement was rejected: " + response.getStatus());
+                    continue;
+                }
+
+                acknowledged[i] = true;
+                finished++;
+            } catch (MalformedURLException mfue) {
+                GatewayLog.e(TAG, "Url was malformed: " + mfue.getMessage());
+            } catch (IOException ioe) {
+                GatewayLog.e(TAG, "IOException when trying to open connection.");
+            }
+        }
+
+        return finished;
+    }
+
+    /**
+     * Uploads JSON entities with one request each, like uploadSeparately does with measurements
+     * @param urlEnding the entity set to post the entities to
+     * @param writer the EntityWriter that writes the entities
+     * @param count the number of entities to upload
+     * @param acknowledged set to whether the web service acknowledged each of the entities
+     * @param timeoutMillis the connect and read timeout of each request in milliseconds, 0 for
+     *                      the BackendClient's own
+     * @return the number of entities that the web service acknowledged
+     */
+    private int uploadJsonSeparately(String urlEnding, EntityWriter writer, int count,
+                                     boolean[] acknowledged, int timeoutMillis) {
+        StringBuilder sb = new StringBuilder(512);
+        int finished = 0;
+
+        for (int i = 0; i < count; i++) {
+            acknowledged[i] = false;
+            sb.setLength(0);
+            writer.append(sb, i);
+
+            try {
+                byte[] data = sb.toString().getBytes("UTF-8");
+                BackendClient.Response response = timeoutMillis > 0 ?
+                        BackendClient.getInstance().post(serviceRoot + urlEnding,
+                                "application/json", data, timeoutMillis) :
+                        BackendClient.getInstance().post(serviceRoot + urlEnding,
+                                "application/json", data);
+
+                if (!response.isSuccessful()) {
+                    GatewayLog.e(TAG, "Entity was rejected: " + response.getStatus());
+                    continue;
+                }
+
+                acknowledged[i] = true;
+                finished++;
+            } catch (MalformedURLException mfue) {
+                GatewayLog.e(TAG, "Url was malformed: " + mfue.getMessage());
+            } catch (IOException ioe) {
+                GatewayLog.e(TAG, "IOException when trying to open connection.");
+            }
+        }
+
+        return finished;
+    }
+
+    /**
+     * Uploads entities in a single OData $batch request. Every entity is put in a changeset of its
+     * own, so that the web service handles (and answers for) each of them separately, i.e. one
+     * rejected measurement doesn't cause the others to be rolled back.
+     * @param urlEnding the entity set to post the entities to
+     * @param writer the EntityWriter that writes the entities
+     * @param count the number of entities to upload
+     * @param acknowledged set to whether the web service reported each entity as created
+     * @return the number of entities that the web service reported as created
+     */
+    private int uploadBatch(String urlEnding, EntityWriter writer, int count,
+                            boolean[] acknowledged) {
+        String boundary = "batch_" + UUID.randomUUID();
+        String changeSetBoundary = "changeset_" + UUID.randomUUID();
+
+        StringBuilder sb = new StringBuilder(count * 512);
+
+        for (int i = 0; i < count; i++) {
+            acknowledged[i] = false;
+            sb.append("--").append(boundary).append(CRLF)
+                    .append("Content-Type: multipart/mixed; boundary=").append(changeSetBoundary)
+                    .append(CRLF).append(CRLF)
+                    .append("--").append(changeSetBoundary).append(CRLF)
+                    .append("Content-Type: application/http").append(CRLF)
+                    .append("Content-Transfer-Encoding: binary").append(CRLF)
+                    .append("Content-ID: ").append(i + 1).append(CRLF).append(CRLF)
+                    .append("POST ").append(serviceRoot).append(urlEnding).append(" HTTP/1.1")
+                    .append(CRLF)
+                    .append("Content-Type: application/json").append(CRLF)
+                    .append("Accept: application/json").append(CRLF).append(CRLF);
+            writer.append(sb, i);
+            sb.append(CRLF)
+                    .append("--").append(changeSetBoundary).append("--").append(CRLF);
+        }
+
+        sb.append("--").append(boundary).append("--").append(CRLF);
+
+        int created = 0;
+
+        try {
+            GatewayLog.v(TAG, "Uploading " + count + " entities to " + serviceRoot + urlEnding +
+                    " in a batch");
+
+            BackendClient.Response response = BackendClient.getInstance().post(
+                    serviceRoot + BatchURLEnding, "multipart/mixed; boundary=" + boundary,
+                    sb.toString().getBytes("UTF-8"));
+
+            if (!response.isSuccessful()) {
+                GatewayLog.e(TAG, "Batch was rejected: " + response.getStatus());
+                return 0;
+            }
+
+            // The response has a part per changeset, in the same order as the request, each with
+            // the status line of the changeset's POST
+            BufferedReader bufferedReader = new BufferedReader(new StringReader(
+                    response.getBody()));
+            String line;
+            int statuses = 0;
+
+            while ((line = bufferedReader.readLine()) != null) {
+                if (!line.startsWith("HTTP/1.")) {
+                    continue;
+                }
+
+                if (statuses == count) {
+                    break;
+                }
+
+                int status = Integer.parseInt(line.substring(9, 12));
+
+                if (status / 100 == 2) {
+                    acknowledged[statuses] = true;
+                    created++;
+                } else {
+                    GatewayLog.w(TAG, "Entity " + statuses + " was rejected: " + line);
+                }
+
+                statuses++;
+            }
+
+            bufferedReader.close();
+        } catch (MalformedURLException mfue) {
+            GatewayLog.e(TAG, "Url was malformed: " + mfue.getMessage());
+        } catch (IOException ioe) {
+            GatewayLog.e(TAG, "IOException when uploading batch: " + ioe.getMessage());
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            GatewayLog.e(TAG, "Batch response contained a malformed status line.");
+        }
+
+        return created;
+    }
+}
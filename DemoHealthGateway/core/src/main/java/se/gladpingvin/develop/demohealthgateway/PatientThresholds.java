@@ -0,0 +1,58 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The VitalThresholds of every patient, with default thresholds for the patients that haven't
+ * been given thresholds of their own. Safe to use from any thread, as the pipelines read it while
+ * the thresholds are being changed.
+ */
+public class PatientThresholds {
+    private final ConcurrentHashMap<String, VitalThresholds> thresholds =
+            new ConcurrentHashMap<>();
+    private volatile VitalThresholds defaults;
+
+    /**
+     * Constructor for PatientThresholds
+     * @param defaults the thresholds of the patients without thresholds of their own
+     */
+    public PatientThresholds(VitalThresholds defaults) {
+        this.defaults = defaults;
+    }
+
+    /**
+     * Getter method for a patient's thresholds
+     * @param patient the identifier of the patient, may be null
+     * @return the patient's thresholds, or the default thresholds if the patient has none
+     */
+    public VitalThresholds get(String patient) {
+        VitalThresholds patientThresholds = patient != null ? thresholds.get(patient) : null;
+
+        return patientThresholds != null ? patientThresholds : defaults;
+    }
+
+    /**
+     * Setter method for a patient's thresholds
+     * @param patient the identifier of the patient, nothing is set if null
+     * @param patientThresholds the patient's new thresholds, null to use the default thresholds
+     */
+    public void set(String patient, VitalThresholds patientThresholds) {
+        if (patient == null) {
+            return;
+        }
+
+        if (patientThresholds == null) {
+            thresholds.remove(patient);
+        } else {
+            thresholds.put(patient, patientThresholds);
+        }
+    }
+
+    /**
+     * Setter method for the default thresholds
+     * @param defaults the thresholds of the patients without thresholds of their own
+     */
+    public void setDefaults(VitalThresholds defaults) {
+        this.defaults = defaults;
+    }
+}
@@ -0,0 +1,100 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Decodes the entries of a PM-segment (the stored readings of a device's persistent metric store)
+ * into PulseOximetryMeasurement objects. Antidote hands a segment over in chunks, each flattened
+ * into parallel arrays like live measurements (see PulseOximetryMeasurement.fromValues), plus the
+ * time of every entry, so a chunk is decoded without ever building the segment as XML.
+ *
+ * Stored readings can be fetched again (e.g. every time a device is synced), so they are given
+ * client ids derived from their contents rather than random ones. The same reading then always
+ * has the same client id, and is only stored once by the backend however often it is uploaded.
+ */
+public class PmSegmentDecoder {
+    private static final int MDC_PULS_OXIM_PULS_RATE = 18458;
+    private static final int MDC_PULS_OXIM_SAT_O2 = 19384;
+
+    private PmSegmentDecoder() {
+    }
+
+    /**
+     * Decodes a chunk of segment entries. Entries without an absolute time (e.g. of devices that
+     * only keep relative time) or without pulse rate and saturation are skipped.
+     * @param entryTimes the time of every entry, packed as YYYYMMDDhhmmss local time, 0 if unknown
+     * @param valueEntries the entry (index into entryTimes) that each value belongs to
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the stored values
+     * @param units the units of the values, empty Strings for unknown units
+     * @param patient the identifier of the patient from whom the readings were taken
+     * @return the measurements, in the order of the entries
+     */
+    public static List<PulseOximetryMeasurement> decode(long[] entryTimes, int[] valueEntries,
+                                                        int[] metricIds, float[] values,
+                                                        String[] units, String patient) {
+        List<PulseOximetryMeasurement> measurements = new ArrayList<>(entryTimes.length);
+        int value = 0;
+
+        for (int entry = 0; entry < entryTimes.length; entry++) {
+            float heartRate = -1;
+            float saturation = -1;
+            String heartRateUnit = "unknown";
+            String saturationUnit = "unknown";
+
+            // The values of an entry are next to each other, in entry order
+            for (; value < valueEntries.length && valueEntries[value] == entry; value++) {
+                if (metricIds[value] == MDC_PULS_OXIM_PULS_RATE) {
+                    heartRate = values[value];
+                    heartRateUnit = units[value].isEmpty() ? "unknown" : units[value];
+                } else if (metricIds[value] == MDC_PULS_OXIM_SAT_O2) {
+                    saturation = values[value];
+                    saturationUnit = units[value].isEmpty() ? "unknown" : units[value];
+                }
+            }
+
+            if (entryTimes[entry] == 0 || (heartRate < 0 && saturation < 0)) {
+                continue;
+            }
+
+            long timeStamp = unpackTime(entryTimes[entry]);
+
+            measurements.add(new PulseOximetryMeasurement(heartRate, heartRateUnit, saturation,
+                    saturationUnit, timeStamp, patient,
+                    clientId(patient, timeStamp, heartRate, saturation)));
+        }
+
+        return measurements;
+    }
+
+    /**
+     * Converts a time packed as YYYYMMDDhhmmss local time into milliseconds since the epoch
+     * @param packed the packed time
+     * @return the milliseconds since the epoch
+     */
+    public static long unpackTime(long packed) {
+        return TimeStamps.fromLocalFields(
+                (int) (packed / 10000000000L),
+                (int) (packed / 100000000L % 100),
+                (int) (packed / 1000000L % 100),
+                (int) (packed / 10000L % 100),
+                (int) (packed / 100L % 100),
+                (int) (packed % 100));
+    }
+
+    private static String clientId(String patient, long timeStamp, float heartRate,
+                                   float saturation) {
+        // Whole seconds, like the dedup index, as that is all the device and the backend keep
+        String key = patient + "|" + timeStamp / 1000 + "|" + heartRate + "|" + saturation;
+
+        try {
+            return UUID.nameUUIDFromBytes(key.getBytes("UTF-8")).toString();
+        } catch (UnsupportedEncodingException uee) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(uee);
+        }
+    }
+}
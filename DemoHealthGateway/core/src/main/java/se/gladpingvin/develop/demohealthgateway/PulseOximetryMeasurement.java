@@ -8,9 +8,8 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.Random;
+import java.util.UUID;
 
 /**
  * Representation of an IEEE 11073 Pulse oximetry measurement object
@@ -18,8 +17,9 @@ import java.util.Random;
  */
 public class PulseOximetryMeasurement {
     private static final int MDC_PULS_OXIM_PULS_RATE = 18458;
-    private static final int MDC_PULS_OXIM_PLETH = 19380;
+    public static final int MDC_PULS_OXIM_PLETH = 19380;
     private static final int MDC_PULS_OXIM_SAT_O2 = 19384;
+    private static final Random GENERATOR = new Random();
 
     /**
      * Getter method for heart rate
@@ -55,9 +55,9 @@ public class PulseOximetryMeasurement {
 
     /**
      * Getter method for timestamp
-     * @return the timestamp of the measurement as a GregorianCalendar
+     * @return the timestamp of the measurement in milliseconds since the epoch
      */
-    public GregorianCalendar getTimeStamp() {
+    public long getTimeStamp() {
         return timeStamp;
     }
 
@@ -69,12 +69,22 @@ public class PulseOximetryMeasurement {
         return patient;
     }
 
+    /**
+     * Getter method for client id
+     * @return the identifier that the measurement was given when it was received, which makes
+     * uploading it more than once a no-op on the backend
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
     private float heartRate;
     private float bloodOxygenSaturation;
     private String heartRateUnit;
     private String bloodOxygenSaturationUnit;
-    private GregorianCalendar timeStamp;
+    private long timeStamp;
     private String patient;
+    private String clientId;
 
     /**
      * Constructor for creating a pseudo-random PulseOximetryMeasurement, this constructor is
@@ -89,12 +99,13 @@ public class PulseOximetryMeasurement {
      * 0 - 9999 (i.e. a hexadecimal number between 0 - 270F)
      */
     public PulseOximetryMeasurement() {
-        Random generator = new Random();
+        Random generator = GENERATOR;
         int startYear = 2005;
-        GregorianCalendar now = new GregorianCalendar();
+        int[] now = new int[TimeStamps.FIELD_COUNT];
+        TimeStamps.toLocalFields(System.currentTimeMillis(), now);
 
-        int year = startYear + generator.nextInt(now.get(Calendar.YEAR)-startYear);
-        int month = generator.nextInt(12);
+        int year = startYear + generator.nextInt(now[TimeStamps.YEAR]-startYear);
+        int month = 1 + generator.nextInt(12);
         int day = 1 + generator.nextInt(31);
         int hour = generator.nextInt(24);
         int minute = generator.nextInt(60);
@@ -105,7 +116,8 @@ public class PulseOximetryMeasurement {
         bloodOxygenSaturation = (float)(90 + generator.nextInt(10));
         bloodOxygenSaturationUnit = "%";
         patient = Integer.toHexString(generator.nextInt(10000));
-        timeStamp = new GregorianCalendar(year, month, day, hour, minute, second);
+        timeStamp = TimeStamps.fromLocalFields(year, month, day, hour, minute, second);
+        clientId = UUID.randomUUID().toString();
     }
 
     /**
@@ -114,18 +126,36 @@ public class PulseOximetryMeasurement {
      * @param rateUnit the unit of the heart rate
      * @param saturation the blood oxygen saturation
      * @param saturationUnit the unit of the blood oxygen saturation
-     * @param measureTime the time when the measurement was taken
+     * @param measureTime the time when the measurement was taken, in milliseconds since the epoch
      * @param pat the identifier of the patient
      */
     public PulseOximetryMeasurement(float rate, String rateUnit, float saturation,
-                                    String saturationUnit, GregorianCalendar measureTime,
+                                    String saturationUnit, long measureTime,
                                     String pat) {
+        this(rate, rateUnit, saturation, saturationUnit, measureTime, pat, null);
+    }
+
+    /**
+     * This constructor is for when all data of a measurement, including its client id, are known,
+     * i.e. when reading a stored measurement
+     * @param rate the heart rate
+     * @param rateUnit the unit of the heart rate
+     * @param saturation the blood oxygen saturation
+     * @param saturationUnit the unit of the blood oxygen saturation
+     * @param measureTime the time when the measurement was taken, in milliseconds since the epoch
+     * @param pat the identifier of the patient
+     * @param id the client id of the measurement, a new one is generated if null
+     */
+    public PulseOximetryMeasurement(float rate, String rateUnit, float saturation,
+                                    String saturationUnit, long measureTime,
+                                    String pat, String id) {
         heartRate = rate;
         heartRateUnit = rateUnit;
         bloodOxygenSaturation = saturation;
         bloodOxygenSaturationUnit = saturationUnit;
         timeStamp = measureTime;
         patient = pat;
+        clientId = id != null ? id : UUID.randomUUID().toString();
     }
 
     /**
@@ -140,7 +170,8 @@ public class PulseOximetryMeasurement {
      */
     public PulseOximetryMeasurement(float rate, String rateUnit, float saturation,
                                     String saturationUnit, String patient) {
-        this(rate, rateUnit, saturation, saturationUnit, new GregorianCalendar(), patient);
+        this(rate, rateUnit, saturation, saturationUnit, System.currentTimeMillis(),
+                patient);
     }
 
     /**
@@ -155,15 +186,19 @@ public class PulseOximetryMeasurement {
         heartRateUnit = json.getString("HeartRateUnit");
         bloodOxygenSaturation = (float)json.getDouble("BloodOxygenSaturation");
         bloodOxygenSaturationUnit = json.getString("BloodOxygenSaturationUnit");
-        timeStamp = AntidoteHelper.htmlStringToGregorianCalendar(json.getString("TimeStamp"));
+        timeStamp = TimeStamps.fromHtmlString(json.getString("TimeStamp"));
         patient = json.getString("PatientIdentification");
+        clientId = json.isNull("ClientId") ? UUID.randomUUID().toString() :
+                json.getString("ClientId");
     }
 
     @Override
     public String toString() {
-        return timeStamp.get(GregorianCalendar.DAY_OF_MONTH) + "/" + (timeStamp.get(
-                GregorianCalendar.MONTH) + 1) + " - " + timeStamp.get(GregorianCalendar.YEAR) + " "
-                + patient + ":\n\t" +  "Heart rate: " + (int)heartRate + " " + heartRateUnit +
+        int[] fields = new int[TimeStamps.FIELD_COUNT];
+        TimeStamps.toLocalFields(timeStamp, fields);
+
+        return fields[TimeStamps.DAY_OF_MONTH] + "/" + fields[TimeStamps.MONTH] + " - " +
+                fields[TimeStamps.YEAR] + " " + patient + ":\n\t" +  "Heart rate: " + (int)heartRate + " " + heartRateUnit +
                 "\n\t" + "SPO2: " + (int)bloodOxygenSaturation + " " + bloodOxygenSaturationUnit;
     }
 
@@ -202,7 +237,7 @@ public class PulseOximetryMeasurement {
                     if (entryChild.getNodeName().equals("simple")) {
                         NodeList simple = ((Element)entryChild).getElementsByTagName("value");
                         if (simple.getLength() > 0) {
-                            value = Float.parseFloat(AntidoteHelper.getXmlText(simple.item(0)));
+                            value = Float.parseFloat(XmlHelper.getXmlText(simple.item(0)));
                         }
                     } else if (entryChild.getNodeName().equals("meta-data")) {
                         NodeList metas = ((Element)entryChild).getElementsByTagName("meta");
@@ -219,9 +254,9 @@ public class PulseOximetryMeasurement {
                             }
 
                             if (item.getNodeValue().equals("unit")) {
-                                unit = AntidoteHelper.getXmlText(metas.item(l));
+                                unit = XmlHelper.getXmlText(metas.item(l));
                             } else if (item.getNodeValue().equals("metric-id")) {
-                                type = Integer.parseInt(AntidoteHelper.getXmlText(metas.item(l)));
+                                type = Integer.parseInt(XmlHelper.getXmlText(metas.item(l)));
                             }
                         }
                     }
@@ -243,6 +278,38 @@ public class PulseOximetryMeasurement {
                 patient);
     }
 
+    /**
+     * Method for creating a PulseOximetryMeasurement from the flattened form that Antidote sends
+     * measurements in by default, i.e. parallel arrays where element i of each array belongs to
+     * the same value.
+     * @param metricIds the IEEE 11073 metric ids of the values
+     * @param values the measured values
+     * @param units the units of the values, empty Strings for unknown units
+     * @param patient the identifier of the patient from whom the measurement was taken
+     * @return a PulseOximetryMeasurement with the pulse rate and saturation values from the
+     * arrays, identified with patient
+     */
+    public static PulseOximetryMeasurement fromValues(int[] metricIds, float[] values,
+                                                      String[] units, String patient) {
+        float heartRate = -1;
+        float saturation = -1;
+        String heartRateUnit = "unknown";
+        String saturationUnit = "unknown";
+
+        for (int i = 0; i < metricIds.length; i++) {
+            if (metricIds[i] == MDC_PULS_OXIM_PULS_RATE) {
+                heartRate = values[i];
+                heartRateUnit = units[i].isEmpty() ? "unknown" : units[i];
+            } else if (metricIds[i] == MDC_PULS_OXIM_SAT_O2) {
+                saturation = values[i];
+                saturationUnit = units[i].isEmpty() ? "unknown" : units[i];
+            }
+        }
+
+        return new PulseOximetryMeasurement(heartRate, heartRateUnit, saturation, saturationUnit,
+                patient);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof  PulseOximetryMeasurement)) {
@@ -251,16 +318,27 @@ public class PulseOximetryMeasurement {
 
         PulseOximetryMeasurement measurement = (PulseOximetryMeasurement)o;
 
-        // The reason that the timestamps are only compared down to minute, is that the html type
-        // datetime-local, which is used when posting measurements to the backend, only has minute
-        // precision (also, two identical measurements withing the same minute doesn't really add
+        // The reason that the timestamps are only compared down to second, is that the html type
+        // datetime-local, which is used when posting measurements to the backend, only has second
+        // precision (also, two identical measurements withing the same second doesn't really add
         // any value here, this might change with future development though)
         return bloodOxygenSaturation == measurement.getBloodOxygenSaturation() &&
                 heartRate == measurement.getHeartRate() &&
                 bloodOxygenSaturationUnit.equals(measurement.getBloodOxygenSaturationUnit()) &&
                 heartRateUnit.equals(measurement.getHeartRateUnit()) &&
                 patient.equals(measurement.getPatient()) &&
-                AntidoteHelper.timeStampAsHtmlString(timeStamp).equals(
-                        AntidoteHelper.timeStampAsHtmlString(measurement.getTimeStamp()));
+                timeStamp / 1000 == measurement.getTimeStamp() / 1000;
+    }
+
+    @Override
+    public int hashCode() {
+        long seconds = timeStamp / 1000;
+        int result = Float.floatToIntBits(heartRate);
+        result = 31 * result + Float.floatToIntBits(bloodOxygenSaturation);
+        result = 31 * result + heartRateUnit.hashCode();
+        result = 31 * result + bloodOxygenSaturationUnit.hashCode();
+        result = 31 * result + patient.hashCode();
+        result = 31 * result + (int) (seconds ^ (seconds >>> 32));
+        return result;
     }
 }
@@ -0,0 +1,146 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Single-pass decoder for the data-list XML that Antidote produces for measurements (see
+ * antidote/src/api/xml_encoder.c). The XML is read with an XmlPullParser, so no DOM is built, and
+ * the metric id, unit and value of every entry are read straight into primitives. The parser is
+ * created on first use and reused for every measurement, which is why decode is synchronized.
+ *
+ * The structure that is decoded looks like this, where entries may also contain a compound
+ * element with nested entries instead of a simple element:
+ * <pre>
+ * &lt;data-list&gt;
+ *   &lt;entry&gt;
+ *     &lt;meta-data&gt;
+ *       &lt;meta name="metric-id"&gt;18458&lt;/meta&gt;&lt;meta name="unit"&gt;bpm&lt;/meta&gt;
+ *     &lt;/meta-data&gt;
+ *     &lt;simple&gt;&lt;name&gt;...&lt;/name&gt;&lt;type&gt;...&lt;/type&gt;&lt;value&gt;63&lt;/value&gt;&lt;/simple&gt;
+ *   &lt;/entry&gt;
+ * &lt;/data-list&gt;
+ * </pre>
+ */
+public class PulseOximetryXmlDecoder {
+    private static final String TAG = "PulseOximetryXml";
+
+    private static final int MDC_PULS_OXIM_PULS_RATE = 18458;
+    private static final int MDC_PULS_OXIM_SAT_O2 = 19384;
+
+    private XmlPullParser parser = null;
+
+    // Per-entry state, indexed by how deeply the entry is nested in compound entries
+    private int[] metricIds = new int[4];
+    private float[] values = new float[4];
+    private String[] units = new String[4];
+
+    /**
+     * Decodes a data-list XML String from Antidote into a PulseOximetryMeasurement, timestamped
+     * with the current time. The result is the same as the one of
+     * PulseOximetryMeasurement.fromXml(XmlHelper.parseXml(xml), patient).
+     * @param xml the data-list XML String
+     * @param patient the identifier of the patient from whom the measurement was taken
+     * @return a PulseOximetryMeasurement with the data from xml, identified with patient, or null
+     * if xml couldn't be parsed
+     */
+    public synchronized PulseOximetryMeasurement decode(String xml, String patient) {
+        float heartRate = -1;
+        float saturation = -1;
+        String heartRateUnit = "unknown";
+        String saturationUnit = "unknown";
+
+        int depth = -1;
+        boolean inDataList = false;
+
+        try {
+            if (parser == null) {
+                parser = XmlPullParserFactory.newInstance().newPullParser();
+            }
+
+            parser.setInput(new StringReader(xml));
+
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT;
+                 event = parser.next()) {
+                if (event == XmlPullParser.START_TAG) {
+                    String name = parser.getName();
+
+                    if (name.equals("data-list")) {
+                        inDataList = true;
+                    } else if (!inDataList) {
+                        continue;
+                    } else if (name.equals("entry")) {
+                        depth++;
+                        ensureCapacity(depth);
+                        metricIds[depth] = -1;
+                        values[depth] = -1;
+                        units[depth] = "unknown";
+                    } else if (depth < 0) {
+                        continue;
+                    } else if (name.equals("meta")) {
+                        String metaName = parser.getAttributeValue(null, "name");
+
+                        if ("metric-id".equals(metaName)) {
+                            metricIds[depth] = Integer.parseInt(parser.nextText().trim());
+                        } else if ("unit".equals(metaName)) {
+                            units[depth] = parser.nextText();
+                        }
+                    } else if (name.equals("value")) {
+                        values[depth] = Float.parseFloat(parser.nextText().trim());
+                    }
+                } else if (event == XmlPullParser.END_TAG && depth >= 0 &&
+                        parser.getName().equals("entry")) {
+                    if (metricIds[depth] == MDC_PULS_OXIM_PULS_RATE) {
+                        heartRate = values[depth];
+                        heartRateUnit = units[depth];
+                    } else if (metricIds[depth] == MDC_PULS_OXIM_SAT_O2) {
+                        saturation = values[depth];
+                        saturationUnit = units[depth];
+                    }
+
+                    units[depth] = null;
+                    depth--;
+                }
+            }
+        } catch (XmlPullParserException xppe) {
+            GatewayLog.e(TAG, "XML parsing caused an exception: " + xppe.toString());
+            return null;
+        } catch (IOException ioe) {
+            GatewayLog.e(TAG, "Couldn't parse xml: " + ioe.toString());
+            return null;
+        } catch (NumberFormatException nfe) {
+            GatewayLog.e(TAG, "Measurement xml contained a malformed number: " + nfe.toString());
+            return null;
+        }
+
+        return new PulseOximetryMeasurement(heartRate, heartRateUnit, saturation, saturationUnit,
+                patient);
+    }
+
+    /**
+     * Grows the per-entry state arrays, should entries be nested deeper than they can hold
+     * @param depth the nesting depth that needs to fit
+     */
+    private void ensureCapacity(int depth) {
+        if (depth < metricIds.length) {
+            return;
+        }
+
+        int length = metricIds.length * 2;
+        int[] newMetricIds = new int[length];
+        float[] newValues = new float[length];
+        String[] newUnits = new String[length];
+
+        System.arraycopy(metricIds, 0, newMetricIds, 0, metricIds.length);
+        System.arraycopy(values, 0, newValues, 0, values.length);
+        System.arraycopy(units, 0, newUnits, 0, units.length);
+
+        metricIds = newMetricIds;
+        values = newValues;
+        units = newUnits;
+    }
+}
@@ -0,0 +1,41 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+/**
+ * Queue of WindowSummary objects that are waiting to be uploaded to the backend, which SyncEngine
+ * drains along with the MeasurementStore. On Android this is the SummaryOutbox in the SQLite
+ * database; a headless gateway uses an InMemorySummaryStore.
+ *
+ * Implementations must be safe to use from several threads, as summaries are enqueued by the
+ * pipelines while SyncEngine uploads.
+ */
+public interface SummaryStore {
+    /**
+     * Stores a WindowSummary until it has been uploaded, replacing a summary of the same window
+     * that hasn't been uploaded yet
+     * @param summary the WindowSummary to enqueue
+     * @return true if summary was enqueued, false if it couldn't be stored
+     */
+    boolean enqueue(WindowSummary summary);
+
+    /**
+     * Reads the oldest summaries in the store, without removing them
+     * @param limit the maximum number of summaries to read
+     * @return the summaries, oldest first, an empty array if the store is empty
+     */
+    WindowSummary[] peek(int limit);
+
+    /**
+     * Records the outcome of uploading summaries, acknowledged summaries are removed from the store
+     * and the others stay to be retried
+     * @param summaries the summaries that were uploaded
+     * @param acknowledged whether the backend acknowledged each of the summaries
+     * @return the number of summaries that were removed
+     */
+    int acknowledge(WindowSummary[] summaries, boolean[] acknowledged);
+
+    /**
+     * Getter method for the store depth
+     * @return the number of summaries waiting to be uploaded
+     */
+    long getDepth();
+}
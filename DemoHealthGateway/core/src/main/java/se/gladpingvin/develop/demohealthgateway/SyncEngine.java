@@ -0,0 +1,339 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drains a MeasurementStore to the backend. A drain reads the store in batches of the upload batch
+ * size and uploads up to maxInFlight batches at the same time. Should any measurement fail, the
+ * store should be drained again after an exponential backoff with full jitter, which the result of
+ * the drain tells, as it does when the store is empty. Retrying is always safe, as the backend
+ * ignores measurements with a client id that it already has.
+ *
+ * In streaming mode there is also a SummaryStore with the window summaries of the aggregated
+ * measurements, which every drain uploads first. Summaries are few, so they are uploaded from the
+ * draining thread, one batch at a time. Failed summaries have a backoff of their own: drains skip
+ * the summaries until it is over, and it doesn't delay the retries of the measurements.
+ *
+ * The engine only does the draining; when to drain is up to the platform, i.e. SyncService on
+ * Android and HeadlessGateway on a plain JVM. Only one drain may run at a time.
+ */
+public class SyncEngine {
+    private static final String TAG = "SyncEngine";
+
+    private static final long BACKOFF_BASE_MILLIS = 5 * 1000;
+    private static final long BACKOFF_MAX_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * Receives the progress of a drain
+     */
+    public interface Listener {
+        /**
+         * Called on an upload thread after every uploaded (or failed) batch
+         * @param depth the number of measurements left in the store
+         */
+        void onBatchUploaded(long depth);
+    }
+
+    /**
+     * The outcome of a drain
+     */
+    public static class DrainResult {
+        /**
+         * The value of getNextDrainDelay when the store is empty and there is nothing to retry
+         */
+        public static final long IDLE = -1;
+
+        private final int drained;
+        private final int failed;
+        private final long depth;
+        private final long nextDrainDelay;
+
+        DrainResult(int drained, int failed, long depth, long nextDrainDelay) {
+            this.drained = drained;
+            this.failed = failed;
+            this.depth = depth;
+            this.nextDrainDelay = nextDrainDelay;
+        }
+
+        /**
+         * Getter method for drained
+         * @return the number of measurements that the drain tried to upload
+         */
+        public int getDrained() {
+            return drained;
+        }
+
+        /**
+         * Getter method for failed
+         * @return the number of measurements that the backend didn't acknowledge
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Getter method for depth
+         * @return the number of measurements (and summaries) left in the stores after the drain
+         */
+        public long getDepth() {
+            return depth;
+        }
+
+        /**
+         * Getter method for the next drain delay
+         * @return the delay in milliseconds before the store should be drained again, 0 to drain
+         * it again right away (measurements arrived during the drain) or IDLE if it is empty
+         */
+        public long getNextDrainDelay() {
+            return nextDrainDelay;
+        }
+    }
+
+    private final MeasurementStore store;
+    private final SummaryStore summaryStore;
+    private final int maxInFlight;
+    private final ExecutorService uploads;
+    private final Semaphore inFlight;
+    private final Random random = new Random();
+
+    // Written by the draining thread (the counters also by the upload threads), read by dump
+    private volatile int consecutiveFailures = 0;
+    private volatile long nextRetry = 0;
+    private volatile int consecutiveSummaryFailures = 0;
+    private volatile long nextSummaryRetry = 0;
+    private volatile long drains = 0;
+    private final AtomicInteger uploaded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile int summariesUploaded = 0;
+    private volatile long lastDrainCount = 0;
+    private volatile long lastDrainMillis = 0;
+
+    /**
+     * Constructor for SyncEngine, for gateways that don't aggregate measurements
+     * @param store the MeasurementStore to drain
+     * @param maxInFlight the maximum number of batches to upload at the same time, at least 1
+     */
+    public SyncEngine(MeasurementStore store, int maxInFlight) {
+        this(store, null, maxInFlight);
+    }
+
+    /**
+     * Constructor for SyncEngine
+     * @param store the MeasurementStore to drain
+     * @param summaryStore the SummaryStore to drain before store, null if there is none
+     * @param maxInFlight the maximum number of batches to upload at the same time, at least 1
+     */
+    public SyncEngine(MeasurementStore store, SummaryStore summaryStore, int maxInFlight) {
+        this.store = store;
+        this.summaryStore = summaryStore;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.uploads = Executors.newFixedThreadPool(this.maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+    }
+
+    /**
+     * Uploads everything in the store once, blocking until all batches are done
+     * @param uploader the MeasurementUploader to upload the batches with
+     * @param batchSize the maximum number of measurements per batch
+     * @param listener the Listener to report the progress to, may be null
+     * @return the outcome of the drain, including when to drain again
+     */
+    public DrainResult drain(final MeasurementUploader uploader, int batchSize,
+                             final Listener listener) {
+        final AtomicInteger drainFailures = new AtomicInteger();
+        long start = elapsedMillis();
+        int drained = 0;
+        long afterId = 0;
+
+        drains++;
+
+        int summaryFailures = 0;
+
+        if (summaryStore != null && elapsedMillis() >= nextSummaryRetry) {
+            summaryFailures = drainSummaries(uploader, Math.max(batchSize, 1));
+
+            if (summaryFailures > 0) {
+                nextSummaryRetry = elapsedMillis() + backoff(++consecutiveSummaryFailures);
+            } else {
+                consecutiveSummaryFailures = 0;
+                nextSummaryRetry = 0;
+            }
+        }
+
+        while (true) {
+            final MeasurementBatch batch = store.peek(afterId, Math.max(batchSize, 1));
+
+            if (batch.size() == 0) {
+                break;
+            }
+
+            afterId = batch.getLastId();
+            drained += batch.size();
+            inFlight.acquireUninterruptibly();
+
+            uploads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        upload(uploader, batch, drainFailures, listener);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        }
+
+        // Waits for the batches that are still in flight
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+
+        lastDrainCount = drained;
+        lastDrainMillis = elapsedMillis() - start;
+
+        long depth = store.getDepth() + (summaryStore != null ? summaryStore.getDepth() : 0);
+        GatewayLog.v(TAG, "Drained " + drained + " measurements in " + lastDrainMillis + " ms, " +
+                drainFailures.get() + " failed, " + summaryFailures + " summaries failed, " +
+                depth + " left");
+        BackendClient.getInstance().logStatistics();
+
+        // The summaries that wait for their retry are drained when it is due, or earlier if the
+        // measurements are drained earlier
+        long summaryDelay = nextSummaryRetry > 0 ?
+                Math.max(nextSummaryRetry - elapsedMillis(), 0) : DrainResult.IDLE;
+
+        if (drainFailures.get() > 0) {
+            long delay = backoff(++consecutiveFailures);
+            nextRetry = elapsedMillis() + delay;
+            return new DrainResult(drained, drainFailures.get(), depth,
+                    summaryDelay != DrainResult.IDLE ? Math.min(delay, summaryDelay) : delay);
+        }
+
+        consecutiveFailures = 0;
+        nextRetry = 0;
+
+        // Measurements that arrived during the drain are drained right away
+        return new DrainResult(drained, 0, depth, depth > 0 && drained > 0 ? 0 : summaryDelay);
+    }
+
+    /**
+     * Uploads the summaries in the summary store, a batch at a time, until it is empty or a
+     * summary fails (the failed summaries would be first in the next batch again)
+     * @param uploader the MeasurementUploader to upload the batches with
+     * @param batchSize the maximum number of summaries per batch
+     * @return the number of summaries that the backend didn't acknowledge
+     */
+    private int drainSummaries(MeasurementUploader uploader, int batchSize) {
+        while (true) {
+            WindowSummary[] summaries = summaryStore.peek(batchSize);
+
+            if (summaries.length == 0) {
+                return 0;
+            }
+
+            boolean[] acknowledged = new boolean[summaries.length];
+            int created = uploader.uploadSummaries(summaries, summaries.length, acknowledged);
+
+            summaryStore.acknowledge(summaries, acknowledged);
+            summariesUploaded += created;
+
+            if (created < summaries.length) {
+                return summaries.length - created;
+            }
+        }
+    }
+
+    private void upload(MeasurementUploader uploader, MeasurementBatch batch,
+                        AtomicInteger drainFailures, Listener listener) {
+        boolean[] acknowledged = new boolean[batch.size()];
+        int created = uploader.upload(batch.getMeasurements(), batch.size(), acknowledged);
+
+        store.acknowledge(batch, acknowledged);
+
+        uploaded.addAndGet(created);
+        failed.addAndGet(batch.size() - created);
+        drainFailures.addAndGet(batch.size() - created);
+
+        if (listener != null) {
+            listener.onBatchUploaded(store.getDepth());
+        }
+    }
+
+    /**
+     * Computes the delay before the next drain, exponential in the number of consecutive failed
+     * drains and with full jitter, so that gateways that lost the backend at the same time don't
+     * all come back at the same time
+     * @param failures the number of consecutive drains with failures (of measurements or of
+     *                 summaries, which are counted apart), at least 1
+     * @return the delay in milliseconds
+     */
+    private long backoff(int failures) {
+        long cap = BACKOFF_BASE_MILLIS << Math.min(failures - 1, 20);
+        cap = Math.min(cap, BACKOFF_MAX_MILLIS);
+
+        return BACKOFF_BASE_MILLIS / 5 + (long) (random.nextDouble() * cap);
+    }
+
+    /**
+     * Getter method for uploaded
+     * @return the number of measurements that the backend has acknowledged since the engine started
+     */
+    public int getUploaded() {
+        return uploaded.get();
+    }
+
+    /**
+     * Getter method for failed
+     * @return the number of failed measurement uploads since the engine started
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Writes the engine's status: store depth, batches in flight, drain rate and backoff
+     * @param writer the PrintWriter to write to
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Sync:");
+        writer.println("  store depth: " + store.getDepth());
+
+        if (summaryStore != null) {
+            writer.println("  summaries: " + summaryStore.getDepth() + " waiting, " +
+                    summariesUploaded + " uploaded");
+        }
+
+        writer.println("  in flight: " + (maxInFlight - inFlight.availablePermits()) +
+                " of " + maxInFlight + " batches");
+        writer.println("  uploaded: " + uploaded.get() + ", failed: " + failed.get() +
+                " in " + drains + " drains");
+        writer.println("  last drain: " + lastDrainCount + " measurements in " + lastDrainMillis +
+                " ms" + (lastDrainMillis > 0 ? " (" + (lastDrainCount * 1000 / lastDrainMillis) +
+                " per second)" : ""));
+
+        if (nextRetry > 0) {
+            writer.println("  next retry in " + (nextRetry - elapsedMillis()) +
+                    " ms (" + consecutiveFailures + " consecutive failures)");
+        }
+
+        if (nextSummaryRetry > 0) {
+            writer.println("  next summary retry in " + (nextSummaryRetry - elapsedMillis()) +
+                    " ms (" + consecutiveSummaryFailures + " consecutive failures)");
+        }
+    }
+
+    /**
+     * Stops the upload threads, once the batches in flight are done
+     */
+    public void shutdown() {
+        uploads.shutdown();
+    }
+
+    private static long elapsedMillis() {
+        return System.nanoTime() / 1000000;
+    }
+}
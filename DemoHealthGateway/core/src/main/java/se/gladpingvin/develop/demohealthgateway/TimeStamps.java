@@ -0,0 +1,242 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.TimeZone;
+
+/**
+ * Helper class for timestamps, which are carried through the application as primitive epoch
+ * milliseconds. Conversion to and from the local calendar fields is done arithmetically, so none
+ * of the methods create Calendar objects, and the formatters only allocate the String they return
+ * (or nothing at all, when appending to a StringBuilder). All conversions use the time zone that
+ * was the default one when the class was loaded.
+ */
+public final class TimeStamps {
+    private static final TimeZone ZONE = TimeZone.getDefault();
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    public static final int YEAR = 0;
+    public static final int MONTH = 1;
+    public static final int DAY_OF_MONTH = 2;
+    public static final int HOUR_OF_DAY = 3;
+    public static final int MINUTE = 4;
+    public static final int SECOND = 5;
+    public static final int FIELD_COUNT = 6;
+
+    private TimeStamps() {
+
+    }
+
+    /**
+     * Converts local calendar fields into epoch milliseconds. Fields outside of their normal range
+     * roll over into the next field, like in a lenient GregorianCalendar (e.g. February 31st is
+     * March 2nd or 3rd).
+     * @param year the year
+     * @param month the month, one-based (1 = January)
+     * @param day the day of the month
+     * @param hour the hour of the day
+     * @param minute the minute
+     * @param second the second
+     * @return the epoch milliseconds for the given local time
+     */
+    public static long fromLocalFields(int year, int month, int day, int hour, int minute,
+                                       int second) {
+        // Normalise the month first, so that the day arithmetic is done in a valid month
+        year += (month - 1) / 12;
+        month = (month - 1) % 12 + 1;
+        if (month < 1) {
+            month += 12;
+            year--;
+        }
+
+        long local = daysFromCivil(year, month, 1) * MILLIS_PER_DAY +
+                (day - 1) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE +
+                second * MILLIS_PER_SECOND;
+
+        int offset = ZONE.getOffset(local - ZONE.getRawOffset());
+        long millis = local - offset;
+
+        // A local time in the gap when daylight saving time starts doesn't exist, like
+        // GregorianCalendar it's interpreted with the offset from before the gap, i.e. moved forward
+        int actualOffset = ZONE.getOffset(millis);
+        return actualOffset == offset ? millis : local - actualOffset;
+    }
+
+    /**
+     * Splits epoch milliseconds into local calendar fields.
+     * @param millis the epoch milliseconds
+     * @param fields an array of at least FIELD_COUNT ints, which will be filled with the fields,
+     *               indexed by YEAR, MONTH (one-based), DAY_OF_MONTH, HOUR_OF_DAY, MINUTE and
+     *               SECOND
+     */
+    public static void toLocalFields(long millis, int[] fields) {
+        long local = millis + ZONE.getOffset(millis);
+        long days = floorDiv(local, MILLIS_PER_DAY);
+        long millisOfDay = local - days * MILLIS_PER_DAY;
+
+        civilFromDays(days, fields);
+        fields[HOUR_OF_DAY] = (int) (millisOfDay / MILLIS_PER_HOUR);
+        fields[MINUTE] = (int) (millisOfDay / MILLIS_PER_MINUTE % 60);
+        fields[SECOND] = (int) (millisOfDay / MILLIS_PER_SECOND % 60);
+    }
+
+    /**
+     * Converts epoch milliseconds into a String of the html datetime-local format
+     * (YYYY-MM-DDTHH:MM:SS)
+     * @param millis the epoch milliseconds to convert
+     * @return a String representation of millis in html datetime-local format
+     */
+    public static String toHtmlString(long millis) {
+        StringBuilder sb = new StringBuilder(19);
+        appendHtmlString(sb, millis);
+        return sb.toString();
+    }
+
+    /**
+     * Appends epoch milliseconds on the html datetime-local format (YYYY-MM-DDTHH:MM:SS) to a
+     * StringBuilder, without allocating anything but what the StringBuilder needs to grow
+     * @param sb the StringBuilder to append to
+     * @param millis the epoch milliseconds to append
+     */
+    public static void appendHtmlString(StringBuilder sb, long millis) {
+        long local = millis + ZONE.getOffset(millis);
+        long days = floorDiv(local, MILLIS_PER_DAY);
+        long millisOfDay = local - days * MILLIS_PER_DAY;
+
+        // Inlined civilFromDays, to avoid needing a fields array
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        sb.append(year).append('-');
+        appendTwoDigits(sb, month).append('-');
+        appendTwoDigits(sb, day).append('T');
+        appendTwoDigits(sb, (int) (millisOfDay / MILLIS_PER_HOUR)).append(':');
+        appendTwoDigits(sb, (int) (millisOfDay / MILLIS_PER_MINUTE % 60)).append(':');
+        appendTwoDigits(sb, (int) (millisOfDay / MILLIS_PER_SECOND % 60));
+    }
+
+    /**
+     * Converts a String of the html datetime-local format (YYYY-MM-DDTHH:MM:SS) into epoch
+     * milliseconds. Anything after the seconds (fractions or a zone designator) is ignored.
+     * @param time the String to convert
+     * @return the epoch milliseconds corresponding to time, should time not be of the correct
+     * format, the current time is returned instead
+     */
+    public static long fromHtmlString(CharSequence time) {
+        if (time == null || time.length() < 19) {
+            return System.currentTimeMillis();
+        }
+
+        int year = parseDigits(time, 0, 4);
+        int month = parseDigits(time, 5, 7);
+        int day = parseDigits(time, 8, 10);
+        int hour = parseDigits(time, 11, 13);
+        int minute = parseDigits(time, 14, 16);
+        int second = parseDigits(time, 17, 19);
+
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return System.currentTimeMillis();
+        }
+
+        return fromLocalFields(year, month, day, hour, minute, second);
+    }
+
+    /**
+     * Converts epoch milliseconds into a String representation of its time in human readable form
+     * (D/M - YYYY HH:MM:SS) where D and M can be either one or two digits, depending on their
+     * values (i.e. only hours, minutes and seconds get a leading '0' when they are smaller than 10)
+     * @param millis the epoch milliseconds to convert
+     * @return a human readable String representation of millis
+     */
+    public static String toNiceString(long millis) {
+        int[] fields = new int[FIELD_COUNT];
+        toLocalFields(millis, fields);
+
+        StringBuilder sb = new StringBuilder(20);
+        sb.append(fields[DAY_OF_MONTH]).append('/').append(fields[MONTH]).append(" - ")
+                .append(fields[YEAR]).append(' ');
+        appendTwoDigits(sb, fields[HOUR_OF_DAY]).append(':');
+        appendTwoDigits(sb, fields[MINUTE]).append(':');
+        appendTwoDigits(sb, fields[SECOND]);
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends an int representing a month, day of month, hour, minute or second as two digits,
+     * i.e. adds a 0 at the beginning, if it is between 0-9 inclusive.
+     * @param sb the StringBuilder to append to
+     * @param n the int to append
+     * @return sb
+     */
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int n) {
+        if (n < 10) {
+            sb.append('0');
+        }
+        return sb.append(n);
+    }
+
+    /**
+     * Parses the decimal digits between two indices of a CharSequence
+     * @param s the CharSequence to parse
+     * @param start the index of the first digit
+     * @param end the index after the last digit
+     * @return the parsed number, or -1 if there is a non-digit between start and end
+     */
+    private static int parseDigits(CharSequence s, int start, int end) {
+        int n = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+
+        return n;
+    }
+
+    /**
+     * Number of days since 1970-01-01 for a date in the proleptic Gregorian calendar, using Howard
+     * Hinnant's days_from_civil algorithm
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Inverse of daysFromCivil, fills in the YEAR, MONTH and DAY_OF_MONTH fields
+     */
+    private static void civilFromDays(long days, int[] fields) {
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+
+        fields[DAY_OF_MONTH] = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        fields[MONTH] = (int) (mp < 10 ? mp + 3 : mp - 9);
+        fields[YEAR] = (int) (yearOfEra + era * 400 + (fields[MONTH] <= 2 ? 1 : 0));
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+}
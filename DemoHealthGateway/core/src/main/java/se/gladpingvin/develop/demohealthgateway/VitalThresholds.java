@@ -0,0 +1,71 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+/**
+ * The limits outside of which a patient's pulse oximetry readings are out of the ordinary, i.e.
+ * a blood oxygen saturation below minSaturation or a heart rate outside of minHeartRate to
+ * maxHeartRate. Values that a measurement doesn't have (negative ones) never breach a limit.
+ */
+public class VitalThresholds {
+    /**
+     * The limits used for patients that haven't been given limits of their own
+     */
+    public static final VitalThresholds DEFAULT = new VitalThresholds(90, 40, 130);
+
+    private final float minSaturation;
+    private final float minHeartRate;
+    private final float maxHeartRate;
+
+    /**
+     * Constructor for VitalThresholds
+     * @param minSaturation the lowest blood oxygen saturation that is within the limits, in %
+     * @param minHeartRate the lowest heart rate that is within the limits, in bpm
+     * @param maxHeartRate the highest heart rate that is within the limits, in bpm
+     */
+    public VitalThresholds(float minSaturation, float minHeartRate, float maxHeartRate) {
+        this.minSaturation = minSaturation;
+        this.minHeartRate = minHeartRate;
+        this.maxHeartRate = maxHeartRate;
+    }
+
+    /**
+     * Getter method for minSaturation
+     * @return the lowest blood oxygen saturation that is within the limits, in %
+     */
+    public float getMinSaturation() {
+        return minSaturation;
+    }
+
+    /**
+     * Getter method for minHeartRate
+     * @return the lowest heart rate that is within the limits, in bpm
+     */
+    public float getMinHeartRate() {
+        return minHeartRate;
+    }
+
+    /**
+     * Getter method for maxHeartRate
+     * @return the highest heart rate that is within the limits, in bpm
+     */
+    public float getMaxHeartRate() {
+        return maxHeartRate;
+    }
+
+    /**
+     * Tells whether a measurement is outside of the limits
+     * @param measurement the PulseOximetryMeasurement to check
+     * @return true if its saturation or heart rate breaches a limit, otherwise false
+     */
+    public boolean isBreachedBy(PulseOximetryMeasurement measurement) {
+        float saturation = measurement.getBloodOxygenSaturation();
+        float heartRate = measurement.getHeartRate();
+
+        return (saturation >= 0 && saturation < minSaturation) ||
+                (heartRate >= 0 && (heartRate < minHeartRate || heartRate > maxHeartRate));
+    }
+
+    @Override
+    public String toString() {
+        return "SpO2 >= " + minSaturation + ", " + minHeartRate + " <= HR <= " + maxHeartRate;
+    }
+}
@@ -0,0 +1,165 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.util.Arrays;
+
+/**
+ * A stretch of a captured waveform (e.g. a plethysmogram), stored compressed instead of as one row
+ * per sample. The samples are quantized to a fixed resolution, and the differences between
+ * consecutive quantized samples are stored as zigzag varints. Waveforms change little from one
+ * sample to the next, so most samples take a single byte instead of the four of a float.
+ */
+public class WaveformBlock {
+    private final String patient;
+    private final int metricId;
+    private final long startMillis;
+    private final int samplePeriod;
+    private final int sampleCount;
+    private final float resolution;
+    private final byte[] data;
+
+    /**
+     * Constructor for WaveformBlock, for blocks that are already compressed (e.g. read from a
+     * database). Use encode to compress samples.
+     * @param patient the identifier of the patient whose waveform it is
+     * @param metricId the IEEE 11073 metric id of the waveform
+     * @param startMillis the time of the first sample, in milliseconds since the epoch
+     * @param samplePeriod the time between two samples, in 1/8 ms
+     * @param sampleCount the number of samples in the block
+     * @param resolution the resolution that the samples were quantized to
+     * @param data the compressed samples
+     */
+    public WaveformBlock(String patient, int metricId, long startMillis, int samplePeriod,
+                         int sampleCount, float resolution, byte[] data) {
+        this.patient = patient;
+        this.metricId = metricId;
+        this.startMillis = startMillis;
+        this.samplePeriod = samplePeriod;
+        this.sampleCount = sampleCount;
+        this.resolution = resolution;
+        this.data = data;
+    }
+
+    /**
+     * Compresses samples into a block
+     * @param patient the identifier of the patient whose waveform it is
+     * @param metricId the IEEE 11073 metric id of the waveform
+     * @param startMillis the time of the first sample, in milliseconds since the epoch
+     * @param samplePeriod the time between two samples, in 1/8 ms
+     * @param samples the array holding the samples
+     * @param count the number of samples to compress, i.e. how many of the first samples
+     * @param resolution the resolution to quantize the samples to, e.g. 0.01f
+     * @return the block
+     */
+    public static WaveformBlock encode(String patient, int metricId, long startMillis,
+                                       int samplePeriod, float[] samples, int count,
+                                       float resolution) {
+        // A varint of an int takes at most five bytes
+        byte[] buffer = new byte[count * 5];
+        int length = 0;
+        int previous = 0;
+
+        for (int i = 0; i < count; i++) {
+            int quantized = Math.round(samples[i] / resolution);
+            int delta = quantized - previous;
+            int zigzag = (delta << 1) ^ (delta >> 31);
+            previous = quantized;
+
+            while ((zigzag & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[length++] = (byte) zigzag;
+        }
+
+        return new WaveformBlock(patient, metricId, startMillis, samplePeriod, count, resolution,
+                Arrays.copyOf(buffer, length));
+    }
+
+    /**
+     * Decompresses the samples of the block
+     * @return the samples, quantized to the block's resolution
+     * @throws IllegalArgumentException if the compressed data is corrupt
+     */
+    public float[] decode() {
+        float[] samples = new float[sampleCount];
+        int position = 0;
+        int previous = 0;
+
+        for (int i = 0; i < sampleCount; i++) {
+            int zigzag = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+                if (position == data.length || shift > 28) {
+                    throw new IllegalArgumentException("Corrupt waveform block at sample " + i);
+                }
+
+                b = data[position++];
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            samples[i] = previous * resolution;
+        }
+
+        return samples;
+    }
+
+    /**
+     * Getter method for patient
+     * @return the identifier of the patient whose waveform it is
+     */
+    public String getPatient() {
+        return patient;
+    }
+
+    /**
+     * Getter method for metricId
+     * @return the IEEE 11073 metric id of the waveform
+     */
+    public int getMetricId() {
+        return metricId;
+    }
+
+    /**
+     * Getter method for startMillis
+     * @return the time of the first sample, in milliseconds since the epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Getter method for samplePeriod
+     * @return the time between two samples, in 1/8 ms
+     */
+    public int getSamplePeriod() {
+        return samplePeriod;
+    }
+
+    /**
+     * Getter method for sampleCount
+     * @return the number of samples in the block
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Getter method for resolution
+     * @return the resolution that the samples were quantized to
+     */
+    public float getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Getter method for data
+     * @return the compressed samples
+     */
+    public byte[] getData() {
+        return data;
+    }
+}
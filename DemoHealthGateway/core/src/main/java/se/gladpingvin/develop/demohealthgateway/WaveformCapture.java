@@ -0,0 +1,203 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+/**
+ * Captures one waveform of one device, e.g. the plethysmogram of a pulse oximeter. The samples go
+ * into a ring buffer of the latest raw samples, and are decimated on the fly twice: into a ring
+ * buffer for display, and into a block that is compressed and handed to a WaveformStore whenever
+ * it is full. All arrays are allocated when the capture is created, so capturing doesn't allocate
+ * anything but the compressed blocks.
+ *
+ * write and flush must be called on one thread at a time (IngestionPipeline calls them on the
+ * device's pipeline), the ring buffers can be read from any thread.
+ */
+public class WaveformCapture {
+    private static final String TAG = "WaveformCapture";
+
+    // 1024 raw samples are 13.6 s at the 75 Hz of a typical pleth
+    public static final int DEFAULT_RAW_CAPACITY = 1024;
+    public static final int DEFAULT_DISPLAY_CAPACITY = 256;
+    public static final int DEFAULT_DISPLAY_FACTOR = 3;
+    public static final int DEFAULT_STORAGE_FACTOR = 2;
+    public static final int DEFAULT_BLOCK_SIZE = 1500;
+    public static final float DEFAULT_RESOLUTION = 0.01f;
+
+    private final String device;
+    private final int metricId;
+    private final WaveformStore store;
+    private final float resolution;
+
+    private final FloatRingBuffer raw;
+    private final FloatRingBuffer display;
+    private final Decimator displayDecimator;
+    private final Decimator storageDecimator;
+    private final float[] decimated;
+    private final float[] block;
+
+    private String patient = null;
+    private int samplePeriod = 0;
+    private int blockCount = 0;
+    private long blockStartMillis = -1;
+    private volatile long storedBlocks = 0;
+
+    /**
+     * Constructor for WaveformCapture with the default sizes, decimation factors and resolution
+     * @param device the device whose waveform it is
+     * @param metricId the IEEE 11073 metric id of the waveform
+     * @param store the WaveformStore for the compressed blocks, null to only keep the ring buffers
+     */
+    public WaveformCapture(String device, int metricId, WaveformStore store) {
+        this(device, metricId, store, DEFAULT_RAW_CAPACITY, DEFAULT_DISPLAY_CAPACITY,
+                DEFAULT_DISPLAY_FACTOR, DEFAULT_STORAGE_FACTOR, DEFAULT_BLOCK_SIZE,
+                DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * Constructor for WaveformCapture
+     * @param device the device whose waveform it is
+     * @param metricId the IEEE 11073 metric id of the waveform
+     * @param store the WaveformStore for the compressed blocks, null to only keep the ring buffers
+     * @param rawCapacity the number of raw samples to keep
+     * @param displayCapacity the number of decimated samples to keep for display
+     * @param displayFactor the decimation factor for display
+     * @param storageFactor the decimation factor for storage
+     * @param blockSize the number of decimated samples per stored block
+     * @param resolution the resolution that the stored samples are quantized to
+     */
+    public WaveformCapture(String device, int metricId, WaveformStore store, int rawCapacity,
+                           int displayCapacity, int displayFactor, int storageFactor,
+                           int blockSize, float resolution) {
+        this.device = device;
+        this.metricId = metricId;
+        this.store = store;
+        this.resolution = resolution;
+
+        raw = new FloatRingBuffer(rawCapacity);
+        display = new FloatRingBuffer(displayCapacity);
+        displayDecimator = new Decimator(displayFactor);
+        storageDecimator = new Decimator(storageFactor);
+        block = new float[Math.max(blockSize, 1)];
+        // Big enough for the largest chunk that write hands to the decimators, see write
+        decimated = new float[block.length];
+    }
+
+    /**
+     * Captures the latest samples of the waveform
+     * @param samples the samples, oldest first
+     * @param samplePeriod the time between two samples, in 1/8 ms
+     * @param receivedMillis when the samples were received, in milliseconds since the epoch
+     * @param patient the identifier of the patient whose waveform it is
+     */
+    public void write(float[] samples, int samplePeriod, long receivedMillis, String patient) {
+        if (samplePeriod != this.samplePeriod || (this.patient != null &&
+                !this.patient.equals(patient))) {
+            // A block only has one sample rate and one patient
+            flush();
+            blockStartMillis = -1;
+            displayDecimator.reset();
+            storageDecimator.reset();
+            this.samplePeriod = samplePeriod;
+        }
+        this.patient = patient;
+
+        raw.write(samples, 0, samples.length);
+
+        if (blockStartMillis < 0) {
+            // The samples were taken during the sample periods before they were received
+            blockStartMillis = receivedMillis - (samples.length + storageDecimator.getPending()) *
+                    (long) samplePeriod / 8;
+        }
+
+        // In chunks that can't produce more decimated samples than fit in the arrays
+        for (int offset = 0; offset < samples.length; offset += decimated.length) {
+            int count = Math.min(decimated.length, samples.length - offset);
+
+            int produced = displayDecimator.decimate(samples, offset, count, decimated);
+            display.write(decimated, 0, produced);
+
+            produced = storageDecimator.decimate(samples, offset, count, decimated);
+            appendToBlock(decimated, produced);
+        }
+    }
+
+    /**
+     * Stores the samples of the current block, even if it isn't full, e.g. when the device has
+     * disconnected
+     */
+    public void flush() {
+        if (blockCount == 0) {
+            return;
+        }
+
+        int period = samplePeriod * storageDecimator.getFactor();
+
+        if (store != null) {
+            if (store.store(WaveformBlock.encode(patient, metricId, blockStartMillis, period,
+                    block, blockCount, resolution))) {
+                storedBlocks++;
+            } else {
+                GatewayLog.e(TAG, "Waveform block from " + device + " couldn't be stored.");
+            }
+        }
+
+        // The next block continues where this one ended
+        blockStartMillis += blockCount * (long) period / 8;
+        blockCount = 0;
+    }
+
+    /**
+     * Copies the latest samples decimated for display, oldest first, into an array
+     * @param destination the array to copy the samples into
+     * @return the number of samples copied
+     */
+    public int readDisplay(float[] destination) {
+        return display.readLatest(destination);
+    }
+
+    /**
+     * Copies the latest raw samples, oldest first, into an array
+     * @param destination the array to copy the samples into
+     * @return the number of samples copied
+     */
+    public int readRaw(float[] destination) {
+        return raw.readLatest(destination);
+    }
+
+    /**
+     * Getter method for metricId
+     * @return the IEEE 11073 metric id of the waveform
+     */
+    public int getMetricId() {
+        return metricId;
+    }
+
+    /**
+     * Getter method for the number of captured samples
+     * @return the number of raw samples that have been captured
+     */
+    public long getSampleCount() {
+        return raw.getWritten();
+    }
+
+    /**
+     * Getter method for storedBlocks
+     * @return the number of blocks that have been stored
+     */
+    public long getStoredBlocks() {
+        return storedBlocks;
+    }
+
+    private void appendToBlock(float[] samples, int count) {
+        int offset = 0;
+
+        while (offset < count) {
+            int copied = Math.min(count - offset, block.length - blockCount);
+            System.arraycopy(samples, offset, block, blockCount, copied);
+            blockCount += copied;
+            offset += copied;
+
+            if (blockCount == block.length) {
+                flush();
+            }
+        }
+    }
+}
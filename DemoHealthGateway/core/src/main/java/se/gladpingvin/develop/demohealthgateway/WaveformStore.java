@@ -0,0 +1,14 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+/**
+ * Storage for the compressed blocks of captured waveforms. On Android the blocks are kept in the
+ * application's database (WaveformRepository).
+ */
+public interface WaveformStore {
+    /**
+     * Stores a block
+     * @param block the WaveformBlock to store
+     * @return true if the block was stored, false if it couldn't be written
+     */
+    boolean store(WaveformBlock block);
+}
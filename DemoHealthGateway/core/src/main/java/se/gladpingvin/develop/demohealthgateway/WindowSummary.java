@@ -0,0 +1,177 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.UnsupportedEncodingException;
+import java.util.UUID;
+
+/**
+ * The summary of the pulse oximetry readings that one device took of a patient during a time
+ * window: how many readings there were and the minimum, maximum and mean of their saturation and
+ * heart rate. A vital that none of the readings had is summarised as -1.
+ *
+ * The client id is derived from the patient, the device and the window, so the backend keeps one
+ * summary per window and device: a summary that is uploaded again is only stored once, and a
+ * window that is summarised again with more readings (e.g. after a flush) replaces the summary
+ * that the backend has.
+ */
+public class WindowSummary {
+    private final String patient;
+    private final String device;
+    private final long windowStart;
+    private final long windowMillis;
+    private final int count;
+    private final float minSaturation;
+    private final float maxSaturation;
+    private final float meanSaturation;
+    private final float minHeartRate;
+    private final float maxHeartRate;
+    private final float meanHeartRate;
+    private final String clientId;
+
+    /**
+     * Constructor for WindowSummary
+     * @param patient the identifier of the patient
+     * @param device the identifier of the device that took the readings
+     * @param windowStart the start of the window, in milliseconds since the epoch
+     * @param windowMillis the length of the window in milliseconds
+     * @param count the number of readings during the window
+     * @param minSaturation the lowest saturation during the window, -1 if none
+     * @param maxSaturation the highest saturation during the window, -1 if none
+     * @param meanSaturation the mean saturation during the window, -1 if none
+     * @param minHeartRate the lowest heart rate during the window, -1 if none
+     * @param maxHeartRate the highest heart rate during the window, -1 if none
+     * @param meanHeartRate the mean heart rate during the window, -1 if none
+     */
+    public WindowSummary(String patient, String device, long windowStart, long windowMillis,
+                         int count, float minSaturation, float maxSaturation,
+                         float meanSaturation, float minHeartRate, float maxHeartRate,
+                         float meanHeartRate) {
+        this.patient = patient;
+        this.device = device;
+        this.windowStart = windowStart;
+        this.windowMillis = windowMillis;
+        this.count = count;
+        this.minSaturation = minSaturation;
+        this.maxSaturation = maxSaturation;
+        this.meanSaturation = meanSaturation;
+        this.minHeartRate = minHeartRate;
+        this.maxHeartRate = maxHeartRate;
+        this.meanHeartRate = meanHeartRate;
+        this.clientId = clientIdFor(patient, device, windowStart, windowMillis);
+    }
+
+    /**
+     * Getter method for patient
+     * @return the identifier of the patient
+     */
+    public String getPatient() {
+        return patient;
+    }
+
+    /**
+     * Getter method for device
+     * @return the identifier of the device that took the readings
+     */
+    public String getDevice() {
+        return device;
+    }
+
+    /**
+     * Getter method for windowStart
+     * @return the start of the window, in milliseconds since the epoch
+     */
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * Getter method for windowMillis
+     * @return the length of the window in milliseconds
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Getter method for count
+     * @return the number of readings during the window
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Getter method for minSaturation
+     * @return the lowest saturation during the window, -1 if none
+     */
+    public float getMinSaturation() {
+        return minSaturation;
+    }
+
+    /**
+     * Getter method for maxSaturation
+     * @return the highest saturation during the window, -1 if none
+     */
+    public float getMaxSaturation() {
+        return maxSaturation;
+    }
+
+    /**
+     * Getter method for meanSaturation
+     * @return the mean saturation during the window, -1 if none
+     */
+    public float getMeanSaturation() {
+        return meanSaturation;
+    }
+
+    /**
+     * Getter method for minHeartRate
+     * @return the lowest heart rate during the window, -1 if none
+     */
+    public float getMinHeartRate() {
+        return minHeartRate;
+    }
+
+    /**
+     * Getter method for maxHeartRate
+     * @return the highest heart rate during the window, -1 if none
+     */
+    public float getMaxHeartRate() {
+        return maxHeartRate;
+    }
+
+    /**
+     * Getter method for meanHeartRate
+     * @return the mean heart rate during the window, -1 if none
+     */
+    public float getMeanHeartRate() {
+        return meanHeartRate;
+    }
+
+    /**
+     * Getter method for clientId
+     * @return the client id of the summary, the same for every summary of the same window and
+     * device
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    @Override
+    public String toString() {
+        return patient + " (" + device + ") " + TimeStamps.toNiceString(windowStart) + " +" +
+                (windowMillis / 1000) + "s: " + count + " readings, SpO2 " + minSaturation +
+                "-" + maxSaturation + " (" + meanSaturation + "), HR " + minHeartRate + "-" +
+                maxHeartRate + " (" + meanHeartRate + ")";
+    }
+
+    private static String clientIdFor(String patient, String device, long windowStart,
+                                      long windowMillis) {
+        try {
+            return UUID.nameUUIDFromBytes((patient + "|" + device + "|" + windowStart + "|" +
+                    windowMillis).getBytes("UTF-8")).toString();
+        } catch (UnsupportedEncodingException uee) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(uee);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Helper class with static methods for the DOM representation of the xml that Antidote produces.
+ * It only depends on the Java xml APIs, so it can be used outside of Android as well.
+ */
+public class XmlHelper {
+    private static final String TAG = "XmlHelper";
+
+    /**
+     * Transforms an xml Node object into an xml String
+     * @param node the Node to transform
+     * @return the input Node as an xml String
+     */
+    public static String getXmlText(Node node) {
+        String s = null;
+        NodeList text = node.getChildNodes();
+
+        for (int l = 0; l < text.getLength(); ++l) {
+            Node txt = text.item(l);
+            if (txt.getNodeType() == Node.TEXT_NODE) {
+                if (s == null) {
+                    s = "";
+                }
+                s += txt.getNodeValue();
+            }
+        }
+
+        return s;
+    }
+
+    /**
+     * Generates an xml Document object from an xml String
+     * @param xml the String to be transformed
+     * @return the input String as a Document object
+     */
+    public static Document parseXml(String xml) {
+        Document document = null;
+
+        try {
+            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+            document = documentBuilder.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        } catch (ParserConfigurationException pce) {
+            GatewayLog.e(TAG, "Something went wrong with the xml parser's configuration: " + pce.toString());
+        } catch (SAXException se) {
+            GatewayLog.e(TAG, "XML parsing caused an exception: " + se.toString());
+        } catch (IOException ioe) {
+            GatewayLog.e(TAG, "Couldn't parse xml: " + ioe.toString());
+        }
+
+        return document;
+    }
+}
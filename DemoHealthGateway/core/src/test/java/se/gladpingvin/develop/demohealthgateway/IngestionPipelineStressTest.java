@@ -0,0 +1,158 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives many simulated oximeters through an IngestionPipeline at the same time, each from a
+ * thread of its own, and checks that every measurement ends up in the store, decoded with the
+ * right device's values and in the order that the device sent them.
+ */
+public class IngestionPipelineStressTest {
+    private static final int DEVICES = 64;
+    private static final int MEASUREMENTS_PER_DEVICE = 200;
+    private static final int PIPELINE_THREADS = 4;
+
+    @Test
+    public void manyDevicesAreIngestedConcurrentlyAndInOrder() throws Exception {
+        InMemoryMeasurementStore store = new InMemoryMeasurementStore(
+                DEVICES * MEASUREMENTS_PER_DEVICE);
+        final ConcurrentHashMap<String, List<Float>> received = new ConcurrentHashMap<>();
+        final AtomicInteger mixedUp = new AtomicInteger();
+
+        for (int device = 0; device < DEVICES; device++) {
+            received.put(device(device), new ArrayList<Float>());
+        }
+
+        final IngestionPipeline pipeline = new IngestionPipeline(store, PIPELINE_THREADS,
+                new IngestionPipeline.Listener() {
+                    @Override
+                    public void onMeasurement(String device, PulseOximetryMeasurement measurement) {
+                        // The patient is the device, so a mixed up decoder shows here
+                        if (!device.equals(measurement.getPatient())) {
+                            mixedUp.incrementAndGet();
+                        }
+
+                        // A device's measurements are never handled by two threads at once
+                        received.get(device).add(measurement.getHeartRate());
+                    }
+                });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> devices = new ArrayList<>();
+
+        for (int device = 0; device < DEVICES; device++) {
+            final int id = device;
+
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+
+                    for (int i = 0; i < MEASUREMENTS_PER_DEVICE; i++) {
+                        // Every other measurement in Antidote's flattened form
+                        if (i % 2 == 0) {
+                            pipeline.submitXml(device(id), xml(i, 90 + id % 10), device(id));
+                        } else {
+                            pipeline.submitValues(device(id), new int[]{18458, 19384},
+                                    new float[]{i, 90 + id % 10}, new String[]{"bpm", "%"},
+                                    device(id));
+                        }
+                    }
+                }
+            };
+
+            thread.start();
+            devices.add(thread);
+        }
+
+        start.countDown();
+
+        for (Thread thread : devices) {
+            thread.join();
+        }
+
+        assertEquals(DEVICES, pipeline.getDeviceCount());
+
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertEquals(0, pipeline.getFailed());
+        assertEquals(0, mixedUp.get());
+        assertEquals(DEVICES * MEASUREMENTS_PER_DEVICE, pipeline.getIngested());
+        assertEquals(DEVICES * MEASUREMENTS_PER_DEVICE, store.getDepth());
+
+        for (int device = 0; device < DEVICES; device++) {
+            List<Float> heartRates = received.get(device(device));
+            assertEquals(MEASUREMENTS_PER_DEVICE, heartRates.size());
+
+            for (int i = 0; i < MEASUREMENTS_PER_DEVICE; i++) {
+                assertEquals(i, heartRates.get(i), 0);
+            }
+        }
+
+        for (int device = 0; device < DEVICES; device++) {
+            pipeline.removeDevice(device(device));
+        }
+        assertEquals(0, pipeline.getDeviceCount());
+    }
+
+    @Test
+    public void dataSubmittedAfterShutdownIsDropped() throws Exception {
+        InMemoryMeasurementStore store = new InMemoryMeasurementStore(10);
+        IngestionPipeline pipeline = new IngestionPipeline(store, 1, null);
+
+        pipeline.submitValues(device(0), new int[]{18458}, new float[]{60}, new String[]{"bpm"},
+                device(0));
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+
+        // E.g. an agent that HealthService still calls after its activity was destroyed
+        pipeline.submitValues(device(0), new int[]{18458}, new float[]{61}, new String[]{"bpm"},
+                device(0));
+        pipeline.submitXml(device(1), xml(62, 95), device(1));
+
+        assertEquals(1, pipeline.getIngested());
+        assertEquals(2, pipeline.getDropped());
+        assertEquals(1, store.getDepth());
+    }
+
+    private static String device(int id) {
+        return "/se/gladpingvin/develop/demohealthgateway/device/" + id;
+    }
+
+    // A data list like the ones of a Nonin pulse oximeter, as encoded by Antidote
+    private static String xml(float heartRate, float saturation) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<data-list>" +
+                "<entry><meta-data><meta name=\"HANDLE\">1</meta></meta-data>" +
+                "<compound><name>Numeric</name><entries>" +
+                "<entry><meta-data><meta name=\"partition\">2</meta>" +
+                "<meta name=\"metric-id\">19384</meta><meta name=\"unit-code\">544</meta>" +
+                "<meta name=\"unit\">%</meta></meta-data>" +
+                "<simple><name>Basic-Nu-Observed-Value</name><type>float</type>" +
+                "<value>" + saturation + "</value></simple></entry>" +
+                "</entries></compound></entry>" +
+                "<entry><meta-data><meta name=\"HANDLE\">10</meta></meta-data>" +
+                "<compound><name>Numeric</name><entries>" +
+                "<entry><meta-data><meta name=\"partition\">2</meta>" +
+                "<meta name=\"metric-id\">18458</meta><meta name=\"unit-code\">2720</meta>" +
+                "<meta name=\"unit\">bpm</meta></meta-data>" +
+                "<simple><name>Basic-Nu-Observed-Value</name><type>float</type>" +
+                "<value>" + heartRate + "</value></simple></entry>" +
+                "</entries></compound></entry>" +
+                "</data-list>";
+    }
+}
@@ -0,0 +1,54 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records latencies in a LatencyHistogram and checks the percentiles and the counts above the
+ * alert target.
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void emptyHistogramHasNoPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getPercentile(50));
+        assertEquals(0, histogram.getCountAbove(AlertDispatcher.TARGET_MILLIS));
+    }
+
+    @Test
+    public void percentilesAreTheBoundsOfTheirBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // 90 fast alerts, 9 slow ones and one very slow one
+        for (int i = 0; i < 90; i++) {
+            histogram.record(40);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(250);
+        }
+        histogram.record(12000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getPercentile(50));
+        assertEquals(300, histogram.getPercentile(95));
+        assertEquals(300, histogram.getPercentile(99));
+        assertEquals(12000, histogram.getPercentile(100));
+        assertEquals(12000, histogram.getMax());
+        assertEquals(10, histogram.getCountAbove(AlertDispatcher.TARGET_MILLIS));
+    }
+
+    @Test
+    public void percentileNeverExceedsTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(120);
+        histogram.record(-5);
+
+        assertEquals(120, histogram.getPercentile(100));
+        assertEquals(5, histogram.getPercentile(50));
+        assertEquals(0, histogram.getCountAbove(AlertDispatcher.TARGET_MILLIS));
+    }
+}
@@ -0,0 +1,130 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds readings through a MeasurementAggregator and checks the window summaries it enqueues and
+ * the readings that it passes through to be uploaded as they are.
+ */
+public class MeasurementAggregatorTest {
+    private static final long MINUTE = 60 * 1000L;
+    // 2100-01-01, aligned to all window lengths and late enough that flush leaves windows open
+    private static final long HOUR = 4102444800000L;
+
+    private static PulseOximetryMeasurement reading(long timeStamp, float saturation, float rate) {
+        return new PulseOximetryMeasurement(rate, "bpm", saturation, "%", timeStamp, "P1");
+    }
+
+    private static MeasurementAggregator aggregator(InMemorySummaryStore store) {
+        return new MeasurementAggregator(store, new PatientThresholds(VitalThresholds.DEFAULT));
+    }
+
+    @Test
+    public void minuteWindowIsSummarisedWhenTheNextOneStarts() {
+        InMemorySummaryStore store = new InMemorySummaryStore(100);
+        MeasurementAggregator aggregator = aggregator(store);
+
+        assertFalse(aggregator.add("D1", reading(HOUR, 95, 60)));
+        assertFalse(aggregator.add("D1", reading(HOUR + 1000, 97, 70)));
+        assertFalse(aggregator.add("D1", reading(HOUR + 2000, 99, 80)));
+        assertEquals(0, store.getDepth());
+
+        assertFalse(aggregator.add("D1", reading(HOUR + MINUTE, 96, 65)));
+
+        WindowSummary[] summaries = store.peek(10);
+        assertEquals(1, summaries.length);
+        assertEquals(HOUR, summaries[0].getWindowStart());
+        assertEquals(MINUTE, summaries[0].getWindowMillis());
+        assertEquals(3, summaries[0].getCount());
+        assertEquals(95, summaries[0].getMinSaturation(), 0f);
+        assertEquals(99, summaries[0].getMaxSaturation(), 0f);
+        assertEquals(97, summaries[0].getMeanSaturation(), 0.001f);
+        assertEquals(60, summaries[0].getMinHeartRate(), 0f);
+        assertEquals(80, summaries[0].getMaxHeartRate(), 0f);
+        assertEquals(70, summaries[0].getMeanHeartRate(), 0.001f);
+        assertEquals(4, aggregator.getAggregated());
+    }
+
+    @Test
+    public void breachesAndDelayedReadingsPassThrough() {
+        InMemorySummaryStore store = new InMemorySummaryStore(100);
+        MeasurementAggregator aggregator = aggregator(store);
+
+        assertFalse(aggregator.add("D1", reading(HOUR + MINUTE, 96, 70)));
+        // Desaturation, still part of the summaries
+        assertTrue(aggregator.add("D1", reading(HOUR + MINUTE + 1000, 85, 70)));
+        assertTrue(aggregator.add("D1", reading(HOUR + MINUTE + 2000, 96, 150)));
+        // From before the current windows
+        assertTrue(aggregator.add("D1", reading(HOUR, 96, 70)));
+
+        assertEquals(3, aggregator.getPassedThrough());
+        assertEquals(1, aggregator.getAggregated());
+
+        assertEquals(3, aggregator.flush());
+        WindowSummary[] summaries = store.peek(10);
+        assertEquals(3, summaries.length);
+        for (WindowSummary summary : summaries) {
+            assertEquals(3, summary.getCount());
+            assertEquals(85, summary.getMinSaturation(), 0f);
+        }
+    }
+
+    @Test
+    public void closeWindowsOnlySummarisesWindowsThatAreOver() {
+        InMemorySummaryStore store = new InMemorySummaryStore(100);
+        MeasurementAggregator aggregator = aggregator(store);
+
+        aggregator.add("D1", reading(HOUR, 95, 60));
+
+        assertEquals(0, aggregator.closeWindows(HOUR + MINUTE - 1));
+        assertEquals(1, aggregator.closeWindows(HOUR + MINUTE));
+        assertEquals(1, aggregator.closeWindows(HOUR + 15 * MINUTE));
+        assertEquals(0, aggregator.closeWindows(HOUR + 15 * MINUTE));
+        assertEquals(1, aggregator.flush());
+        assertEquals(3, store.getDepth());
+    }
+
+    @Test
+    public void devicesOfTheSamePatientAreSummarisedApart() {
+        InMemorySummaryStore store = new InMemorySummaryStore(100);
+        MeasurementAggregator aggregator = aggregator(store);
+
+        aggregator.add("D1", reading(HOUR, 95, 60));
+        aggregator.add("D2", reading(HOUR + 1000, 90, 80));
+        aggregator.add("D2", reading(HOUR + 2000, 92, 82));
+        aggregator.closeWindows(HOUR + MINUTE);
+
+        WindowSummary[] summaries = store.peek(10);
+        assertEquals(2, summaries.length);
+
+        // The devices' windows are closed in no particular order
+        WindowSummary first = "D1".equals(summaries[0].getDevice()) ? summaries[0] : summaries[1];
+        WindowSummary second = first == summaries[0] ? summaries[1] : summaries[0];
+        assertEquals("D1", first.getDevice());
+        assertEquals(1, first.getCount());
+        assertEquals(95, first.getMaxSaturation(), 0f);
+        assertEquals("D2", second.getDevice());
+        assertEquals(2, second.getCount());
+        assertEquals(90, second.getMinSaturation(), 0f);
+        assertNotEquals(first.getClientId(), second.getClientId());
+    }
+
+    @Test
+    public void flushedWindowsStayOpen() {
+        InMemorySummaryStore store = new InMemorySummaryStore(100);
+        MeasurementAggregator aggregator = aggregator(store);
+
+        aggregator.add("D1", reading(HOUR, 95, 60));
+        aggregator.flush();
+        aggregator.add("D1", reading(HOUR + 1000, 97, 60));
+        aggregator.flush();
+
+        // The same three windows, now with both readings
+        WindowSummary[] summaries = store.peek(10);
+        assertEquals(3, summaries.length);
+        assertEquals(2, summaries[0].getCount());
+        assertEquals(96, summaries[0].getMeanSaturation(), 0.001f);
+    }
+}
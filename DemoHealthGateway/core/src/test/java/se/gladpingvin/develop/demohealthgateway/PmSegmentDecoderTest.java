@@ -0,0 +1,75 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes PM-segment chunks in the flattened form that Antidote hands them over in, and syncs the
+ * same history twice through an IngestionPipeline to check that it is only stored once.
+ */
+public class PmSegmentDecoderTest {
+    private static final int PULSE_RATE = 18458;
+    private static final int SATURATION = 19384;
+
+    // Three entries: a full reading, one without time and one with only a saturation
+    private static final long[] TIMES = {20151125143005L, 0, 20151125143105L};
+    private static final int[] VALUE_ENTRIES = {0, 0, 1, 1, 2};
+    private static final int[] METRIC_IDS = {PULSE_RATE, SATURATION, PULSE_RATE, SATURATION,
+            SATURATION};
+    private static final float[] VALUES = {61, 97, 62, 98, 96};
+    private static final String[] UNITS = {"bpm", "%", "bpm", "%", ""};
+
+    @Test
+    public void entriesAreDecodedWithTheirOwnTimes() {
+        List<PulseOximetryMeasurement> measurements = PmSegmentDecoder.decode(TIMES,
+                VALUE_ENTRIES, METRIC_IDS, VALUES, UNITS, "P1");
+
+        assertEquals(2, measurements.size());
+
+        PulseOximetryMeasurement first = measurements.get(0);
+        assertEquals(61f, first.getHeartRate(), 0f);
+        assertEquals(97f, first.getBloodOxygenSaturation(), 0f);
+        assertEquals("bpm", first.getHeartRateUnit());
+        assertEquals(TimeStamps.fromLocalFields(2015, 11, 25, 14, 30, 5), first.getTimeStamp());
+
+        PulseOximetryMeasurement second = measurements.get(1);
+        assertEquals(-1f, second.getHeartRate(), 0f);
+        assertEquals("unknown", second.getBloodOxygenSaturationUnit());
+        assertEquals(first.getTimeStamp() + 60000, second.getTimeStamp());
+    }
+
+    @Test
+    public void theSameReadingAlwaysGetsTheSameClientId() {
+        List<PulseOximetryMeasurement> once = PmSegmentDecoder.decode(TIMES, VALUE_ENTRIES,
+                METRIC_IDS, VALUES, UNITS, "P1");
+        List<PulseOximetryMeasurement> again = PmSegmentDecoder.decode(TIMES, VALUE_ENTRIES,
+                METRIC_IDS, VALUES, UNITS, "P1");
+        List<PulseOximetryMeasurement> otherPatient = PmSegmentDecoder.decode(TIMES,
+                VALUE_ENTRIES, METRIC_IDS, VALUES, UNITS, "P2");
+
+        assertEquals(once.get(0).getClientId(), again.get(0).getClientId());
+        assertNotEquals(once.get(0).getClientId(), once.get(1).getClientId());
+        assertNotEquals(once.get(0).getClientId(), otherPatient.get(0).getClientId());
+    }
+
+    @Test
+    public void aHistorySyncedTwiceIsStoredOnce() throws Exception {
+        InMemoryMeasurementStore store = new InMemoryMeasurementStore(100);
+        IngestionPipeline pipeline = new IngestionPipeline(store, 2, null);
+
+        for (int sync = 0; sync < 2; sync++) {
+            pipeline.submitSegment("dev", TIMES, VALUE_ENTRIES, METRIC_IDS, VALUES, UNITS, "P1");
+        }
+
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(2, store.getDepth());
+        assertEquals(2, pipeline.getHistoryIngested());
+        assertEquals(0, pipeline.getFailed());
+    }
+}
@@ -0,0 +1,116 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds a synthetic 75 Hz plethysmogram through a WaveformCapture and checks the decimated
+ * display samples and the compressed blocks that are stored.
+ */
+public class WaveformCaptureTest {
+    // 75 Hz is 106.67 1/8 ms, devices report a whole number
+    private static final int SAMPLE_PERIOD = 107;
+    private static final int SAMPLES_PER_MESSAGE = 75;
+
+    private static float pleth(int i) {
+        return (float) (50 + 40 * Math.sin(2 * Math.PI * i / 60.0) + 5 * Math.sin(i / 7.0));
+    }
+
+    @Test
+    public void blocksRoundTripWithinTheResolution() {
+        float[] samples = new float[3000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = pleth(i);
+        }
+
+        WaveformBlock block = WaveformBlock.encode("P1", 19380, 1000L, SAMPLE_PERIOD, samples,
+                samples.length, 0.01f);
+        float[] decoded = block.decode();
+
+        assertEquals(samples.length, decoded.length);
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals(samples[i], decoded[i], 0.006f);
+        }
+
+        // A smooth waveform mostly needs one or two bytes per sample instead of four
+        assertTrue(block.getData().length < samples.length * 2);
+    }
+
+    @Test
+    public void negativeAndLargeStepsRoundTrip() {
+        float[] samples = {0, -1, 1000000, -1000000, 0.5f, -0.5f, 0};
+
+        float[] decoded = WaveformBlock.encode("P1", 19380, 0, SAMPLE_PERIOD, samples,
+                samples.length, 0.5f).decode();
+
+        assertArrayEquals(samples, decoded, 0f);
+    }
+
+    @Test
+    public void captureDecimatesForDisplayAndStoresContinuousBlocks() {
+        final List<WaveformBlock> stored = new ArrayList<>();
+        WaveformCapture capture = new WaveformCapture("dev", 19380, new WaveformStore() {
+            @Override
+            public boolean store(WaveformBlock block) {
+                stored.add(block);
+                return true;
+            }
+        }, 1024, 256, 3, 2, 100, 0.01f);
+
+        float[] message = new float[SAMPLES_PER_MESSAGE];
+        int sample = 0;
+        long now = 1000000;
+
+        for (int m = 0; m < 10; m++) {
+            for (int i = 0; i < message.length; i++) {
+                message[i] = pleth(sample++);
+            }
+            now += 1000;
+            capture.write(message, SAMPLE_PERIOD, now, "P1");
+        }
+
+        assertEquals(750, capture.getSampleCount());
+
+        // 750 samples decimated by 3 are 250 display samples, the first is the mean of 0, 1, 2
+        float[] display = new float[256];
+        assertEquals(250, capture.readDisplay(display));
+        assertEquals((pleth(0) + pleth(1) + pleth(2)) / 3, display[0], 0.0001f);
+
+        // 750 samples decimated by 2 are 375 stored samples, 3 full blocks and the rest on flush
+        assertEquals(3, stored.size());
+        capture.flush();
+        assertEquals(4, stored.size());
+        assertEquals(75, stored.get(3).getSampleCount());
+
+        for (int i = 1; i < stored.size(); i++) {
+            WaveformBlock previous = stored.get(i - 1);
+            assertEquals(SAMPLE_PERIOD * 2, previous.getSamplePeriod());
+            assertEquals(previous.getStartMillis() + previous.getSampleCount() *
+                    (long) previous.getSamplePeriod() / 8, stored.get(i).getStartMillis());
+        }
+
+        float[] first = stored.get(0).decode();
+        assertEquals((pleth(0) + pleth(1)) / 2, first[0], 0.006f);
+
+        // A flushed capture has nothing left to store
+        capture.flush();
+        assertEquals(4, stored.size());
+    }
+
+    @Test
+    public void ringBufferKeepsTheLatestSamples() {
+        FloatRingBuffer ring = new FloatRingBuffer(4);
+        ring.write(new float[]{1, 2, 3}, 0, 3);
+        ring.write(new float[]{4, 5, 6, 7, 8, 9}, 1, 4);
+
+        float[] latest = new float[8];
+        assertEquals(4, ring.readLatest(latest));
+        assertArrayEquals(new float[]{5, 6, 7, 8}, Arrays.copyOf(latest, 4), 0f);
+        assertEquals(7, ring.getWritten());
+    }
+}
@@ -0,0 +1,143 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs libantidote's gateway manager (ieee_gateway_manager, built from antidote/src/
+ * gateway_manager.c) as a child process and hands the measurement data that it reports to a
+ * Listener. The manager talks to the agents through libantidote's TCP or FIFO communication plugin
+ * and writes every data list as one line on its stdout: the connection id, a tab and the data-list
+ * XML, the same XML that the Android gateway gets through JNI. A manager serves one agent at a time,
+ * so runAll runs one per TCP port to serve several agents at once.
+ */
+public class AntidoteManagerProcess {
+    private static final String TAG = "AntidoteManager";
+
+    /**
+     * Receives the data that the manager reports
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that runs the process for every data list from an agent, so from
+         * several threads at once when the managers are run with runAll
+         * @param connectionId the id of the agent's connection
+         * @param xml the data-list XML
+         */
+        void onData(String connectionId, String xml);
+    }
+
+    private final List<String> command;
+    private Process process = null;
+    private boolean stopped = false;
+
+    /**
+     * Constructor for AntidoteManagerProcess
+     * @param command the manager executable followed by its options, e.g. --tcp 6024 or --fifo
+     */
+    public AntidoteManagerProcess(List<String> command) {
+        this.command = command;
+    }
+
+    /**
+     * Starts the manager and reads its output until the manager exits or stop is called
+     * @param listener the Listener to hand the data to
+     * @return the exit value of the manager
+     * @throws IOException if the manager couldn't be started or its output couldn't be read
+     * @throws InterruptedException if interrupted while waiting for the manager to exit
+     */
+    public int run(Listener listener) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        Process started;
+        synchronized (this) {
+            if (stopped) {
+                return 0;
+            }
+
+            started = process = builder.start();
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                started.getInputStream(), "UTF-8"));
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+
+                if (tab < 0) {
+                    GatewayLog.w(TAG, "Ignoring unexpected output: " + line);
+                    continue;
+                }
+
+                listener.onData(line.substring(0, tab), line.substring(tab + 1));
+            }
+        } finally {
+            reader.close();
+        }
+
+        return started.waitFor();
+    }
+
+    /**
+     * Stops the manager, which makes run return
+     */
+    public synchronized void stop() {
+        stopped = true;
+
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Runs the managers at the same time, each on its own thread, until one of them exits or
+     * fails, and then stops the others
+     * @param processes the managers to run
+     * @param listener the Listener to hand the data of all the managers to
+     * @return the exit value of the manager that exited first
+     * @throws IOException if a manager couldn't be started or its output couldn't be read
+     * @throws InterruptedException if interrupted while waiting for the managers
+     */
+    public static int runAll(List<AntidoteManagerProcess> processes, final Listener listener)
+            throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(processes.size());
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+
+        for (final AntidoteManagerProcess process : processes) {
+            completion.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return process.run(listener);
+                }
+            });
+        }
+
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        } finally {
+            for (AntidoteManagerProcess process : processes) {
+                process.stop();
+            }
+
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point of the headless gateway, for Linux boxes without Android. It runs libantidote's
+ * gateway manager with the TCP or FIFO communication plugin, decodes the measurements that the
+ * agents send in an IngestionPipeline per agent and uploads them to the backend with the same
+ * SyncEngine as the Android app, from an InMemoryMeasurementStore. With --aggregate it streams,
+ * uploading window summaries and the readings outside of the default thresholds only.
+ *
+ * A manager serves one agent at a time, so with TCP the gateway runs --agents managers, on PORT and
+ * the ports after it, to serve that many agents at once. With FIFO there is a single agent.
+ *
+ * Usage: HeadlessGateway --backend URL [--manager PATH] [--tcp [PORT] | --fifo] [--agents N]
+ * [--patient ID] [--batch-size N] [--capacity N] [--aggregate]
+ */
+public class HeadlessGateway {
+    private static final String TAG = "HeadlessGateway";
+
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final int PIPELINE_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int DEFAULT_CAPACITY = 100000;
+    private static final int DEFAULT_PORT = 6024;
+    private static final int DEFAULT_AGENTS = 4;
+    private static final long STATUS_INTERVAL_MINUTES = 5;
+    private static final long WINDOW_CHECK_MINUTES = 1;
+
+    private final String backendUrl;
+    private final String patient;
+    private final int batchSize;
+    private final InMemoryMeasurementStore store;
+    private final InMemorySummaryStore summaryStore;
+    private final SyncEngine engine;
+    private final IngestionPipeline pipeline;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> nextDrain = null;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Constructor for HeadlessGateway
+     * @param backendUrl the url of the backend web service
+     * @param patient the identifier of the patient, null to use the agent's connection id
+     * @param batchSize the upload batch size, 1 to upload every measurement on its own
+     * @param capacity the maximum number of measurements to keep while the backend is unreachable
+     * @param aggregate true to upload window summaries instead of every measurement
+     */
+    public HeadlessGateway(String backendUrl, String patient, int batchSize, int capacity,
+                           boolean aggregate) {
+        this.backendUrl = backendUrl;
+        this.patient = patient;
+        this.batchSize = Math.max(batchSize, 1);
+        this.store = new InMemoryMeasurementStore(capacity);
+        this.summaryStore = new InMemorySummaryStore(capacity);
+        this.engine = new SyncEngine(store, summaryStore, MAX_IN_FLIGHT);
+        this.pipeline = new IngestionPipeline(store, PIPELINE_THREADS,
+                new IngestionPipeline.Listener() {
+                    @Override
+                    public void onMeasurement(String device,
+                                              PulseOximetryMeasurement measurement) {
+                        requestSync();
+                    }
+                });
+
+        if (aggregate) {
+            pipeline.setAggregator(new MeasurementAggregator(summaryStore,
+                    new PatientThresholds(VitalThresholds.DEFAULT)));
+        }
+    }
+
+    /**
+     * Hands a data list from an agent to the agent's pipeline, which queues the measurement for
+     * upload
+     * @param connectionId the id of the agent's connection
+     * @param xml the data-list XML
+     */
+    public void onData(String connectionId, String xml) {
+        pipeline.submitXml(connectionId, xml, patient != null ? patient : connectionId);
+    }
+
+    /**
+     * Makes the gateway drain the store right away, without waiting for any ongoing backoff
+     */
+    public void requestSync() {
+        scheduleDrain(0);
+    }
+
+    private synchronized void scheduleDrain(long delayMillis) {
+        if (nextDrain != null) {
+            nextDrain.cancel(false);
+        }
+
+        nextDrain = scheduler.schedule(drain, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void drain() {
+        SyncEngine.DrainResult result = engine.drain(new MeasurementUploader(backendUrl,
+                batchSize), batchSize, null);
+
+        if (result.getNextDrainDelay() != SyncEngine.DrainResult.IDLE) {
+            scheduleDrain(result.getNextDrainDelay());
+        }
+    }
+
+    /**
+     * Writes the sync status to stdout
+     */
+    public void dump() {
+        PrintWriter writer = new PrintWriter(System.out);
+        engine.dump(writer);
+        writer.println("  dropped: " + store.getDropped() + ", summaries dropped: " +
+                summaryStore.getDropped());
+        writer.println("Ingestion:");
+        writer.println("  devices: " + pipeline.getDeviceCount() + ", ingested: " +
+                pipeline.getIngested() + ", failed: " + pipeline.getFailed());
+        if (pipeline.getAggregator() != null) {
+            writer.println("  aggregated: " + pipeline.getAggregated() + ", summaries: " +
+                    pipeline.getAggregator().getSummarised());
+        }
+        writer.flush();
+    }
+
+    /**
+     * Stops syncing, measurements still in the store and open windows are lost
+     */
+    public void shutdown() {
+        pipeline.shutdown();
+        scheduler.shutdownNow();
+        engine.shutdown();
+    }
+
+    private void startStatusReports() {
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                dump();
+            }
+        }, STATUS_INTERVAL_MINUTES, STATUS_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private void startClosingWindows() {
+        if (pipeline.getAggregator() == null) {
+            return;
+        }
+
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (pipeline.getAggregator().closeWindows(System.currentTimeMillis()) > 0) {
+                    requestSync();
+                }
+            }
+        }, WINDOW_CHECK_MINUTES, WINDOW_CHECK_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String backendUrl = null;
+        String manager = "ieee_gateway_manager";
+        boolean fifo = false;
+        int port = DEFAULT_PORT;
+        int agents = DEFAULT_AGENTS;
+        String patient = null;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        int capacity = DEFAULT_CAPACITY;
+        boolean aggregate = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--backend":
+                    backendUrl = args[++i];
+                    break;
+                case "--manager":
+                    manager = args[++i];
+                    break;
+                case "--tcp":
+                    fifo = false;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                        port = Integer.parseInt(args[++i]);
+                    }
+                    break;
+                case "--fifo":
+                    fifo = true;
+                    break;
+                case "--agents":
+                    agents = Integer.parseInt(args[++i]);
+                    break;
+                case "--patient":
+                    patient = args[++i];
+                    break;
+                case "--batch-size":
+                    batchSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--capacity":
+                    capacity = Integer.parseInt(args[++i]);
+                    break;
+                case "--aggregate":
+                    aggregate = true;
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        if (backendUrl == null || agents < 1 || (fifo && agents > 1)) {
+            System.err.println("Usage: HeadlessGateway --backend URL [--manager PATH] " +
+                    "[--tcp [PORT] | --fifo] [--agents N] [--patient ID] [--batch-size N] " +
+                    "[--capacity N] [--aggregate]");
+            System.exit(1);
+        }
+
+        final List<AntidoteManagerProcess> processes = new ArrayList<>();
+
+        if (fifo) {
+            processes.add(new AntidoteManagerProcess(Arrays.asList(manager, "--fifo")));
+        } else {
+            for (int i = 0; i < agents; i++) {
+                processes.add(new AntidoteManagerProcess(Arrays.asList(manager, "--tcp",
+                        Integer.toString(port + i))));
+            }
+        }
+
+        final HeadlessGateway gateway = new HeadlessGateway(backendUrl, patient, batchSize,
+                capacity, aggregate);
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                for (AntidoteManagerProcess process : processes) {
+                    process.stop();
+                }
+                gateway.dump();
+                gateway.shutdown();
+            }
+        });
+
+        gateway.startStatusReports();
+        gateway.startClosingWindows();
+
+        int exitValue = AntidoteManagerProcess.runAll(processes,
+                new AntidoteManagerProcess.Listener() {
+                    @Override
+                    public void onData(String connectionId, String xml) {
+                        gateway.onData(connectionId, xml);
+                    }
+                });
+
+        GatewayLog.e(TAG, "Manager exited with " + exitValue);
+        System.exit(exitValue == 0 ? 1 : exitValue);
+    }
+}
@@ -0,0 +1,98 @@
+package se.gladpingvin.develop.demohealthgateway;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs stand-in managers, shell scripts that behave like ieee_gateway_manager with an agent
+ * connected to it, through AntidoteManagerProcess.runAll. Every stand-in waits for the other one to
+ * have an agent before it reports its data, so the data only arrives if the agents are served at
+ * the same time.
+ */
+public class AntidoteManagerProcessTest {
+    private static final String MANAGER_SCRIPT =
+            "#!/bin/sh\n" +
+            // The agent on port $2 connects
+            "echo \"$2\" >> \"$0.agents\"\n" +
+            "i=0\n" +
+            "while [ \"$(wc -l < \"$0.agents\")\" -lt 2 ] && [ $i -lt 100 ]; do\n" +
+            "  sleep 0.1\n" +
+            "  i=$((i + 1))\n" +
+            "done\n" +
+            "printf '%s\\t<data-list/>\\n' \"$2\"\n" +
+            // Stays connected, like an agent that keeps measuring
+            "exec sleep 60\n";
+
+    @Test
+    public void twoAgentsAreServedAtTheSameTime() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+
+        File script = File.createTempFile("manager", ".sh");
+        File agents = new File(script.getPath() + ".agents");
+        script.deleteOnExit();
+        agents.deleteOnExit();
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(script), "UTF-8")) {
+            writer.write(MANAGER_SCRIPT);
+        }
+
+        assertTrue(script.setExecutable(true));
+
+        final List<AntidoteManagerProcess> processes = Arrays.asList(
+                new AntidoteManagerProcess(Arrays.asList(script.getPath(), "--tcp", "6024")),
+                new AntidoteManagerProcess(Arrays.asList(script.getPath(), "--tcp", "6025")));
+        final Set<String> connections = Collections.synchronizedSet(new HashSet<String>());
+        final List<String> data = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch reported = new CountDownLatch(2);
+
+        Thread runner = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    AntidoteManagerProcess.runAll(processes,
+                            new AntidoteManagerProcess.Listener() {
+                                @Override
+                                public void onData(String connectionId, String xml) {
+                                    connections.add(connectionId);
+                                    data.add(xml);
+                                    reported.countDown();
+                                }
+                            });
+                } catch (Exception e) {
+                    // Shows as missing data
+                }
+            }
+        };
+        runner.start();
+
+        try {
+            // Served one after the other, the first agent would only report after 10 s
+            assertTrue(reported.await(5, TimeUnit.SECONDS));
+            assertEquals(new HashSet<>(Arrays.asList("6024", "6025")), connections);
+            assertEquals(Arrays.asList("<data-list/>", "<data-list/>"), data);
+        } finally {
+            for (AntidoteManagerProcess process : processes) {
+                process.stop();
+            }
+
+            runner.join(5000);
+        }
+
+        assertFalse(runner.isAlive());
+    }
+}
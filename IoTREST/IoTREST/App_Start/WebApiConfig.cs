@@ -1,5 +1,7 @@
-﻿using IoTREST.Models;
+﻿using IoTREST.Handlers;
+using IoTREST.Models;
 using System.Web.Http;
+using System.Web.Http.OData.Batch;
 using System.Web.Http.OData.Builder;
 using System.Web.Http.OData.Extensions;
 
@@ -9,9 +11,16 @@ namespace IoTREST
     {
         public static void Register(HttpConfiguration config)
         {
+            config.MessageHandlers.Add(new GzipHandler());
+
             var builder = new ODataConventionModelBuilder();
             builder.EntitySet<PulseOximetryMeasurement>("PulseOximetryMeasurements");
-            config.Routes.MapODataServiceRoute("odata", "odata", builder.GetEdmModel());
+            builder.EntitySet<PulseOximetrySummary>("PulseOximetrySummaries");
+            builder.EntitySet<PulseOximetryAlert>("PulseOximetryAlerts");
+            // The batch handler serves odata/$batch, which the app uses to upload many measurements
+            // in a single request, one changeset per measurement so that each gets its own status
+            config.Routes.MapODataServiceRoute("odata", "odata", builder.GetEdmModel(),
+                new DefaultODataBatchHandler(GlobalConfiguration.DefaultServer));
         }
     }
 }
@@ -0,0 +1,60 @@
+﻿using System.Linq;
+using System.Web.Http;
+using System.Web.Http.OData;
+using IoTREST.Models;
+
+namespace IoTREST.Controllers
+{
+    public class PulseOximetryAlertsController : ODataController
+    {
+        private OximetryContext db = new OximetryContext();
+
+        // GET: odata/PulseOximetryAlerts
+        [EnableQuery]
+        public IQueryable<PulseOximetryAlert> GetPulseOximetryAlerts()
+        {
+            return db.PulseOximetryAlerts;
+        }
+
+        // GET: odata/PulseOximetryAlerts(5)
+        [EnableQuery]
+        public SingleResult<PulseOximetryAlert> GetPulseOximetryAlert([FromODataUri] int key)
+        {
+            return SingleResult.Create(db.PulseOximetryAlerts.Where(pulseOximetryAlert => pulseOximetryAlert.Id == key));
+        }
+
+        // POST: odata/PulseOximetryAlerts
+        public IHttpActionResult Post(PulseOximetryAlert pulseOximetryAlert)
+        {
+            if (!ModelState.IsValid)
+            {
+                return BadRequest(ModelState);
+            }
+
+            if (pulseOximetryAlert.ClientId != null)
+            {
+                var stored = db.PulseOximetryAlerts.FirstOrDefault(alert => alert.ClientId == pulseOximetryAlert.ClientId);
+
+                // A retried post, the alert is already stored
+                if (stored != null)
+                {
+                    return Created(stored);
+                }
+            }
+
+            db.PulseOximetryAlerts.Add(pulseOximetryAlert);
+            db.SaveChanges();
+
+            return Created(pulseOximetryAlert);
+        }
+
+        protected override void Dispose(bool disposing)
+        {
+            if (disposing)
+            {
+                db.Dispose();
+            }
+            base.Dispose(disposing);
+        }
+    }
+}
@@ -71,6 +71,22 @@ namespace IoTREST.Controllers
                 return BadRequest(ModelState);
             }
 
+            if (pulseOximetryMeasurement.ClientId != null)
+            {
+                var stored = db.PulseOximetryMeasurements.FirstOrDefault(measurement => measurement.ClientId == pulseOximetryMeasurement.ClientId);
+
+                // A retried upload, the measurement is already stored
+                if (stored != null)
+                {
+                    return Created(stored);
+                }
+
+                db.PulseOximetryMeasurements.Add(pulseOximetryMeasurement);
+                db.SaveChanges();
+
+                return Created(pulseOximetryMeasurement);
+            }
+
             const double TOLERANCE = 0.1;
 
             if (
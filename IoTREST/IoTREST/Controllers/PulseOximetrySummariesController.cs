@@ -0,0 +1,67 @@
+﻿using System.Linq;
+using System.Web.Http;
+using System.Web.Http.OData;
+using IoTREST.Models;
+
+namespace IoTREST.Controllers
+{
+    public class PulseOximetrySummariesController : ODataController
+    {
+        private OximetryContext db = new OximetryContext();
+
+        // GET: odata/PulseOximetrySummaries
+        [EnableQuery]
+        public IQueryable<PulseOximetrySummary> GetPulseOximetrySummaries()
+        {
+            return db.PulseOximetrySummaries;
+        }
+
+        // GET: odata/PulseOximetrySummaries(5)
+        [EnableQuery]
+        public SingleResult<PulseOximetrySummary> GetPulseOximetrySummary([FromODataUri] int key)
+        {
+            return SingleResult.Create(db.PulseOximetrySummaries.Where(pulseOximetrySummary => pulseOximetrySummary.Id == key));
+        }
+
+        // POST: odata/PulseOximetrySummaries
+        public IHttpActionResult Post(PulseOximetrySummary pulseOximetrySummary)
+        {
+            if (!ModelState.IsValid)
+            {
+                return BadRequest(ModelState);
+            }
+
+            var stored = pulseOximetrySummary.ClientId == null
+                ? null
+                : db.PulseOximetrySummaries.FirstOrDefault(summary => summary.ClientId == pulseOximetrySummary.ClientId);
+
+            if (stored == null)
+            {
+                db.PulseOximetrySummaries.Add(pulseOximetrySummary);
+                db.SaveChanges();
+
+                return Created(pulseOximetrySummary);
+            }
+
+            // The window has been summarised again since, keep whichever summary covers the most measurements so that a
+            // retried upload of an older summary doesn't replace a newer one
+            if (pulseOximetrySummary.Count >= stored.Count)
+            {
+                pulseOximetrySummary.Id = stored.Id;
+                db.Entry(stored).CurrentValues.SetValues(pulseOximetrySummary);
+                db.SaveChanges();
+            }
+
+            return Created(stored);
+        }
+
+        protected override void Dispose(bool disposing)
+        {
+            if (disposing)
+            {
+                db.Dispose();
+            }
+            base.Dispose(disposing);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+﻿using System.IO;
+using System.IO.Compression;
+using System.Linq;
+using System.Net.Http;
+using System.Threading;
+using System.Threading.Tasks;
+
+namespace IoTREST.Handlers
+{
+    /// <summary>
+    /// Message handler for gzip compression of the traffic with the app, to keep the traffic of gateways on cellular
+    /// connections down. Request bodies with Content-Encoding: gzip are decompressed before they reach the
+    /// controllers, and responses are compressed for clients that send Accept-Encoding: gzip. Everything else is
+    /// passed on untouched.
+    /// </summary>
+    public class GzipHandler : DelegatingHandler
+    {
+        protected override async Task<HttpResponseMessage> SendAsync(HttpRequestMessage request,
+            CancellationToken cancellationToken)
+        {
+            if (request.Content != null && request.Content.Headers.ContentEncoding.Contains("gzip"))
+            {
+                var decompressed = new MemoryStream();
+
+                using (var gzip = new GZipStream(await request.Content.ReadAsStreamAsync(), CompressionMode.Decompress))
+                {
+                    await gzip.CopyToAsync(decompressed);
+                }
+
+                decompressed.Position = 0;
+                request.Content = CopyHeaders(request.Content, new StreamContent(decompressed));
+            }
+
+            var response = await base.SendAsync(request, cancellationToken);
+
+            if (response.Content != null && !response.Content.Headers.ContentEncoding.Any() &&
+                request.Headers.AcceptEncoding.Any(encoding => encoding.Value == "gzip"))
+            {
+                var compressed = new MemoryStream();
+
+                using (var gzip = new GZipStream(compressed, CompressionMode.Compress, true))
+                {
+                    await response.Content.CopyToAsync(gzip);
+                }
+
+                compressed.Position = 0;
+
+                var content = CopyHeaders(response.Content, new StreamContent(compressed));
+                content.Headers.ContentEncoding.Add("gzip");
+                response.Content = content;
+            }
+
+            return response;
+        }
+
+        private static HttpContent CopyHeaders(HttpContent from, HttpContent to)
+        {
+            foreach (var header in from.Headers)
+            {
+                if (header.Key != "Content-Encoding" && header.Key != "Content-Length")
+                {
+                    to.Headers.TryAddWithoutValidation(header.Key, header.Value);
+                }
+            }
+
+            return to;
+        }
+    }
+}
@@ -25,6 +25,7 @@ namespace IoTREST.Models
             _pulseOximetryType.AddStructuralProperty("BloodOxygenSaturationUnit", EdmPrimitiveTypeKind.String);
             _pulseOximetryType.AddStructuralProperty("TimeStamp", EdmPrimitiveTypeKind.Date);
             _pulseOximetryType.AddStructuralProperty("PatientIdentification", EdmPrimitiveTypeKind.String);
+            _pulseOximetryType.AddStructuralProperty("ClientId", EdmPrimitiveTypeKind.String);
 
             _model.AddElement(_pulseOximetryType);
 
@@ -0,0 +1,37 @@
+﻿using System;
+using System.ComponentModel.DataAnnotations;
+using System.ComponentModel.DataAnnotations.Schema;
+
+namespace IoTREST.Models
+{
+    /// <summary>
+    /// Class for representing a pulse oximetry measurement that breached its patient's thresholds (e.g. a desaturation),
+    /// posted by the gateway as soon as it was received. The measurement itself is uploaded as usual as well.
+    /// </summary>
+    public class PulseOximetryAlert
+    {
+        [Key]
+        [DatabaseGenerated(DatabaseGeneratedOption.Identity)]
+        public int Id { get; set; }
+
+        public float HeartRate { get; set; }
+
+        public string HeartRateUnit { get; set; }
+
+        public float BloodOxygenSaturation { get; set; }
+
+        public string BloodOxygenSaturationUnit { get; set; }
+
+        public DateTime TimeStamp { get; set; }
+
+        public string PatientIdentification { get; set; }
+
+        /// <summary>
+        /// The client id of the measurement that raised the alert, posting an alert with a client id that is already
+        /// stored is a no-op.
+        /// </summary>
+        [StringLength(64)]
+        [Index]
+        public string ClientId { get; set; }
+    }
+}
@@ -25,10 +25,22 @@ namespace IoTREST.Models
         public DateTime TimeStamp { get; set; }
         
         public string PatientIdentification { get; set; }
+
+        /// <summary>
+        /// Identifier given to the measurement by the gateway that received it, uploading a measurement with a client id
+        /// that is already stored is a no-op. Null for measurements uploaded before client ids existed.
+        /// </summary>
+        [StringLength(64)]
+        [Index]
+        public string ClientId { get; set; }
     }
 
     public class OximetryContext : DbContext
     {
         public DbSet<PulseOximetryMeasurement> PulseOximetryMeasurements { get; set; } 
+
+        public DbSet<PulseOximetrySummary> PulseOximetrySummaries { get; set; }
+
+        public DbSet<PulseOximetryAlert> PulseOximetryAlerts { get; set; }
     }
 }
\ No newline at end of file
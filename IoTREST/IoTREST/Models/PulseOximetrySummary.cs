@@ -0,0 +1,57 @@
+﻿using System;
+using System.ComponentModel.DataAnnotations;
+using System.ComponentModel.DataAnnotations.Schema;
+
+namespace IoTREST.Models
+{
+    /// <summary>
+    /// Class for representing a summary of the pulse oximetry measurements that one device took of a patient during a
+    /// window of time, as computed by the gateway instead of uploading every measurement of the window.
+    /// </summary>
+    public class PulseOximetrySummary
+    {
+        [Key]
+        [DatabaseGenerated(DatabaseGeneratedOption.Identity)]
+        public int Id { get; set; }
+
+        public string PatientIdentification { get; set; }
+
+        /// <summary>
+        /// The device that took the measurements, as identified by the gateway.
+        /// </summary>
+        public string DeviceIdentification { get; set; }
+
+        /// <summary>
+        /// The start of the window.
+        /// </summary>
+        public DateTime TimeStamp { get; set; }
+
+        public int WindowSeconds { get; set; }
+
+        /// <summary>
+        /// The number of measurements that the summary covers.
+        /// </summary>
+        public int Count { get; set; }
+
+        public float MinBloodOxygenSaturation { get; set; }
+
+        public float MaxBloodOxygenSaturation { get; set; }
+
+        public float MeanBloodOxygenSaturation { get; set; }
+
+        public float MinHeartRate { get; set; }
+
+        public float MaxHeartRate { get; set; }
+
+        public float MeanHeartRate { get; set; }
+
+        /// <summary>
+        /// Identifier given to the window and device by the gateway, the same for every summary of them. A window that
+        /// is summarised again as more measurements arrive replaces the stored summary, unless that covers more
+        /// measurements.
+        /// </summary>
+        [StringLength(64)]
+        [Index]
+        public string ClientId { get; set; }
+    }
+}
@@ -21,6 +21,12 @@ namespace IoTREST.Services
         {
             using (var db = new OximetryContext())
             {
+                if (measurement.ClientId != null &&
+                    db.PulseOximetryMeasurements.Any(m => m.ClientId == measurement.ClientId))
+                {
+                    return;
+                }
+
                 db.PulseOximetryMeasurements.Add(measurement);
                 db.SaveChanges();
             }
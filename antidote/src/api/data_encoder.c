@@ -740,7 +740,9 @@ void data_set_sample_period(DataEntry *data, char *att_name,
 }
 
 /**
- * Sets data entry with passed type.
+ * Sets data entry with passed type. The samples are binary, so they
+ * are encoded as a hex string (two characters per byte, in the order
+ * they were received).
  *
  * @param data entry
  * @param att_name the name of DIM attribute
@@ -753,7 +755,7 @@ void data_set_simple_sa_observed_value(DataEntry *data, char *att_name,
 		return;
 
 	set_simple(data, data_strcp(att_name), APIDEF_TYPE_STRING,
-		   octet_string2str(simple_sa_observed_value));
+		   octet_string2hex(simple_sa_observed_value));
 }
 
 /**
@@ -32,6 +32,8 @@
 #ifndef CONTEXT_H_
 #define CONTEXT_H_
 
+#include "../asn1/phd_types.h"
+
 /**
  * \ingroup Communication
  * @{
@@ -128,6 +130,12 @@ typedef struct Context {
 	 */
 	timeout_callback timeout_action;
 
+	/**
+	 * Handle of the scanner whose event report is being decoded, 0 when
+	 * the data being decoded doesn't come from a scan report.
+	 */
+	HANDLE scan_report_handle;
+
 } Context;
 
 #define MANAGER_CONTEXT 1
@@ -352,11 +352,16 @@ void operating_event_report(Context *ctx, fsm_events evt, FSMEventData *data)
 		struct MDS_object *obj = mds_get_object_by_handle(ctx->mds, handle);
 
 		if (obj != NULL && obj->choice == MDS_OBJ_SCANNER) {
+			// Lets the data listeners tell scan reports apart
+			ctx->scan_report_handle = handle;
+
 			if (obj->u.scanner.choice == EPI_CFG_SCANNER) {
 				operating_decode_epi_scan_event(ctx, &obj->u.scanner.u.epi_cfg_scanner, type, &event);
 			} else if (obj->u.scanner.choice == PERI_CFG_SCANNER) {
 				operating_decode_peri_scan_event(ctx, &obj->u.scanner.u.peri_cfg_scanner, type, &event);
 			}
+
+			ctx->scan_report_handle = 0;
 		}
 	}
 
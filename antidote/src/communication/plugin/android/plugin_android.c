@@ -40,6 +40,7 @@
  * @{
  */
 
+#include <stdlib.h>
 #include <string.h>
 #include <jni.h>
 #include "src/communication/plugin/plugin.h"
@@ -235,6 +236,54 @@ void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Cdatareceived(JNIEn
 	current_data[len] = '\0';
 	ContextId cid = {plugin_id, handle};
 	communication_read_input_stream(context_get(cid));
+
+	// get_apdu has copied the data by now
+	current_data = NULL;
+	data_len = 0;
+	free(data);
+}
+
+/**
+ * Socket data receiving callback for data in a direct ByteBuffer. The stack reads the data
+ * straight from the buffer's memory (get_apdu copies it before this function returns), so
+ * nothing is allocated or copied on the Java side.
+ *
+ * @param env JNI thread environment
+ * @param obj JNI bridge object
+ * @param handle Connection handle (maps to a ContextID)
+ * @param buf Direct ByteBuffer containing data
+ * @param offset Offset of the data in buf
+ * @param len Length of the data
+ */
+void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Cdatareceiveddirect(JNIEnv *env,
+							jobject obj, jint handle, jobject buf,
+							jint offset, jint len)
+{
+	DEBUG("direct data received at plugin");
+
+	char *address = (*env)->GetDirectBufferAddress(env, buf);
+
+	if (address == NULL) {
+		ERROR("andplug buffer is not a direct buffer");
+		return;
+	}
+
+	jlong capacity = (*env)->GetDirectBufferCapacity(env, buf);
+
+	// get_apdu copies len bytes from address + offset, which must lie within the buffer
+	if (offset < 0 || len < 0 || (jlong) offset + len > capacity) {
+		ERROR("andplug data (offset %d, length %d) is outside the buffer (capacity %lld)",
+		      offset, len, (long long) capacity);
+		return;
+	}
+
+	data_len = len;
+	current_data = address + offset;
+	ContextId cid = {plugin_id, handle};
+	communication_read_input_stream(context_get(cid));
+
+	current_data = NULL;
+	data_len = 0;
 }
 
 
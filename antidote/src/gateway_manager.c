@@ -0,0 +1,380 @@
+/* -*- mode: C; c-file-style: "gnu"; indent-tabs-mode: nil; -*- */
+/**
+ * \file gateway_manager.c
+ * \brief Manager for headless gateways, which reports measurements on stdout.
+ *
+ * Copyright (C) 2010 Signove Tecnologia Corporation.
+ * All rights reserved.
+ * Contact: Signove Tecnologia Corporation (contact@signove.com)
+ *
+ * $LICENSE_TEXT:BEGIN$
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation and appearing
+ * in the file LICENSE included in the packaging of this file; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ * $LICENSE_TEXT:END$
+ *
+ * \author Walter Guerra
+ * \date Jul 7, 2010 (sample_manager.c)
+ */
+
+#include <stdio.h>
+#include <string.h>
+#include <stdlib.h>
+#include <unistd.h>
+#include <errno.h>
+#include <time.h>
+#include <pthread.h>
+
+#include <ieee11073.h>
+#include "communication/plugin/plugin_fifo.h"
+#include "communication/plugin/plugin_tcp.h"
+#include "src/communication/service.h"
+#include "src/communication/context_manager.h"
+
+/**
+ * Manager run by the headless (plain JVM) gateway as a child process.
+ * It serves one agent at a time; when the agent disconnects it waits for
+ * the next one, until it is killed. The gateway runs a manager per TCP port
+ * to serve several agents at once. It writes every measurement data list
+ * to stdout as a single line:
+ * the connection id, a tab and the XML encoding of the list (the same XML
+ * that healthd_android.c hands to the Android gateway), with its line
+ * breaks replaced by spaces. Diagnostics go to stderr.
+ */
+
+/**
+ * The context id of the only connection
+ */
+static ContextId CONTEXT_ID = {0, 0};
+
+/**
+ * The communication plugin, TCP or FIFO
+ */
+static CommunicationPlugin comm_plugin = COMMUNICATION_PLUGIN_NULL;
+
+/**
+ * Writes an XML document to stdout as one line
+ *
+ * @param ctx the context the data came from
+ * @param list the data list to write
+ */
+static void write_data_line(Context *ctx, DataList *list)
+{
+	char *data = xml_encode_data_list(list);
+	char *c;
+
+	if (data == NULL) {
+		return;
+	}
+
+	for (c = data; *c != '\0'; ++c) {
+		if (*c == '\n' || *c == '\r') {
+			*c = ' ';
+		}
+	}
+
+	fprintf(stdout, "%llu\t%s\n", ctx->id.connid, data);
+	fflush(stdout);
+	free(data);
+}
+
+/**
+ * Callback function that is called whenever new data is available
+ *
+ * @param ctx current context.
+ * @param list the new data
+ */
+void new_data_received(Context *ctx, DataList *list)
+{
+	write_data_line(ctx, list);
+}
+
+/**
+ * Callback function that is called whenever a new device has been
+ * associated
+ *
+ * @param ctx current context.
+ * @param list the new data
+ */
+void device_associated(Context *ctx, DataList *list)
+{
+	fprintf(stderr, "Medical device associated on connection %llu\n",
+		ctx->id.connid);
+}
+
+/**
+ * Callback function that is called whenever a device has disassociated
+ *
+ * @param ctx current context.
+ */
+void device_disassociated(Context *ctx)
+{
+	fprintf(stderr, "Medical device disassociated on connection %llu\n",
+		ctx->id.connid);
+}
+
+/**
+ * Prints the usage of the gateway manager
+ */
+static void print_help()
+{
+	printf(
+		"IEEE 11073 manager for headless gateways\n\n"
+		"Usage: ieee_gateway_manager [OPTION]\n"
+		"Options:\n"
+		"        --help                Print this help\n"
+		"        --fifo                Run FIFO mode with default file descriptors\n"
+		"        --tcp [PORT]          Run TCP mode on PORT (default 6024)\n");
+}
+
+/**
+ * Locks the communication layer and the timer. The manager has a single
+ * connection, so one recursive lock is enough; it is held by the timer
+ * thread while it runs a timeout callback.
+ */
+static pthread_mutex_t comm_mutex;
+
+/**
+ * Signalled when the timer is started or reset
+ */
+static pthread_cond_t timer_cond = PTHREAD_COND_INITIALIZER;
+
+/**
+ * Whether the timer is counting
+ */
+static int timer_running = 0;
+
+/**
+ * When the timer expires
+ */
+static struct timespec timer_deadline;
+
+/**
+ * The context whose timer is counting
+ */
+static ContextId timer_context = {0, 0};
+
+/**
+ * Handle of the last started timer
+ */
+static int timer_handle = 0;
+
+/**
+ * Locks the communication layer
+ * @param ctx current context.
+ */
+static void comm_lock(Context *ctx)
+{
+	pthread_mutex_lock(&comm_mutex);
+}
+
+/**
+ * Unlocks the communication layer
+ * @param ctx current context.
+ */
+static void comm_unlock(Context *ctx)
+{
+	pthread_mutex_unlock(&comm_mutex);
+}
+
+/**
+ * Resets the timer, so that its callback is not called
+ * @param ctx current context.
+ */
+static void timer_reset_timeout(Context *ctx)
+{
+	pthread_mutex_lock(&comm_mutex);
+	timer_running = 0;
+	pthread_cond_signal(&timer_cond);
+	pthread_mutex_unlock(&comm_mutex);
+}
+
+/**
+ * Starts the timer, which calls the context's timeout callback from the
+ * timer thread after the context's timeout
+ * @param ctx current context.
+ * @return the timer handle
+ */
+static int timer_count_timeout(Context *ctx)
+{
+	pthread_mutex_lock(&comm_mutex);
+	clock_gettime(CLOCK_REALTIME, &timer_deadline);
+	timer_deadline.tv_sec += ctx->timeout_action.timeout;
+	timer_context = ctx->id;
+	timer_running = 1;
+	ctx->timeout_action.id = ++timer_handle;
+	pthread_cond_signal(&timer_cond);
+	pthread_mutex_unlock(&comm_mutex);
+
+	return ctx->timeout_action.id;
+}
+
+/**
+ * Tells whether the running timer has expired
+ * @return 1 if expired, 0 otherwise
+ */
+static int timer_expired()
+{
+	struct timespec now;
+
+	clock_gettime(CLOCK_REALTIME, &now);
+
+	return now.tv_sec > timer_deadline.tv_sec ||
+	       (now.tv_sec == timer_deadline.tv_sec &&
+		now.tv_nsec >= timer_deadline.tv_nsec);
+}
+
+/**
+ * Timer thread, calls the timeout callbacks of the expired timers
+ * with the communication layer locked
+ * @param arg unused
+ * @return never returns
+ */
+static void *timer_run(void *arg)
+{
+	pthread_mutex_lock(&comm_mutex);
+
+	while (1) {
+		if (!timer_running) {
+			pthread_cond_wait(&timer_cond, &comm_mutex);
+			continue;
+		}
+
+		pthread_cond_timedwait(&timer_cond, &comm_mutex, &timer_deadline);
+
+		if (!timer_running || !timer_expired()) {
+			continue;
+		}
+
+		timer_running = 0;
+
+		// A reset takes the lock, so the context is still there
+		Context *ctx = context_get(timer_context);
+
+		if (ctx != NULL && ctx->timeout_action.func != NULL) {
+			timer_callback_function func = ctx->timeout_action.func;
+
+			ctx->timeout_action.func = NULL;
+			func(ctx);
+		}
+	}
+
+	return NULL;
+}
+
+/**
+ * Starts the timer thread
+ * @return 1 if started, 0 otherwise
+ */
+static int timer_start()
+{
+	pthread_mutexattr_t attr;
+	pthread_t thread;
+
+	pthread_mutexattr_init(&attr);
+	pthread_mutexattr_settype(&attr, PTHREAD_MUTEX_RECURSIVE);
+	pthread_mutex_init(&comm_mutex, &attr);
+	pthread_mutexattr_destroy(&attr);
+
+	return pthread_create(&thread, NULL, timer_run, NULL) == 0;
+}
+
+/**
+ * Configures the application to use the FIFO plugin
+ */
+static void fifo_mode()
+{
+	plugin_network_fifo_setup(&comm_plugin, CONTEXT_ID, 0);
+}
+
+/**
+ * Configures the application to use the TCP plugin
+ *
+ * @param port the port to listen on
+ */
+static void tcp_mode(int port)
+{
+	// NOTE we know that plugin id=1 here,
+	// but might not be the case if there were many plugins!
+	CONTEXT_ID.plugin = 1;
+	CONTEXT_ID.connid = port;
+	plugin_network_tcp_setup(&comm_plugin, 1, port);
+}
+
+/**
+ * Main function
+ * @param argc number of arguments
+ * @param argv arguments
+ * @return 0 (the manager only returns when it fails to start)
+ */
+int main(int argc, char **argv)
+{
+	comm_plugin = communication_plugin();
+
+	if (argc >= 2 && strcmp(argv[1], "--help") == 0) {
+		print_help();
+		exit(0);
+	} else if (argc >= 2 && strcmp(argv[1], "--tcp") == 0 && argc <= 3) {
+		int port = argc == 3 ? atoi(argv[2]) : 6024;
+
+		if (port <= 0 || port > 65535) {
+			fprintf(stderr, "ERROR: invalid port: %s\n", argv[2]);
+			exit(1);
+		}
+
+		tcp_mode(port);
+	} else if (argc == 2 && strcmp(argv[1], "--fifo") == 0) {
+		fifo_mode();
+	} else if (argc == 1) {
+		// FIFO is default mode
+		fifo_mode();
+	} else {
+		fprintf(stderr, "ERROR: invalid options\n");
+		fprintf(stderr, "Try `ieee_gateway_manager --help'"
+			" for more information.\n");
+		exit(1);
+	}
+
+	if (!timer_start()) {
+		fprintf(stderr, "ERROR: cannot start the timer thread\n");
+		exit(1);
+	}
+
+	comm_plugin.thread_lock = comm_lock;
+	comm_plugin.thread_unlock = comm_unlock;
+	comm_plugin.timer_count_timeout = timer_count_timeout;
+	comm_plugin.timer_reset_timeout = timer_reset_timeout;
+
+	CommunicationPlugin *comm_plugins[] = {&comm_plugin, 0};
+	manager_init(comm_plugins);
+
+	ManagerListener listener = MANAGER_LISTENER_EMPTY;
+	listener.measurement_data_updated = &new_data_received;
+	listener.device_available = &device_associated;
+	listener.device_unavailable = &device_disassociated;
+
+	manager_add_listener(listener);
+
+	manager_start();
+
+	// Every loop serves one agent connection, from association to
+	// disconnection; the gateway kills the manager when it stops
+	while (1) {
+		manager_connection_loop(CONTEXT_ID);
+	}
+
+	manager_finalize();
+
+	return 0;
+}
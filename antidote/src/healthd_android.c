@@ -50,6 +50,8 @@
 #include "src/util/log.h"
 #include "src/communication/service.h"
 #include "src/dim/pmstore_req.h"
+#include "src/dim/mds.h"
+#include "src/api/api_definitions.h"
 
 JavaVM *cached_jvm = 0;
 JNIEnv *java_get_env();
@@ -66,16 +68,31 @@ jmethodID jni_up_associated = 0;
 jmethodID jni_up_disassociated = 0;
 jmethodID jni_up_deviceattributes = 0;
 jmethodID jni_up_measurementdata = 0;
+jmethodID jni_up_measurementvalues = 0;
+jmethodID jni_up_measurementsamples = 0;
+jmethodID jni_up_scanreport = 0;
 // FIXME fill up
 jmethodID jni_up_pmstoredata = 0;
 jmethodID jni_up_segmentinfo = 0;
 jmethodID jni_up_segmentdataresponse = 0;
 jmethodID jni_up_segmentdata = 0;
 jmethodID jni_up_segmentcleared = 0;
+jmethodID jni_up_historysegments = 0;
+jmethodID jni_up_segmentvalues = 0;
 
 // FIXME create extented configuration file in proper Android path
 
+// When set, measurements are sent to Java as XML (measurementdata) instead of as flattened
+// primitive arrays (measurementvalues), for debugging
+static jboolean xml_measurements = JNI_FALSE;
+
+// How many PM-Segment entries are handed to Java per segmentvalues call
+#define SEGMENT_CHUNK_ENTRIES 256
+
 static void notif_java_measurementdata(ContextId, char *);
+static void notif_java_measurementvalues(Context *, DataList *);
+static void notif_java_measurementsamples(Context *, DataList *);
+static void notif_java_segmentvalues(Context *, int, int, DataList *);
 static void notif_java_disassociated(ContextId);
 static void notif_java_associated(ContextId, char *);
 static void notif_java_segmentinfo(ContextId, int, char *);
@@ -102,16 +119,12 @@ static void timer_reset_timeout(Context *ctx)
 	}
 }
 /**
- * Timer callback.
- * Calls the supplied callback when timer reaches timeout, and cancels timer.
+ * Calls the timeout callback of a context, if it still has one.
  *
- * @param env JNI thread environment
- * @param obj JNI bridge object
  * @param id Context id (supplied when timer was created)
  */
-void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Ctimeralarm(JNIEnv *env, jobject obj, jint id)
+static void timer_alarm(jint id)
 {
-	DEBUG("timer_alarm");
 	ContextId cid = {plugin_id, id};
 	Context *ctx = context_get(cid);
 	if (ctx) {
@@ -122,6 +135,57 @@ void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Ctimeralarm(JNIEnv
 	}
 }
 
+/**
+ * Timer callback.
+ * Calls the supplied callback when timer reaches timeout, and cancels timer.
+ *
+ * @param env JNI thread environment
+ * @param obj JNI bridge object
+ * @param id Context id (supplied when timer was created)
+ */
+void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Ctimeralarm(JNIEnv *env, jobject obj, jint id)
+{
+	DEBUG("timer_alarm");
+	timer_alarm(id);
+}
+
+/**
+ * Batched timer callback, for all timers that reached timeout on the same tick.
+ *
+ * @param env JNI thread environment
+ * @param obj JNI bridge object
+ * @param ids Context ids (supplied when the timers were created)
+ * @param count Number of valid entries in ids
+ */
+void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Ctimeralarms(JNIEnv *env, jobject obj,
+								jintArray ids, jint count)
+{
+	jint stack_ids[16];
+	jint *cids = stack_ids;
+	int i;
+
+	DEBUG("timer_alarms %d", count);
+
+	if (count <= 0)
+		return;
+
+	if (count > 16) {
+		cids = malloc(count * sizeof(jint));
+		if (!cids)
+			return;
+	}
+
+	/* Copied first, as the alarms may call back into Java, which reuses the array */
+	(*env)->GetIntArrayRegion(env, ids, 0, count, cids);
+
+	for (i = 0; i < count; ++i) {
+		timer_alarm(cids[i]);
+	}
+
+	if (cids != stack_ids)
+		free(cids);
+}
+
 /**
  * Initiates a timer in behalf of IEEE library
  *
@@ -148,6 +212,14 @@ void new_data_received(Context *ctx, DataList *list)
 {
 	DEBUG("Medical Device System Data");
 
+	// Waveforms always go as samples, the data list only has them as hex
+	notif_java_measurementsamples(ctx, list);
+
+	if (!xml_measurements) {
+		notif_java_measurementvalues(ctx, list);
+		return;
+	}
+
 	char *data = xml_encode_data_list(list);
 
 	if (data) {
@@ -156,34 +228,18 @@ void new_data_received(Context *ctx, DataList *list)
 	}
 }
 
-typedef struct {
-	ContextId id;
-	int handle;
-	int instnumber;
-	DataList *list;
-} segment_data_evt;
-
-/*
-// FIXME
-static void segment_data_received_phase2(gpointer revt)
+/**
+ * Turns the XML debug mode for measurements on or off.
+ *
+ * @param env JNI thread environment
+ * @param obj JNI bridge object
+ * @param enabled JNI_TRUE to send measurements as XML, JNI_FALSE to send them as arrays
+ */
+void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Csetxmlmeasurements(JNIEnv *env, jobject obj, jboolean enabled)
 {
-	segment_data_evt *evt = revt;
-
-	DEBUG("PM-Segment Data phase 2");
-
-	char *data = xml_encode_data_list(evt->list);
-
-	if (data) {
-		notif_java_segmentdata(evt->id, evt->handle, evt->instnumber, data);
-		free(data);
-	}
-
-	data_list_del(evt->list);
-	free(revt);
-	return FALSE;
+	DEBUG("set_xml_measurements %d", enabled);
+	xml_measurements = enabled;
 }
-*/
-
 
 /**
  * Callback for when PM-Segment data has been received.
@@ -196,25 +252,16 @@ static void segment_data_received_phase2(gpointer revt)
 void segment_data_received(Context *ctx, int handle, int instnumber, DataList *list)
 {
 	DEBUG("PM-Segment Data");
-	segment_data_evt *evt = calloc(1, sizeof(segment_data_evt));
 
 	// Different from other callback events, "list" is not freed by core, but
 	// it is passed ownership instead.
 
-	// Encoding a whole PM-Segment to XML may take a *LONG* time. If the program
-	// is single-threaded, encoding here would block the 11073 stack, causing
-	// the agent to abort because it didn't get confirmation in time.
-
-	// So, encoding XML from data list is better left to a thread, or, at very
-	// least, delayed until there are no pending events.
-
-	evt->id = ctx->id;
-	evt->handle = handle;
-	evt->instnumber = instnumber;
-	evt->list = list;
+	// Encoding a whole PM-Segment to XML may take a *LONG* time, and would
+	// block the 11073 stack long enough for the agent to abort. The entries
+	// are handed to Java in chunks of parallel arrays instead, which is cheap.
 
-	// g_idle_add(segment_data_received_phase2, evt);
-	// FIXME
+	notif_java_segmentvalues(ctx, handle, instnumber, list);
+	data_list_del(list);
 }
 
 
@@ -276,6 +323,497 @@ static void notif_java_measurementdata(ContextId conn_handle, char *xml)
 				(jint) conn_handle.connid, jxml);
 }
 
+/**
+ * Returns the value of a meta attribute of a data entry.
+ *
+ * @param entry data entry
+ * @param name name of the meta attribute
+ * @return the value, or NULL if the entry has no such meta attribute
+ */
+static const char *meta_value(DataEntry *entry, const char *name)
+{
+	int i;
+
+	for (i = 0; i < entry->meta_data.size; ++i) {
+		MetaAtt *meta = &entry->meta_data.values[i];
+
+		if (meta->name && meta->value && strcmp(meta->name, name) == 0) {
+			return meta->value;
+		}
+	}
+
+	return NULL;
+}
+
+/**
+ * Walks data entries (recursing into compound entries) and collects every float value that has
+ * a metric-id, either of its own or from the closest enclosing entry. The unit is inherited the
+ * same way, since compound observed values only carry it on the parent entry.
+ *
+ * @param entries data entries
+ * @param size number of entries
+ * @param metric_id metric-id inherited from the enclosing entry, or NULL
+ * @param unit unit inherited from the enclosing entry, or NULL
+ * @param env JNI thread environment, or NULL to only count the values
+ * @param metric_ids output array of metric-ids (when env is set)
+ * @param values output array of values (when env is set)
+ * @param units output array of units (when env is set)
+ * @param count number of values collected so far, updated
+ */
+static void flatten_entries(DataEntry *entries, int size, const char *metric_id,
+				const char *unit, JNIEnv *env, jint *metric_ids,
+				jfloat *values, jobjectArray units, int *count)
+{
+	int i;
+
+	for (i = 0; i < size; ++i) {
+		DataEntry *entry = &entries[i];
+		const char *entry_metric_id = meta_value(entry, "metric-id");
+		const char *entry_unit = meta_value(entry, "unit");
+
+		if (!entry_metric_id)
+			entry_metric_id = metric_id;
+		if (!entry_unit)
+			entry_unit = unit;
+
+		if (entry->choice == COMPOUND_DATA_ENTRY) {
+			if (entry->u.compound.entries) {
+				flatten_entries(entry->u.compound.entries,
+						entry->u.compound.entries_count,
+						entry_metric_id, entry_unit, env,
+						metric_ids, values, units, count);
+			}
+			continue;
+		}
+
+		if (!entry_metric_id || !entry->u.simple.type || !entry->u.simple.value ||
+		    strcmp(entry->u.simple.type, APIDEF_TYPE_FLOAT) != 0) {
+			continue;
+		}
+
+		if (env) {
+			metric_ids[*count] = (jint) atoi(entry_metric_id);
+			values[*count] = (jfloat) strtod(entry->u.simple.value, NULL);
+
+			jstring junit = (*env)->NewStringUTF(env, entry_unit ? entry_unit : "");
+			(*env)->SetObjectArrayElement(env, units, *count, junit);
+			(*env)->DeleteLocalRef(env, junit);
+		}
+
+		++*count;
+	}
+}
+
+/**
+ * Function that calls the Java measurementvalues method, with the measurement flattened into
+ * parallel arrays of metric-ids, values and units instead of XML. Data that comes from a scan
+ * report goes to the Java scanreport method instead, together with the scanner's handle.
+ *
+ * @param ctx current context
+ * @param list measurement data
+ */
+static void notif_java_measurementvalues(Context *ctx, DataList *list)
+{
+	JNIEnv *env = java_get_env();
+	int count = 0;
+
+	if (!list || !list->values)
+		return;
+
+	flatten_entries(list->values, list->size, NULL, NULL, NULL, NULL, NULL, NULL, &count);
+
+	// The arrays, the String class and the units are all released with the frame
+	if ((*env)->PushLocalFrame(env, 8) < 0) {
+		(*env)->ExceptionClear(env);
+		return;
+	}
+
+	jintArray jmetric_ids = (*env)->NewIntArray(env, count);
+	jfloatArray jvalues = (*env)->NewFloatArray(env, count);
+	jclass jstring_class = (*env)->FindClass(env, "java/lang/String");
+	jobjectArray junits = jstring_class ?
+		(*env)->NewObjectArray(env, count, jstring_class, NULL) : NULL;
+
+	jint *metric_ids = malloc(sizeof(jint) * (count ? count : 1));
+	jfloat *values = malloc(sizeof(jfloat) * (count ? count : 1));
+
+	if (!jmetric_ids || !jvalues || !junits || !metric_ids || !values) {
+		ERROR("measurement dropped, out of memory");
+		(*env)->ExceptionClear(env);
+		(*env)->PopLocalFrame(env, NULL);
+		free(metric_ids);
+		free(values);
+		return;
+	}
+
+	count = 0;
+	flatten_entries(list->values, list->size, NULL, NULL, env, metric_ids, values, junits,
+			&count);
+
+	(*env)->SetIntArrayRegion(env, jmetric_ids, 0, count, metric_ids);
+	(*env)->SetFloatArrayRegion(env, jvalues, 0, count, values);
+	free(metric_ids);
+	free(values);
+
+	if (ctx->scan_report_handle) {
+		(*env)->CallVoidMethod(env, bridge_obj,
+					jni_up_scanreport,
+					(jint) ctx->id.connid, (jint) ctx->scan_report_handle,
+					jmetric_ids, jvalues, junits);
+	} else {
+		(*env)->CallVoidMethod(env, bridge_obj,
+					jni_up_measurementvalues,
+					(jint) ctx->id.connid, jmetric_ids, jvalues, junits);
+	}
+
+	(*env)->PopLocalFrame(env, NULL);
+}
+
+/**
+ * Finds a data entry with a given name, the entry itself or any entry inside it.
+ *
+ * @param entry data entry
+ * @param name the name to look for
+ * @return the first entry with the name, or NULL if there is none
+ */
+static DataEntry *find_entry_named(DataEntry *entry, const char *name)
+{
+	DataEntry *found;
+	int i;
+
+	if (entry->choice == SIMPLE_DATA_ENTRY) {
+		if (entry->u.simple.name && strcmp(entry->u.simple.name, name) == 0)
+			return entry;
+		return NULL;
+	}
+
+	if (entry->choice != COMPOUND_DATA_ENTRY)
+		return NULL;
+
+	if (entry->u.compound.name && strcmp(entry->u.compound.name, name) == 0)
+		return entry;
+
+	if (!entry->u.compound.entries)
+		return NULL;
+
+	for (i = 0; i < entry->u.compound.entries_count; ++i) {
+		if ((found = find_entry_named(&entry->u.compound.entries[i], name)))
+			return found;
+	}
+
+	return NULL;
+}
+
+/**
+ * Converts the latest samples of a real-time sample array into actual
+ * values, as described by its Sa-Specification (sample size and
+ * signedness, samples are big-endian) and Scale-and-Range-Specification
+ * (linear mapping from scaled to absolute values).
+ *
+ * @param rtsa the RT-SA object
+ * @param samples output array, with room for all samples
+ * @return the number of samples, 0 if the sample size is unsupported
+ */
+static int rtsa_scale_samples(struct RTSA *rtsa, jfloat *samples)
+{
+	octet_string *raw = &rtsa->simple_sa_observed_value;
+	int bytes = rtsa->sa_specification.sample_type.sample_size / 8;
+	int is_signed = rtsa->sa_specification.sample_type.significant_bits ==
+			SAMPLE_TYPE_SIGNIFICANT_BITS_SIGNED_SAMPLES;
+	double lower_absolute, upper_absolute, lower_scaled, upper_scaled;
+	double factor = 1;
+	int count;
+	int i, j;
+
+	switch (bytes) {
+	case 1:
+		lower_absolute = rtsa->scale_and_range_specification_8.lower_absolute_value;
+		upper_absolute = rtsa->scale_and_range_specification_8.upper_absolute_value;
+		lower_scaled = is_signed ?
+			(int8) rtsa->scale_and_range_specification_8.lower_scaled_value :
+			rtsa->scale_and_range_specification_8.lower_scaled_value;
+		upper_scaled = is_signed ?
+			(int8) rtsa->scale_and_range_specification_8.upper_scaled_value :
+			rtsa->scale_and_range_specification_8.upper_scaled_value;
+		break;
+	case 2:
+		lower_absolute = rtsa->scale_and_range_specification_16.lower_absolute_value;
+		upper_absolute = rtsa->scale_and_range_specification_16.upper_absolute_value;
+		lower_scaled = is_signed ?
+			(int16) rtsa->scale_and_range_specification_16.lower_scaled_value :
+			rtsa->scale_and_range_specification_16.lower_scaled_value;
+		upper_scaled = is_signed ?
+			(int16) rtsa->scale_and_range_specification_16.upper_scaled_value :
+			rtsa->scale_and_range_specification_16.upper_scaled_value;
+		break;
+	case 4:
+		lower_absolute = rtsa->scale_and_range_specification_32.lower_absolute_value;
+		upper_absolute = rtsa->scale_and_range_specification_32.upper_absolute_value;
+		lower_scaled = is_signed ?
+			(int32) rtsa->scale_and_range_specification_32.lower_scaled_value :
+			rtsa->scale_and_range_specification_32.lower_scaled_value;
+		upper_scaled = is_signed ?
+			(int32) rtsa->scale_and_range_specification_32.upper_scaled_value :
+			rtsa->scale_and_range_specification_32.upper_scaled_value;
+		break;
+	default:
+		return 0;
+	}
+
+	if (upper_scaled != lower_scaled) {
+		factor = (upper_absolute - lower_absolute) / (upper_scaled - lower_scaled);
+	}
+
+	count = raw->length / bytes;
+
+	for (i = 0; i < count; ++i) {
+		intu32 value = 0;
+		double scaled;
+
+		for (j = 0; j < bytes; ++j) {
+			value = (value << 8) | raw->value[i * bytes + j];
+		}
+
+		if (!is_signed) {
+			scaled = value;
+		} else if (bytes == 1) {
+			scaled = (int8) value;
+		} else if (bytes == 2) {
+			scaled = (int16) value;
+		} else {
+			scaled = (int32) value;
+		}
+
+		samples[i] = (jfloat) (lower_absolute + (scaled - lower_scaled) * factor);
+	}
+
+	return count;
+}
+
+/**
+ * Function that calls the Java measurementsamples method once for every
+ * real-time sample array (e.g. a plethysmogram) in the data list that
+ * has new samples, with the samples scaled into actual values.
+ *
+ * @param ctx current context
+ * @param list measurement data
+ */
+static void notif_java_measurementsamples(Context *ctx, DataList *list)
+{
+	JNIEnv *env;
+	int i;
+
+	if (!list || !list->values || !ctx->mds)
+		return;
+
+	for (i = 0; i < list->size; ++i) {
+		DataEntry *entry = &list->values[i];
+		const char *handle = meta_value(entry, "HANDLE");
+		struct MDS_object *object;
+		struct RTSA *rtsa;
+		jfloat *samples;
+		jfloatArray jsamples;
+		int count;
+
+		if (!handle || !find_entry_named(entry, "Simple-Sa-Observed-Value"))
+			continue;
+
+		object = mds_get_object_by_handle(ctx->mds, (HANDLE) atoi(handle));
+
+		if (!object || object->choice != MDS_OBJ_METRIC ||
+		    object->u.metric.choice != METRIC_RTSA)
+			continue;
+
+		rtsa = &object->u.metric.u.rtsa;
+
+		if (rtsa->simple_sa_observed_value.length == 0)
+			continue;
+
+		samples = malloc(sizeof(jfloat) * rtsa->simple_sa_observed_value.length);
+		count = rtsa_scale_samples(rtsa, samples);
+
+		if (count == 0) {
+			DEBUG("healthd C: unsupported sample size %d",
+			      rtsa->sa_specification.sample_type.sample_size);
+			free(samples);
+			continue;
+		}
+
+		env = java_get_env();
+		jsamples = (*env)->NewFloatArray(env, count);
+
+		if (jsamples) {
+			(*env)->SetFloatArrayRegion(env, jsamples, 0, count, samples);
+			(*env)->CallVoidMethod(env, bridge_obj,
+						jni_up_measurementsamples,
+						(jint) ctx->id.connid,
+						(jint) rtsa->metric.type.code,
+						(jint) rtsa->sample_period, jsamples);
+			(*env)->DeleteLocalRef(env, jsamples);
+		}
+
+		free(samples);
+	}
+}
+
+/**
+ * Packs an absolute time data entry into a number of the form YYYYMMDDhhmmss, which fits in a
+ * jlong and is easy to take apart in Java.
+ *
+ * @param entry the absolute time data entry, may be NULL
+ * @return the packed time, 0 if there is no (valid) time
+ */
+static jlong pack_absolute_time(DataEntry *entry)
+{
+	int fields[7] = {0, 0, 0, 0, 0, 0, 0};
+	int i;
+
+	if (!entry || entry->choice != COMPOUND_DATA_ENTRY ||
+	    entry->u.compound.entries_count < 7)
+		return 0;
+
+	// century, year, month, day, hour, minute, second
+	for (i = 0; i < 7; ++i) {
+		DataEntry *field = &entry->u.compound.entries[i];
+
+		if (field->choice != SIMPLE_DATA_ENTRY || !field->u.simple.value)
+			return 0;
+
+		fields[i] = atoi(field->u.simple.value);
+	}
+
+	if (fields[2] < 1 || fields[2] > 12 || fields[3] < 1 || fields[3] > 31)
+		return 0;
+
+	return ((((((jlong) (fields[0] * 100 + fields[1]) * 100 + fields[2]) * 100 + fields[3]) *
+		 100 + fields[4]) * 100 + fields[5]) * 100 + fields[6]);
+}
+
+/**
+ * Function that calls the Java segmentvalues method with the entries of a PM-Segment. The
+ * entries are flattened into parallel arrays, just as measurements are for measurementvalues,
+ * and handed over SEGMENT_CHUNK_ENTRIES entries at a time, so that neither side ever holds a
+ * whole segment (which may have thousands of entries) in Java objects.
+ *
+ * @param ctx current context
+ * @param handle the PM-Store handle
+ * @param instnumber the PM-Segment instance number
+ * @param list the decoded PM-Segment
+ */
+static void notif_java_segmentvalues(Context *ctx, int handle, int instnumber, DataList *list)
+{
+	JNIEnv *env = java_get_env();
+	DataEntry *segment;
+	int entry_count;
+	int first;
+
+	if (!list || !list->values || list->size < 1 ||
+	    list->values[0].choice != COMPOUND_DATA_ENTRY) {
+		entry_count = 0;
+		segment = NULL;
+	} else {
+		segment = &list->values[0];
+		entry_count = segment->u.compound.entries ? segment->u.compound.entries_count : 0;
+	}
+
+	first = 0;
+
+	do {
+		int chunk = entry_count - first;
+		int count = 0;
+		int i;
+
+		if (chunk > SEGMENT_CHUNK_ENTRIES)
+			chunk = SEGMENT_CHUNK_ENTRIES;
+
+		for (i = first; i < first + chunk; ++i) {
+			flatten_entries(&segment->u.compound.entries[i], 1, NULL, NULL, NULL,
+					NULL, NULL, NULL, &count);
+		}
+
+		// Every local reference of the chunk (the arrays, the String class and the units) is
+		// released with the frame, so a long sync doesn't fill the local reference table
+		if ((*env)->PushLocalFrame(env, 8) < 0) {
+			(*env)->ExceptionClear(env);
+			ERROR("history sync: no local frame for segment %d of PM-Store %d",
+			      instnumber, handle);
+			notif_java_segmentdataresponse(ctx->id, handle, instnumber,
+							TSXR_FAIL_OTHER);
+			return;
+		}
+
+		jlongArray jtimes = (*env)->NewLongArray(env, chunk);
+		jintArray jvalue_entries = (*env)->NewIntArray(env, count);
+		jintArray jmetric_ids = (*env)->NewIntArray(env, count);
+		jfloatArray jvalues = (*env)->NewFloatArray(env, count);
+		jclass jstring_class = (*env)->FindClass(env, "java/lang/String");
+		jobjectArray junits = jstring_class ?
+			(*env)->NewObjectArray(env, count, jstring_class, NULL) : NULL;
+
+		jlong *times = calloc(chunk + 1, sizeof(jlong));
+		jint *value_entries = calloc(count + 1, sizeof(jint));
+		jint *metric_ids = calloc(count + 1, sizeof(jint));
+		jfloat *values = calloc(count + 1, sizeof(jfloat));
+
+		if (!jtimes || !jvalue_entries || !jmetric_ids || !jvalues || !junits ||
+		    !times || !value_entries || !metric_ids || !values) {
+			(*env)->ExceptionClear(env);
+			(*env)->PopLocalFrame(env, NULL);
+			free(times);
+			free(value_entries);
+			free(metric_ids);
+			free(values);
+
+			// Java counts the segment as failed rather than waiting for its last chunk
+			ERROR("history sync: out of memory for segment %d of PM-Store %d",
+			      instnumber, handle);
+			notif_java_segmentdataresponse(ctx->id, handle, instnumber,
+							TSXR_FAIL_OTHER);
+			return;
+		}
+
+		count = 0;
+
+		for (i = first; i < first + chunk; ++i) {
+			DataEntry *entry = &segment->u.compound.entries[i];
+			int before = count;
+
+			// The header time, or else the time stamp of the stored observation
+			times[i - first] = pack_absolute_time(
+				find_entry_named(entry, "Segment-Absolute-Time"));
+			if (times[i - first] == 0) {
+				times[i - first] = pack_absolute_time(
+					find_entry_named(entry, "Absolute-Time-Stamp"));
+			}
+
+			flatten_entries(entry, 1, NULL, NULL, env, metric_ids, values,
+					junits, &count);
+
+			while (before < count) {
+				value_entries[before++] = i - first;
+			}
+		}
+
+		(*env)->SetLongArrayRegion(env, jtimes, 0, chunk, times);
+		(*env)->SetIntArrayRegion(env, jvalue_entries, 0, count, value_entries);
+		(*env)->SetIntArrayRegion(env, jmetric_ids, 0, count, metric_ids);
+		(*env)->SetFloatArrayRegion(env, jvalues, 0, count, values);
+
+		first += chunk;
+
+		(*env)->CallVoidMethod(env, bridge_obj, jni_up_segmentvalues,
+					(jint) ctx->id.connid, (jint) handle, (jint) instnumber,
+					jtimes, jvalue_entries, jmetric_ids, jvalues, junits,
+					(jboolean) (first >= entry_count));
+
+		(*env)->PopLocalFrame(env, NULL);
+		free(times);
+		free(value_entries);
+		free(metric_ids);
+		free(values);
+	} while (first < entry_count);
+}
+
 /**
  * Function that calls D-Bus agent.SegmentInfo method.
  *
@@ -303,9 +841,10 @@ static void notif_java_segmentinfo(ContextId conn_handle, int handle, char *xml)
 static void notif_java_segmentdataresponse(ContextId conn_handle,
 			int handle, int instnumber, int retstatus)
 {
-	// JNIEnv *env = java_get_env();
-	// (*env)->CallVoidMethod(env, bridge_obj, jni_up_segmentdataresponse(conn_handle, handle, instnumber, retstatus);
-	// FIXME
+	JNIEnv *env = java_get_env();
+	(*env)->CallVoidMethod(env, bridge_obj, jni_up_segmentdataresponse,
+				(jint) conn_handle.connid, (jint) handle,
+				(jint) instnumber, (jint) retstatus);
 }
 
 
@@ -504,6 +1043,67 @@ void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Creqdeactivationsca
 	manager_set_operational_state_of_the_scanner(cid, (HANDLE) ihandle, os_disabled, NULL);
 }
 
+/**
+ * Lists the configurable scanners of a device, four ints per scanner: its handle, its kind (0
+ * for episodic, 1 for periodic), its operational state and its reporting interval (the minimum
+ * one for episodic scanners) in 1/8 ms.
+ *
+ * \param env JNI thread environment
+ * \param obj JNI bridge object
+ * \param handle Context ID
+ * \return the scanners, an empty array if the device has none
+ */
+jintArray Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Cscanners(JNIEnv *env,
+						jobject obj, jint handle)
+{
+	ContextId cid = {plugin_id, handle};
+	Context *ctx = context_get(cid);
+	jint *scanners = NULL;
+	int count = 0;
+	int i;
+
+	DEBUG("device_scanners");
+
+	if (ctx && ctx->mds && ctx->mds->objects_list_count > 0) {
+		scanners = malloc(sizeof(jint) * 4 * ctx->mds->objects_list_count);
+
+		for (i = 0; scanners && i < ctx->mds->objects_list_count; ++i) {
+			struct MDS_object *object = &ctx->mds->objects_list[i];
+			jint *scanner = &scanners[count * 4];
+
+			if (object->choice != MDS_OBJ_SCANNER)
+				continue;
+
+			scanner[0] = (jint) object->obj_handle;
+
+			if (object->u.scanner.choice == EPI_CFG_SCANNER) {
+				struct EpiCfgScanner *epi = &object->u.scanner.u.epi_cfg_scanner;
+
+				scanner[1] = 0;
+				scanner[2] = (jint) epi->scanner.scanner.operational_state;
+				scanner[3] = (jint) epi->min_reporting_interval;
+			} else {
+				struct PeriCfgScanner *peri = &object->u.scanner.u.peri_cfg_scanner;
+
+				scanner[1] = 1;
+				scanner[2] = (jint) peri->scanner.scanner.operational_state;
+				scanner[3] = (jint) peri->reporting_interval;
+			}
+
+			++count;
+		}
+	}
+
+	jintArray jscanners = (*env)->NewIntArray(env, count * 4);
+
+	if (jscanners && count > 0)
+		(*env)->SetIntArrayRegion(env, jscanners, 0, count * 4, scanners);
+
+	free(scanners);
+
+	return jscanners;
+}
+
 /**
  * interface to release association
  *
@@ -633,6 +1233,83 @@ static void device_clear_segm_cb(Context *ctx, Request *r, DATA_apdu *response_a
 	notif_java_segmentcleared(ctx->id, ret->handle, ret->inst, ret->response);
 }
 
+/**
+ * Callback for the segment info response of a history sync, requests the data of every segment
+ * of the PM-Store and tells Java how many segments to expect
+ *
+ *\param ctx
+ *\param r Request object
+ *\param response_apdu
+ */
+static void history_segminfo_cb(Context *ctx, Request *r, DATA_apdu *response_apdu)
+{
+	PMStoreGetSegmInfoRet *ret = (PMStoreGetSegmInfoRet*) r->return_data;
+	struct MDS_object *object;
+	struct PMStore *pmstore;
+	JNIEnv *env;
+	int requested = 0;
+	int i;
+
+	if (!ret || !ctx->mds)
+		return;
+
+	object = mds_get_object_by_handle(ctx->mds, ret->handle);
+
+	if (object && object->choice == MDS_OBJ_PMSTORE) {
+		pmstore = &object->u.pmstore;
+
+		for (i = 0; i < pmstore->segment_list_count; ++i) {
+			if (manager_request_get_segment_data(ctx->id, ret->handle,
+					pmstore->segm_list[i]->instance_number,
+					device_get_segmdata_cb)) {
+				++requested;
+			}
+		}
+	}
+
+	DEBUG("history sync: %d segments of PM-Store %d", requested, ret->handle);
+
+	env = java_get_env();
+	(*env)->CallVoidMethod(env, bridge_obj, jni_up_historysegments,
+				(jint) ctx->id.connid, (jint) ret->handle, (jint) requested);
+}
+
+/**
+ * Syncs the history of a device, i.e. fetches the segments of all its PM-Stores. Java is told
+ * how many segments every PM-Store has (historysegments) and then gets their entries
+ * (segmentvalues), or the failure of a segment (segmentdataresponse).
+ *
+ * \param env JNI thread environment
+ * \param obj JNI bridge object
+ * \param handle Context ID
+ * \return the number of PM-Stores whose segments are requested
+ */
+jint Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Csynchistory(JNIEnv *env,
+						jobject obj, jint handle)
+{
+	ContextId cid = {plugin_id, handle};
+	Context *ctx = context_get(cid);
+	int requested = 0;
+	int i;
+
+	DEBUG("device_sync_history");
+
+	if (!ctx || !ctx->mds)
+		return 0;
+
+	for (i = 0; i < ctx->mds->objects_list_count; ++i) {
+		struct MDS_object *object = &ctx->mds->objects_list[i];
+
+		if (object->choice == MDS_OBJ_PMSTORE &&
+		    manager_request_get_segment_info(cid, object->obj_handle,
+						     history_segminfo_cb)) {
+			++requested;
+		}
+	}
+
+	return requested;
+}
+
 /**
  * interface to get segments info from a PM-Store
  *
@@ -758,6 +1435,19 @@ void Java_se_gladpingvin_develop_demohealthgateway_JNIBridge_Chealthdinit(JNIEnv
 	DEBUG("healthd C: method devattr %p", jni_up_deviceattributes);
 	jni_up_measurementdata = (*env)->GetMethodID(env, cls, "measurementdata", "(ILjava/lang/String;)V");
 	DEBUG("healthd C: method meas %p", jni_up_measurementdata);
+	jni_up_measurementvalues = (*env)->GetMethodID(env, cls, "measurementvalues", "(I[I[F[Ljava/lang/String;)V");
+	DEBUG("healthd C: method measvalues %p", jni_up_measurementvalues);
+	jni_up_measurementsamples = (*env)->GetMethodID(env, cls, "measurementsamples", "(III[F)V");
+	DEBUG("healthd C: method meassamples %p", jni_up_measurementsamples);
+	jni_up_scanreport = (*env)->GetMethodID(env, cls, "scanreport", "(II[I[F[Ljava/lang/String;)V");
+	DEBUG("healthd C: method scanreport %p", jni_up_scanreport);
+	jni_up_segmentdataresponse = (*env)->GetMethodID(env, cls, "segmentdataresponse", "(IIII)V");
+	DEBUG("healthd C: method segmdataresp %p", jni_up_segmentdataresponse);
+	jni_up_historysegments = (*env)->GetMethodID(env, cls, "historysegments", "(III)V");
+	DEBUG("healthd C: method histsegments %p", jni_up_historysegments);
+	jni_up_segmentvalues = (*env)->GetMethodID(env, cls, "segmentvalues",
+						"(III[J[I[I[F[Ljava/lang/String;Z)V");
+	DEBUG("healthd C: method segmvalues %p", jni_up_segmentvalues);
 	// FIXME PM-Store methods
 
 	DEBUG("healthd C: init comm plugin");